@@ -0,0 +1,81 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+package org.openx.data.jsonserde.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openx.data.jsonserde.objectinspector.primitive.ParsePrimitiveUtils;
+
+/**
+ * Converting strings to numbers in ParsePrimitiveUtils, with some values
+ * that don't convert, as in dirty data.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoercionBenchmark {
+
+    // how many values in a hundred don't convert
+    @Param({"0", "10"})
+    int invalidPercent;
+
+    String[] integers;
+    String[] decimals;
+    int next;
+
+    @Setup
+    public void setUp() {
+        Random r = new Random(42);
+        String[] garbage = { "", "N/A", "null", "12abc", "1,5", "--1" };
+        integers = new String[1024];
+        decimals = new String[1024];
+        for (int i = 0; i < integers.length; i++) {
+            boolean invalid = r.nextInt(100) < invalidPercent;
+            integers[i] = invalid ? garbage[r.nextInt(garbage.length)] : Integer.toString(r.nextInt());
+            decimals[i] = invalid ? garbage[r.nextInt(garbage.length)] : Double.toString(r.nextGaussian() * 1e4);
+        }
+    }
+
+    private int nextValue() {
+        next = (next + 1) & 1023;
+        return next;
+    }
+
+    @Benchmark
+    public int parseInt() {
+        return ParsePrimitiveUtils.parseInt(integers[nextValue()]);
+    }
+
+    @Benchmark
+    public long parseLong() {
+        return ParsePrimitiveUtils.parseLong(integers[nextValue()]);
+    }
+
+    @Benchmark
+    public double parseDouble() {
+        return ParsePrimitiveUtils.parseDouble(decimals[nextValue()]);
+    }
+}
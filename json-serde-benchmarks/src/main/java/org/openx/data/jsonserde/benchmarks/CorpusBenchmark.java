@@ -0,0 +1,92 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+package org.openx.data.jsonserde.benchmarks;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openx.data.jsonserde.JsonSerDe;
+import org.openx.data.jsonserde.corpus.JsonCorpusGenerator;
+
+/**
+ * deserialize() and reading every column, over rows made by
+ * JsonCorpusGenerator: nulls, keys the table doesn't have, escapes and
+ * malformed rows, each alone or together.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CorpusBenchmark {
+
+    static final String COLUMNS = "id,user_name,active,score,created,tags,attributes,address";
+    static final String TYPES = "bigint,string,boolean,double,timestamp,array<int>,map<string,string>,"
+            + "struct<street:string,zip_code:int,geo:struct<lat:double,lon:double>>";
+
+    @Param({JsonSerDe.TOKENIZER_READER, JsonSerDe.TOKENIZER_BYTES})
+    String tokenizer;
+
+    @Param({"0", "0.1"})
+    double nullRate;
+
+    @Param({"0", "16"})
+    int extraKeys;
+
+    @Param({"0", "0.05"})
+    double escapeRate;
+
+    @Param({"0", "0.05"})
+    double malformedRate;
+
+    JsonSerDe serde;
+    ObjectInspector oi;
+    Text[] rows;
+    int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        JsonCorpusGenerator generator = new JsonCorpusGenerator(COLUMNS, TYPES, 42)
+                .nullRate(nullRate).extraKeys(extraKeys).escapeRate(escapeRate).malformedRate(malformedRate);
+        Properties tbl = generator.table();
+        tbl.setProperty(JsonSerDe.PROP_TOKENIZER, tokenizer);
+        tbl.setProperty(JsonSerDe.PROP_IGNORE_MALFORMED_JSON, "true");
+        serde = new JsonSerDe();
+        serde.initialize(null, tbl);
+        oi = serde.getObjectInspector();
+        rows = new Text[1024];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new Text(generator.nextRow());
+        }
+    }
+
+    @Benchmark
+    public void deserializeAndInspect(Blackhole bh) throws SerDeException {
+        next = (next + 1) & 1023;
+        Rows.inspect(serde.deserialize(rows[next]), oi, bh);
+    }
+}
@@ -0,0 +1,88 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+package org.openx.data.jsonserde.benchmarks;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openx.data.jsonserde.JsonSerDe;
+
+/**
+ * JsonSerDe.deserialize(), alone and followed by reading every column
+ * through JsonStructObjectInspector and the inspectors under it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeserializeBenchmark {
+
+    @Param({"NARROW", "WIDE", "DEEP", "NUMBERS", "STRINGS", "UNICODE"})
+    RowShape shape;
+
+    @Param({JsonSerDe.TOKENIZER_READER, JsonSerDe.TOKENIZER_BYTES, JsonSerDe.TOKENIZER_STRUCTURAL})
+    String tokenizer;
+
+    @Param({"false", "true"})
+    boolean lazy;
+
+    JsonSerDe serde;
+    ObjectInspector oi;
+    Text[] rows;
+    int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        Properties tbl = shape.table();
+        tbl.setProperty(JsonSerDe.PROP_TOKENIZER, tokenizer);
+        tbl.setProperty(JsonSerDe.PROP_LAZY, Boolean.toString(lazy));
+        serde = new JsonSerDe();
+        serde.initialize(null, tbl);
+        oi = serde.getObjectInspector();
+        String[] json = shape.rows(1024);
+        rows = new Text[json.length];
+        for (int i = 0; i < json.length; i++) {
+            rows[i] = new Text(json[i]);
+        }
+    }
+
+    private Text nextRow() {
+        next = (next + 1) & 1023;
+        return rows[next];
+    }
+
+    @Benchmark
+    public Object deserialize() throws SerDeException {
+        return serde.deserialize(nextRow());
+    }
+
+    @Benchmark
+    public void deserializeAndInspect(Blackhole bh) throws SerDeException {
+        Rows.inspect(serde.deserialize(nextRow()), oi, bh);
+    }
+}
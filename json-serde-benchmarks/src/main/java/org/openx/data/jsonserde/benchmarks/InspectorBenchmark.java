@@ -0,0 +1,107 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+package org.openx.data.jsonserde.benchmarks;
+
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.hive.serde.Constants;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openx.data.jsonserde.JsonSerDe;
+
+/**
+ * The map, list and union inspectors on their own, over rows parsed
+ * beforehand.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InspectorBenchmark {
+
+    // entries of the maps and elements of the lists
+    @Param({"4", "64"})
+    int size;
+
+    StructObjectInspector oi;
+    StructField map;
+    StructField list;
+    StructField union;
+    Object[] rows;
+    int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        Properties tbl = new Properties();
+        tbl.setProperty(Constants.LIST_COLUMNS, "m,l,u");
+        tbl.setProperty(Constants.LIST_COLUMN_TYPES,
+                "map<string,int>,array<double>,uniontype<int,string,array<int>,struct<a:int>>");
+        JsonSerDe serde = new JsonSerDe();
+        serde.initialize(null, tbl);
+        oi = (StructObjectInspector) serde.getObjectInspector();
+        map = oi.getStructFieldRef("m");
+        list = oi.getStructFieldRef("l");
+        union = oi.getStructFieldRef("u");
+
+        Random r = new Random(42);
+        String[] unions = { "12", "\"twelve\"", "[1,2]", "{\"a\":1}" };
+        rows = new Object[1024];
+        for (int i = 0; i < rows.length; i++) {
+            StringBuilder sb = new StringBuilder("{\"m\":{");
+            for (int j = 0; j < size; j++) {
+                sb.append(j == 0 ? "" : ",").append("\"k").append(j).append("\":").append(r.nextInt(1000));
+            }
+            sb.append("},\"l\":[");
+            for (int j = 0; j < size; j++) {
+                sb.append(j == 0 ? "" : ",").append(r.nextDouble());
+            }
+            sb.append("],\"u\":").append(unions[i % unions.length]).append('}');
+            rows[i] = serde.deserialize(new Text(sb.toString()));
+        }
+    }
+
+    private Object nextRow() {
+        next = (next + 1) & 1023;
+        return rows[next];
+    }
+
+    @Benchmark
+    public void map(Blackhole bh) {
+        Rows.inspect(oi.getStructFieldData(nextRow(), map), map.getFieldObjectInspector(), bh);
+    }
+
+    @Benchmark
+    public void list(Blackhole bh) {
+        Rows.inspect(oi.getStructFieldData(nextRow(), list), list.getFieldObjectInspector(), bh);
+    }
+
+    @Benchmark
+    public void union(Blackhole bh) {
+        Rows.inspect(oi.getStructFieldData(nextRow(), union), union.getFieldObjectInspector(), bh);
+    }
+}
@@ -0,0 +1,208 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+package org.openx.data.jsonserde.benchmarks;
+
+import java.util.Properties;
+import java.util.Random;
+import org.apache.hadoop.hive.serde.Constants;
+import org.openx.data.jsonserde.json.JSONObject;
+
+/**
+ * The kinds of rows the benchmarks read, with the table that reads them.
+ * Rows are random, but the same from run to run.
+ */
+public enum RowShape {
+
+    /** a few columns of every type */
+    NARROW("id,name,active,score,created", "bigint,string,boolean,double,string") {
+        @Override
+        void row(Random r, StringBuilder sb) {
+            sb.append("{\"id\":").append(r.nextLong())
+                    .append(",\"name\":").append(JSONObject.quote(word(r, 4 + r.nextInt(12))))
+                    .append(",\"active\":").append(r.nextBoolean())
+                    .append(",\"score\":").append(r.nextDouble() * 100)
+                    .append(",\"created\":\"2018-0").append(1 + r.nextInt(9)).append("-1")
+                    .append(r.nextInt(10)).append(" 12:34:56\"}");
+        }
+    },
+
+    /** many columns, and keys the table doesn't know about */
+    WIDE(names("c", 64), types(64, "int", "string", "double", "boolean")) {
+        @Override
+        void row(Random r, StringBuilder sb) {
+            sb.append('{');
+            for (int i = 0; i < 64; i++) {
+                sb.append("\"c").append(i).append("\":");
+                switch (i % 4) {
+                    case 0: sb.append(r.nextInt()); break;
+                    case 1: sb.append(JSONObject.quote(word(r, 8))); break;
+                    case 2: sb.append(r.nextDouble()); break;
+                    default: sb.append(r.nextBoolean());
+                }
+                sb.append(',');
+            }
+            for (int i = 0; i < 16; i++) {
+                sb.append("\"extra").append(i).append("\":").append(JSONObject.quote(word(r, 8))).append(',');
+            }
+            sb.setLength(sb.length() - 1);
+            sb.append('}');
+        }
+    },
+
+    /** nested structs, arrays of arrays and maps */
+    DEEP("id,tree,matrix,tags",
+            "int,struct<v:int,child:struct<v:int,child:struct<v:int,child:struct<v:int,child:struct<v:int,leaf:string>>>>>,"
+            + "array<array<struct<k:string,v:int>>>,map<string,array<string>>") {
+        @Override
+        void row(Random r, StringBuilder sb) {
+            sb.append("{\"id\":").append(r.nextInt()).append(",\"tree\":");
+            for (int i = 0; i < 4; i++) {
+                sb.append("{\"v\":").append(r.nextInt(1000)).append(",\"child\":");
+            }
+            sb.append("{\"v\":1,\"leaf\":").append(JSONObject.quote(word(r, 10))).append('}');
+            for (int i = 0; i < 4; i++) {
+                sb.append('}');
+            }
+            sb.append(",\"matrix\":[");
+            for (int i = 0; i < 4; i++) {
+                sb.append(i == 0 ? "[" : ",[");
+                for (int j = 0; j < 4; j++) {
+                    sb.append(j == 0 ? "" : ",").append("{\"k\":").append(JSONObject.quote(word(r, 3)))
+                            .append(",\"v\":").append(r.nextInt(100)).append('}');
+                }
+                sb.append(']');
+            }
+            sb.append("],\"tags\":{");
+            for (int i = 0; i < 6; i++) {
+                sb.append(i == 0 ? "" : ",").append(JSONObject.quote("t" + i)).append(":[")
+                        .append(JSONObject.quote(word(r, 5))).append(',')
+                        .append(JSONObject.quote(word(r, 5))).append(']');
+            }
+            sb.append("}}");
+        }
+    },
+
+    /** numbers only, some of them to be coerced */
+    NUMBERS(names("n", 32), types(32, "int", "bigint", "double", "float")) {
+        @Override
+        void row(Random r, StringBuilder sb) {
+            sb.append('{');
+            for (int i = 0; i < 32; i++) {
+                sb.append(i == 0 ? "" : ",").append("\"n").append(i).append("\":");
+                switch (i % 4) {
+                    case 0: sb.append(r.nextInt(100000)); break;
+                    case 1: sb.append(r.nextLong()); break;
+                    case 2: sb.append(r.nextGaussian() * 1e6); break;
+                    // quoted, the inspectors parse it from a string
+                    default: sb.append('"').append(r.nextFloat()).append('"');
+                }
+            }
+            sb.append('}');
+        }
+    },
+
+    /** long strings */
+    STRINGS(names("s", 16), types(16, "string")) {
+        @Override
+        void row(Random r, StringBuilder sb) {
+            sb.append('{');
+            for (int i = 0; i < 16; i++) {
+                sb.append(i == 0 ? "" : ",").append("\"s").append(i).append("\":");
+                StringBuilder text = new StringBuilder();
+                while (text.length() < 20 + r.nextInt(180)) {
+                    text.append(word(r, 2 + r.nextInt(8))).append(' ');
+                }
+                sb.append(JSONObject.quote(text.toString()));
+            }
+            sb.append('}');
+        }
+    },
+
+    /** strings with \\u escapes, other escapes and non ASCII characters */
+    UNICODE(names("u", 16), types(16, "string")) {
+        @Override
+        void row(Random r, StringBuilder sb) {
+            sb.append('{');
+            for (int i = 0; i < 16; i++) {
+                sb.append(i == 0 ? "" : ",").append("\"u").append(i).append("\":\"");
+                for (int j = 0; j < 40; j++) {
+                    switch (r.nextInt(5)) {
+                        case 0: sb.append(String.format("\\u%04x", 0xa0 + r.nextInt(0x2f00))); break;
+                        case 1: sb.append("\\n\\\"\\\\"); break;
+                        // raw, as UTF-8 in the row: accented, CJK and outside the BMP
+                        case 2: sb.appendCodePoint(0xe0 + r.nextInt(0x20)); break;
+                        case 3: sb.appendCodePoint(0x4e00 + r.nextInt(0x5000)); break;
+                        default: sb.appendCodePoint(0x1f600 + r.nextInt(0x40));
+                    }
+                }
+                sb.append('"');
+            }
+            sb.append('}');
+        }
+    };
+
+    private final String columns;
+    private final String types;
+
+    RowShape(String columns, String types) {
+        this.columns = columns;
+        this.types = types;
+    }
+
+    abstract void row(Random r, StringBuilder sb);
+
+    /**
+     * The table properties to read the rows with.
+     */
+    public Properties table() {
+        Properties tbl = new Properties();
+        tbl.setProperty(Constants.LIST_COLUMNS, columns);
+        tbl.setProperty(Constants.LIST_COLUMN_TYPES, types);
+        return tbl;
+    }
+
+    public String[] rows(int count) {
+        Random r = new Random(ordinal() * 31L + 17);
+        String[] rows = new String[count];
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.setLength(0);
+            row(r, sb);
+            rows[i] = sb.toString();
+        }
+        return rows;
+    }
+
+    static String word(Random r, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) ('a' + r.nextInt(26));
+        }
+        return new String(chars);
+    }
+
+    static String names(String prefix, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(i == 0 ? "" : ",").append(prefix).append(i);
+        }
+        return sb.toString();
+    }
+
+    static String types(int count, String... cycle) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(i == 0 ? "" : ",").append(cycle[i % cycle.length]);
+        }
+        return sb.toString();
+    }
+}
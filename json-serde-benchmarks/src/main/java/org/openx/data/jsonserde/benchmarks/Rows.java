@@ -0,0 +1,73 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+package org.openx.data.jsonserde.benchmarks;
+
+import java.util.List;
+import java.util.Map;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.MapObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.UnionObjectInspector;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Reads a row the way Hive does when a query uses every column: through
+ * the inspectors, down to each primitive value.
+ */
+final class Rows {
+
+    private Rows() {
+    }
+
+    static void inspect(Object data, ObjectInspector oi, Blackhole bh) {
+        if (data == null) {
+            return;
+        }
+        switch (oi.getCategory()) {
+            case PRIMITIVE:
+                bh.consume(((PrimitiveObjectInspector) oi).getPrimitiveJavaObject(data));
+                break;
+            case STRUCT:
+                StructObjectInspector soi = (StructObjectInspector) oi;
+                List<? extends StructField> fields = soi.getAllStructFieldRefs();
+                for (int i = 0; i < fields.size(); i++) {
+                    StructField field = fields.get(i);
+                    inspect(soi.getStructFieldData(data, field), field.getFieldObjectInspector(), bh);
+                }
+                break;
+            case LIST:
+                ListObjectInspector loi = (ListObjectInspector) oi;
+                int length = loi.getListLength(data);
+                for (int i = 0; i < length; i++) {
+                    inspect(loi.getListElement(data, i), loi.getListElementObjectInspector(), bh);
+                }
+                break;
+            case MAP:
+                MapObjectInspector moi = (MapObjectInspector) oi;
+                for (Map.Entry<?, ?> e : moi.getMap(data).entrySet()) {
+                    inspect(e.getKey(), moi.getMapKeyObjectInspector(), bh);
+                    inspect(e.getValue(), moi.getMapValueObjectInspector(), bh);
+                }
+                break;
+            case UNION:
+                UnionObjectInspector uoi = (UnionObjectInspector) oi;
+                byte tag = uoi.getTag(data);
+                inspect(uoi.getField(data), uoi.getObjectInspectors().get(tag), bh);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown category " + oi.getCategory());
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+package org.openx.data.jsonserde.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openx.data.jsonserde.JsonSerDe;
+
+/**
+ * JsonSerDe.serialize(), of rows coming from another table (plain Java
+ * objects) and of rows read by the SerDe itself.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializeBenchmark {
+
+    @Param({"NARROW", "WIDE", "DEEP", "NUMBERS", "STRINGS", "UNICODE"})
+    RowShape shape;
+
+    JsonSerDe serde;
+    ObjectInspector jsonOI;
+    ObjectInspector javaOI;
+    Object[] jsonRows;
+    Object[] javaRows;
+    int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        serde = new JsonSerDe();
+        serde.initialize(null, shape.table());
+        jsonOI = serde.getObjectInspector();
+        javaOI = ObjectInspectorUtils.getStandardObjectInspector(jsonOI, ObjectInspectorCopyOption.JAVA);
+        String[] json = shape.rows(1024);
+        jsonRows = new Object[json.length];
+        javaRows = new Object[json.length];
+        for (int i = 0; i < json.length; i++) {
+            jsonRows[i] = serde.deserialize(new Text(json[i]));
+            javaRows[i] = ObjectInspectorUtils.copyToStandardObject(jsonRows[i], jsonOI, ObjectInspectorCopyOption.JAVA);
+        }
+    }
+
+    private int nextRow() {
+        next = (next + 1) & 1023;
+        return next;
+    }
+
+    @Benchmark
+    public Writable javaObjects() throws SerDeException {
+        return serde.serialize(javaRows[nextRow()], javaOI);
+    }
+
+    @Benchmark
+    public Writable jsonObjects() throws SerDeException {
+        return serde.serialize(jsonRows[nextRow()], jsonOI);
+    }
+}
@@ -0,0 +1,77 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+package org.openx.data.jsonserde.benchmarks;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.hive.serde.Constants;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openx.data.jsonserde.JsonSerDe;
+
+/**
+ * getStructFieldsDataAsList() over a row parsed beforehand, for a table of
+ * plain columns and for one with prefix and unmapped value columns. Run
+ * it with -prof gc to see the bytes allocated per row.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StructFieldsBenchmark {
+
+    static final String ROW = "{\"a\":1,\"b\":\"x\",\"c\":2,\"d\":\"y\",\"e\":3,\"f\":\"z\",\"g\":4,\"h\":\"w\","
+            + "\"p_1\":5,\"zz\":1}";
+
+    @Param({"PLAIN", "PREFIX_UNMAPPED"})
+    String table;
+
+    StructObjectInspector oi;
+    Object row;
+
+    @Setup
+    public void setUp() throws Exception {
+        Properties tbl = new Properties();
+        if ("PLAIN".equals(table)) {
+            tbl.setProperty(Constants.LIST_COLUMNS, "a,b,c,d,e,f,g,h");
+            tbl.setProperty(Constants.LIST_COLUMN_TYPES, "int,string,int,string,int,string,int,string");
+        } else {
+            tbl.setProperty(Constants.LIST_COLUMNS, "a,b,c,d,e,f,g,h,pre,other");
+            tbl.setProperty(Constants.LIST_COLUMN_TYPES,
+                    "int,string,int,string,int,string,int,string,map<string,int>,map<string,string>");
+            tbl.setProperty(JsonSerDe.PROP_PREFIX_MAPPING_PREFIX + "pre", "p_");
+            tbl.setProperty(JsonSerDe.PROP_UNMAPPED_ATTR_KEY, "other");
+        }
+        JsonSerDe serde = new JsonSerDe();
+        serde.initialize(null, tbl);
+        oi = (StructObjectInspector) serde.getObjectInspector();
+        row = serde.deserialize(new Text(ROW));
+    }
+
+    @Benchmark
+    public Object structFields() {
+        return oi.getStructFieldsDataAsList(row);
+    }
+}
@@ -0,0 +1,82 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+package org.openx.data.jsonserde.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openx.data.jsonserde.json.JSONByteTokener;
+import org.openx.data.jsonserde.json.JSONException;
+import org.openx.data.jsonserde.json.JSONObject;
+import org.openx.data.jsonserde.json.JSONStructuralParser;
+import org.openx.data.jsonserde.json.JSONTokener;
+
+/**
+ * Parsing rows into JSONObjects, with each tokenizer, without Hive.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenizerBenchmark {
+
+    @Param({"NARROW", "WIDE", "DEEP", "NUMBERS", "STRINGS", "UNICODE"})
+    RowShape shape;
+
+    String[] rows;
+    byte[][] bytes;
+    JSONStructuralParser structuralParser;
+    int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        rows = shape.rows(1024);
+        bytes = new byte[rows.length][];
+        for (int i = 0; i < rows.length; i++) {
+            bytes[i] = rows[i].getBytes("UTF-8");
+        }
+        structuralParser = new JSONStructuralParser();
+    }
+
+    private int nextRow() {
+        next = (next + 1) & 1023;
+        return next;
+    }
+
+    @Benchmark
+    public Object reader() throws JSONException {
+        return new JSONObject(new JSONTokener(rows[nextRow()], false, null), "benchmark");
+    }
+
+    @Benchmark
+    public Object bytes() throws JSONException {
+        byte[] row = bytes[nextRow()];
+        return new JSONObject(new JSONByteTokener(row, 0, row.length, false, null), "benchmark");
+    }
+
+    @Benchmark
+    public Object structural() throws JSONException {
+        byte[] row = bytes[nextRow()];
+        return structuralParser.parse(row, 0, row.length, false, null, null, null);
+    }
+}
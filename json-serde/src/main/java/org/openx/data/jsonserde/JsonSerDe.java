@@ -17,9 +17,12 @@ import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
 import org.apache.hadoop.hive.serde2.AbstractSerDe;
 import org.apache.hadoop.hive.serde2.SerDeException;
 import org.apache.hadoop.hive.serde2.objectinspector.*;
@@ -40,11 +43,20 @@ import org.apache.hadoop.hive.serde2.objectinspector.primitive.IntObjectInspecto
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.ShortObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.hive.serde2.typeinfo.ListTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.MapTypeInfo;
 import org.apache.hadoop.hive.serde2.typeinfo.StructTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.UnionTypeInfo;
 import org.apache.hadoop.io.Text;
 import org.openx.data.jsonserde.json.JSONArray;
+import org.openx.data.jsonserde.json.JSONByteTokener;
 import org.openx.data.jsonserde.json.JSONException;
 import org.openx.data.jsonserde.json.JSONObject;
+import org.openx.data.jsonserde.json.JSONStructuralParser;
+import org.openx.data.jsonserde.json.JSONTokener;
+import org.openx.data.jsonserde.json.KeyDictionary;
+import org.openx.data.jsonserde.json.KeyProjection;
+import org.openx.data.jsonserde.json.LazyJSONObject;
 import org.openx.data.jsonserde.json.ReplaceNode;
 import org.openx.data.jsonserde.objectinspector.JsonObjectInspectorFactory;
 import org.openx.data.jsonserde.objectinspector.JsonStructOIOptions;
@@ -59,6 +71,11 @@ import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
  * ignore.malformed.json = true/false : malformed json will be ignored
  *         instead of throwing an exception
  * 
+ * Like Hive's own SerDes, an instance is used by one thread at a time:
+ * it reuses buffers from row to row. What instances share (object
+ * inspectors, row plans, key dictionaries) is safe to use from many
+ * threads at once, so every executor thread can have its own SerDe.
+ *
  * @author rcongiu
  */
 public class JsonSerDe extends AbstractSerDe {
@@ -72,6 +89,7 @@ public class JsonSerDe extends AbstractSerDe {
     private SerDeStats stats;
     private boolean lastOperationSerialize;
     long deserializedDataSize;
+    final JsonSerDeMetrics.RowMetrics metrics = new JsonSerDeMetrics.RowMetrics(JsonSerDeMetrics.global());
     long serializedDataSize;
 
     // if set, will ignore malformed JSON in deserialization
@@ -80,6 +98,11 @@ public class JsonSerDe extends AbstractSerDe {
     // properties used in configuration
     public static final String PROP_IGNORE_MALFORMED_JSON = "ignore.malformed.json";
 
+    // Where ignored malformed rows get written, any Hadoop file system path.
+    // Unset, they are only logged, see MalformedRows
+    public static final String PROP_MALFORMED_DEAD_LETTER_DIR = "malformed.json.dead.letter.dir";
+    MalformedRows malformedRows = null;
+
     // Causes the JSON parser not to fail when duplicated object keys are encountered
     boolean allowDuplicates = false;
     public static final String PROP_ALLOW_DUPLICATE_KEYS = "allow.duplicate.json.keys";
@@ -93,8 +116,43 @@ public class JsonSerDe extends AbstractSerDe {
     // Allow first level object keys w/ a given prefix to get aggregated into a well formed table column
     public static final String PROP_PREFIX_MAPPING_PREFIX = "prefix.for.";
 
+    // Which tokenizer parses the rows: "reader" (JSONTokener over the decoded String, the default)
+    // or "bytes" (JSONByteTokener straight over the UTF-8 bytes of the Text)
+    // or "structural" (JSONStructuralParser, indexes the structure of the bytes first)
+    public static final String PROP_TOKENIZER = "json.tokenizer";
+    public static final String TOKENIZER_READER = "reader";
+    public static final String TOKENIZER_BYTES = "bytes";
+    public static final String TOKENIZER_STRUCTURAL = "structural";
+    String tokenizer = TOKENIZER_READER;
+    JSONStructuralParser structuralParser = null;
+
+    // If true, rows are returned as LazyJSONObject and each field is parsed
+    // only when Hive asks for it
+    public static final String PROP_LAZY = "json.lazy";
+    boolean lazy = false;
+
+    // If true, rows are parsed into an Object[] with a slot per column,
+    // see RowPlan
+    public static final String PROP_POSITIONAL = "json.positional";
+    RowPlan rowPlan = null;
+
+    // Column projection pushed down by Hive into the job configuration.
+    // Not all Hive versions define these in ColumnProjectionUtils, so we spell them out.
+    public static final String READ_COLUMN_IDS = "hive.io.file.readcolumn.ids";
+    public static final String READ_COLUMN_NAMES = "hive.io.file.readcolumn.names";
+    public static final String READ_ALL_COLUMNS = "hive.io.file.read.all.columns";
+
+    // top level keys needed by the query, null if every key has to be parsed
+    KeyProjection projection = null;
+
+    // every key the schema can ask for, so the parser can recognize them without allocating
+    KeyDictionary keyDictionary = null;
+
    JsonStructOIOptions options;
 
+    // writes the rows handed to serialize()
+    JsonSerializer jsonSerializer = null;
+
     /**
      * Initializes the SerDe.
      * Gets the list of columns and their types from the table properties.
@@ -149,20 +207,108 @@ public class JsonSerDe extends AbstractSerDe {
         // dots in key names. Substitute with underscores
         options.setDotsInKeyNames(Boolean.parseBoolean(tbl.getProperty(PROP_DOTS_IN_KEYS,"false")));
 
+        // the inspectors work out how to read each field when they're built,
+        // so the options have to be complete by then
+        options.setUnmappedValuesFieldName(tbl.getProperty(PROP_UNMAPPED_ATTR_KEY));
+
+        options.setPrefixMappings(getPrefixMappings(tbl));
+
         rowObjectInspector = (StructObjectInspector) JsonObjectInspectorFactory
                 .getJsonObjectInspectorFromTypeInfo(rowTypeInfo, options);
 
         // other configuration
         ignoreMalformedJson = Boolean.parseBoolean(tbl
                 .getProperty(PROP_IGNORE_MALFORMED_JSON, "false"));
+        malformedRows = ignoreMalformedJson
+                ? new MalformedRows(conf, tbl.getProperty(PROP_MALFORMED_DEAD_LETTER_DIR)) : null;
 
         allowDuplicates = Boolean.parseBoolean(tbl
                 .getProperty(PROP_ALLOW_DUPLICATE_KEYS, "false"));
 
-        options.setUnmappedValuesFieldName(tbl.getProperty(PROP_UNMAPPED_ATTR_KEY));
+        tokenizer = tbl.getProperty(PROP_TOKENIZER, TOKENIZER_READER).trim().toLowerCase();
+        if (!TOKENIZER_READER.equals(tokenizer) && !TOKENIZER_BYTES.equals(tokenizer)
+                && !TOKENIZER_STRUCTURAL.equals(tokenizer)) {
+            throw new SerDeException("Unknown " + PROP_TOKENIZER + " '" + tokenizer
+                    + "', expected " + TOKENIZER_READER + ", " + TOKENIZER_BYTES
+                    + " or " + TOKENIZER_STRUCTURAL);
+        }
+        structuralParser = TOKENIZER_STRUCTURAL.equals(tokenizer) ? new JSONStructuralParser() : null;
 
-        options.setPrefixMappings(getPrefixMappings(tbl));
-        
+        lazy = Boolean.parseBoolean(tbl.getProperty(PROP_LAZY, "false"));
+
+        jsonSerializer = new JsonSerializer(this, options.getMappings());
+
+        rowPlan = getRowPlan(tbl);
+        keyDictionary = rowPlan != null ? rowPlan.keyDictionary : getKeyDictionary(tbl);
+
+        projection = getProjection(conf);
+        LOG.debug("Projection: " + projection);
+    }
+
+    /**
+     * Builds the set of top level JSON keys the query actually reads, from
+     * the column projection Hive puts into the configuration. Returns null,
+     * meaning every key is parsed, when there is no projection or when a
+     * projected column needs to see all the keys (unmapped.attr.key and
+     * prefix.for.* columns).
+     *
+     * @param conf Hadoop configuration, may be null
+     * @return the projection, or null
+     */
+    KeyProjection getProjection(Configuration conf) {
+        // like Hive, reading all columns unless told otherwise
+        if (conf == null || conf.getBoolean(READ_ALL_COLUMNS, true)) {
+            return null;
+        }
+
+        List<String> projected = new ArrayList<String>();
+        String ids = conf.get(READ_COLUMN_IDS);
+        if (ids != null && ids.trim().length() > 0) {
+            for (String id : ids.split(",")) {
+                id = id.trim();
+                if (id.length() == 0) {
+                    continue;
+                }
+                int idx;
+                try {
+                    idx = Integer.parseInt(id);
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+                if (idx < 0 || idx >= columnNames.size()) {
+                    return null;
+                }
+                projected.add(columnNames.get(idx));
+            }
+        } else {
+            String names = conf.get(READ_COLUMN_NAMES);
+            if (names == null || names.trim().length() == 0) {
+                return null;
+            }
+            for (String name : names.split(",")) {
+                name = name.trim();
+                if (name.length() > 0) {
+                    projected.add(name);
+                }
+            }
+        }
+        if (projected.isEmpty()) {
+            return null;
+        }
+
+        Set<String> keys = new HashSet<String>();
+        for (String column : projected) {
+            if (column.equalsIgnoreCase(options.getUnmappedValuesFieldName())
+                    || options.getPrefixMappings().containsKey(column)) {
+                return null;
+            }
+            String key = options.getMappings().get(column);
+            if (key != null) {
+                keys.add(key);
+            }
+            keys.add(column.toLowerCase());
+        }
+        return new KeyProjection(keys, options.isDotsInKeyNames());
     }
 
     /**
@@ -176,33 +322,93 @@ public class JsonSerDe extends AbstractSerDe {
     @Override
     public Object deserialize(Writable w) throws SerDeException {
         Text rowText = (Text) w;
-        deserializedDataSize = rowText.getBytes().length;
+        // the row, not the whole buffer behind it
+        deserializedDataSize = rowText.getLength();
+        long started = metrics.rowStarted(rowText.getLength());
 	
         // Try parsing row into JSON object
         Object jObj = null;
         
         try {
-            String txt = rowText.toString().trim();
-            
-            if(txt.startsWith("{")) {
-                jObj = new JSONObject(txt, allowDuplicates, options.getJsonKeyReplacements(), "deserialize-base");
-            } else if (txt.startsWith("[")){
-                jObj = new JSONArray(txt, allowDuplicates, options.getJsonKeyReplacements());
+            if (lazy || !TOKENIZER_READER.equals(tokenizer)) {
+                jObj = parseBytes(rowText.getBytes(), rowText.getLength());
+            } else {
+                String txt = rowText.toString().trim();
+
+                if(txt.startsWith("{") && rowPlan != null) {
+                    jObj = rowPlan.parse(new JSONTokener(txt, allowDuplicates, options.getJsonKeyReplacements())
+                            .setKeyDictionary(keyDictionary), projection);
+                } else if(txt.startsWith("{")) {
+                    jObj = new JSONObject(new JSONTokener(txt, allowDuplicates, options.getJsonKeyReplacements())
+                            .setKeyDictionary(keyDictionary), "deserialize-base", projection);
+                } else if (txt.startsWith("[")){
+                    jObj = new JSONArray(new JSONTokener(txt, allowDuplicates, options.getJsonKeyReplacements())
+                            .setKeyDictionary(keyDictionary));
+                }
             }
         } catch (JSONException e) {
+            metrics.malformed();
             // If row is not a JSON object, make the whole row NULL
-            onMalformedJson("Row is not a valid JSON Object - JSONException: "
-                    + e.getMessage(), rowText.toString().trim());
-            try {
-                jObj = new JSONObject("{}", allowDuplicates, options.getJsonKeyReplacements(), "malformed");
-            } catch (JSONException ex) {
-                onMalformedJson("Error parsing empty row. This should never happen.", "");
-            }
+            onMalformedJson("Row is not a valid JSON Object - JSONException: ", e, rowText);
+            jObj = JSONObject.EMPTY;
         }
+        metrics.rowParsed(started);
 	
         return jObj;
     }
 
+    /**
+     * Parses a row straight from the UTF-8 bytes of the Text, without
+     * decoding it to a String first. Leading and trailing whitespace is
+     * skipped the same way String.trim() would.
+     * With json.lazy, objects are not parsed at all here, see LazyJSONObject.
+     * With json.tokenizer=structural, JSONStructuralParser does the parsing.
+     * With json.positional, objects are parsed into an Object[], see RowPlan.
+     */
+    private Object parseBytes(byte[] bytes, int length) throws JSONException {
+        int start = 0;
+        int end = length;
+        while (start < end && (bytes[start] & 0xff) <= ' ') {
+            start++;
+        }
+        while (end > start && (bytes[end - 1] & 0xff) <= ' ') {
+            end--;
+        }
+        if (start == end) {
+            return null;
+        }
+
+        if (lazy && bytes[start] == '{') {
+            // scanned now, so that a row that is not an object is reported
+            // here, like with the other tokenizers
+            return new LazyJSONObject(bytes, start, end,
+                    allowDuplicates, options.getJsonKeyReplacements(), keyDictionary, ignoreMalformedJson)
+                    .setMalformedListener(lazyMalformed).scan();
+        }
+
+        if (rowPlan != null && bytes[start] == '{') {
+            JSONByteTokener tokener = new JSONByteTokener(bytes, start, end,
+                    allowDuplicates, options.getJsonKeyReplacements());
+            tokener.setKeyDictionary(keyDictionary);
+            return rowPlan.parse(tokener, projection);
+        }
+
+        if (structuralParser != null) {
+            return structuralParser.parse(bytes, start, end,
+                    allowDuplicates, options.getJsonKeyReplacements(), keyDictionary, projection);
+        }
+
+        JSONByteTokener tokener = new JSONByteTokener(bytes, start, end,
+                allowDuplicates, options.getJsonKeyReplacements());
+        tokener.setKeyDictionary(keyDictionary);
+        if (bytes[start] == '{') {
+            return new JSONObject(tokener, "deserialize-base", projection);
+        } else if (bytes[start] == '[') {
+            return new JSONArray(tokener);
+        }
+        return null;
+    }
+
     @Override
     public ObjectInspector getObjectInspector() throws SerDeException {
         return rowObjectInspector;
@@ -238,17 +444,16 @@ public class JsonSerDe extends AbstractSerDe {
                     + objInspector.getTypeName());
         }
 
-        JSONObject serializer = 
-            serializeStruct( obj, (StructObjectInspector) objInspector, columnNames);
-        
-        Text t = new Text(serializer.toString());
-        
-        serializedDataSize = t.getBytes().length;
+        // same text as serializeField(...).toString(), without building the
+        // JSONObject. The Text is reused by the next call.
+        Text t = jsonSerializer.serialize(obj, (StructObjectInspector) objInspector, columnNames);
+
+        serializedDataSize = t.getLength();
         return t;
     }
 
-    private String getSerializedFieldName( List<String> columnNames, int pos, StructField sf) {
-        String n = columnNames==null? sf.getFieldName(): columnNames.get(pos);
+    private String getSerializedFieldName(StructField sf) {
+        String n = sf.getFieldName();
         
         if(options.getMappings().containsKey(n)) {
             return options.getMappings().get(n);
@@ -263,7 +468,7 @@ public class JsonSerDe extends AbstractSerDe {
      * the whole JSON object is built
      */
     private JSONObject serializeStruct( Object obj,
-            StructObjectInspector soi, List<String> columnNames) {
+            StructObjectInspector soi) {
         // do nothing for null struct
         if (null == obj) {
             return null;
@@ -282,7 +487,7 @@ public class JsonSerDe extends AbstractSerDe {
                     // we want to serialize columns with their proper HIVE name,
                     // not the _col2 kind of name usually generated upstream
                     result.put(
-                            getSerializedFieldName(columnNames, i, sf), 
+                            getSerializedFieldName(sf), 
                             serializeField(
                                 data,
                                 sf.getFieldObjectInspector()));
@@ -299,6 +504,10 @@ public class JsonSerDe extends AbstractSerDe {
     /**
      * Serializes a field. Since we have nested structures, it may be called
      * recursively for instance when defining a list<struct<>> 
+     *
+     * Builds the JSONObject, JSONArray or Java object of the value, as
+     * JsonUDF returns it. serialize() doesn't go through here, it writes
+     * the same text with JsonSerializer.
      * 
      * @param obj Object holding the fields' content
      * @param oi  The field's objec inspector
@@ -355,7 +564,7 @@ public class JsonSerDe extends AbstractSerDe {
                 result = serializeList(obj, (ListObjectInspector)oi);
                 break;
             case STRUCT:
-                result = serializeStruct(obj, (StructObjectInspector)oi, null);
+                result = serializeStruct(obj, (StructObjectInspector)oi);
                 break;
             case UNION:
                 result = serializeUnion(obj, (UnionObjectInspector)oi);
@@ -427,13 +636,33 @@ public class JsonSerDe extends AbstractSerDe {
     
     public void onMalformedJson(String msg, String input) throws SerDeException {
         if(ignoreMalformedJson) {
-            System.err.println("Ignoring malformed JSON: " + msg);
-            System.err.println("Which had this as input: " + input);
+            malformedRows.ignored(msg, -1, input);
         }  else {
             throw new SerDeException(msg);
         }
     }
 
+    // json.lazy values that turn out to be malformed when they're read,
+    // after deserialize() returned
+    private final LazyJSONObject.MalformedListener lazyMalformed = new LazyJSONObject.MalformedListener() {
+        @Override
+        public void malformed(JSONException e, LazyJSONObject row) {
+            metrics.malformed();
+            if (ignoreMalformedJson) {
+                malformedRows.ignored("Value is not valid JSON - JSONException: ", e, new Text(row.bytes()));
+            }
+        }
+    };
+
+    // the message is only put together, and the row decoded, if needed
+    private void onMalformedJson(String reason, JSONException e, Text row) throws SerDeException {
+        if(ignoreMalformedJson) {
+            malformedRows.ignored(reason, e, row);
+        }  else {
+            throw new SerDeException(reason + e.getMessage());
+        }
+    }
+
     @Override
     public SerDeStats getSerDeStats() {
         if(lastOperationSerialize) {
@@ -469,6 +698,101 @@ public class JsonSerDe extends AbstractSerDe {
 
     public static final String CHANGE_KEY_TO_PREFIX = "changekeyto.";
 
+    /**
+     * Finds the plan for json.positional, building it if no other SerDe of
+     * the JVM has one for the same schema, mappings and changekeyto rules.
+     * Returns null when rows are parsed into JSONObjects: when the property
+     * is not set, or when a column needs to see every key of the row.
+     */
+    private RowPlan getRowPlan(Properties tbl) {
+        if (!Boolean.parseBoolean(tbl.getProperty(PROP_POSITIONAL, "false"))) {
+            return null;
+        }
+        if (lazy || options.getUnmappedValuesFieldName() != null
+                || !options.getPrefixMappings().isEmpty() || options.isDotsInKeyNames()) {
+            LOG.warn(PROP_POSITIONAL + " doesn't work with " + PROP_LAZY + ", " + PROP_UNMAPPED_ATTR_KEY
+                    + ", " + PROP_PREFIX_MAPPING_PREFIX + "* or " + PROP_DOTS_IN_KEYS + ", ignoring it");
+            return null;
+        }
+
+        // same key as JsonStructObjectInspector.getJsonField() reads
+        List<String> jsonKeys = new ArrayList<String>();
+        for (String column : columnNames) {
+            column = column.toLowerCase();
+            String key = options.getMappings().get(column);
+            jsonKeys.add(key != null ? key : column);
+        }
+
+        StringBuilder signature = new StringBuilder(rowTypeInfo.getTypeName());
+        signature.append('|').append(jsonKeys);
+        Map<String, String> rules = new TreeMap<String, String>();
+        for (Object o : tbl.keySet()) {
+            if (o instanceof String && ((String) o).startsWith(CHANGE_KEY_TO_PREFIX)) {
+                rules.put((String) o, tbl.getProperty((String) o));
+            }
+        }
+        signature.append('|').append(rules).append('|').append(new TreeMap<String, String>(options.getMappings()));
+
+        RowPlan plan = RowPlan.cached(signature.toString());
+        if (plan == null) {
+            plan = RowPlan.cache(new RowPlan(signature.toString(), jsonKeys, getKeyDictionary(tbl)));
+        }
+        return plan;
+    }
+
+    /**
+     * Collects every JSON key the table can refer to: field names at any
+     * nesting level, mapping targets and the parts of changekeyto paths.
+     *
+     * @param tbl
+     * @return
+     */
+    private KeyDictionary getKeyDictionary(Properties tbl) {
+        Set<String> keys = new HashSet<String>();
+        addFieldNames(rowTypeInfo, keys);
+        keys.addAll(options.getMappings().values());
+
+        for(Object o: tbl.keySet()) {
+            if( ! (o instanceof String)) { continue ; }
+            String s = (String) o;
+
+            if(s.startsWith(CHANGE_KEY_TO_PREFIX)) {
+                keys.add(s.substring(CHANGE_KEY_TO_PREFIX.length()));
+                for(String pathPart : tbl.getProperty(s).toLowerCase().split("\\.")) {
+                    if(!pathPart.endsWith("*")) {
+                        keys.add(pathPart);
+                    }
+                }
+            }
+        }
+        return new KeyDictionary(keys);
+    }
+
+    private static void addFieldNames(TypeInfo ti, Set<String> keys) {
+        switch (ti.getCategory()) {
+            case STRUCT:
+                StructTypeInfo sti = (StructTypeInfo) ti;
+                keys.addAll(sti.getAllStructFieldNames());
+                for (TypeInfo fieldType : sti.getAllStructFieldTypeInfos()) {
+                    addFieldNames(fieldType, keys);
+                }
+                break;
+            case LIST:
+                addFieldNames(((ListTypeInfo) ti).getListElementTypeInfo(), keys);
+                break;
+            case MAP:
+                addFieldNames(((MapTypeInfo) ti).getMapValueTypeInfo(), keys);
+                break;
+            case UNION:
+                for (TypeInfo member : ((UnionTypeInfo) ti).getAllUnionObjectTypeInfos()) {
+                    addFieldNames(member, keys);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
     /**
      * Builds mappings for json attribute names in case we want to refer to them as something else in the schema.
      * This can be very useful for struct elements that use HiveQL keywords.
@@ -505,7 +829,8 @@ public class JsonSerDe extends AbstractSerDe {
 
         // For performance reasons, allow a clear signal to say "no swaps ever!"
         if(retVal.children.size() > 0) {
-            return retVal;
+            // freeze the rules, so parsing doesn't have to sort them for every key
+            return retVal.compile();
         }
         return null;
     }
@@ -0,0 +1,324 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+package org.openx.data.jsonserde;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.openx.data.jsonserde.objectinspector.primitive.ParsePrimitiveUtils;
+
+/**
+ * What reading rows costs: rows, bytes, malformed rows, values that could
+ * not be converted to their column type, sampled parse time and a
+ * histogram of row sizes.
+ *
+ * Counts go to two places. The task's Hadoop (or Tez) counters, in the
+ * JsonSerDe group, so they show up in job history, and the counters of the
+ * JVM, see global(), which are striped by thread so that the threads of an
+ * LLAP daemon don't fight over them. Each SerDe adds up its counts in plain
+ * longs and hands them to the task's counters every FLUSH_ROWS rows and
+ * when the task ends. Values that failed to convert are counted by the
+ * inspectors, per thread, and reach both at the same time.
+ */
+public class JsonSerDeMetrics {
+
+    public static final String GROUP = "JsonSerDe";
+
+    public enum Counter {
+        ROWS,
+        INPUT_BYTES,
+        MALFORMED_ROWS,
+        COERCION_FAILURES,
+        // parse time of one row in PARSE_SAMPLE_RATE, and how many rows that was
+        PARSE_NANOS_SAMPLED,
+        PARSE_SAMPLED_ROWS,
+        // row sizes, in bytes
+        ROW_SIZE_LT_256B,
+        ROW_SIZE_LT_1KB,
+        ROW_SIZE_LT_4KB,
+        ROW_SIZE_LT_16KB,
+        ROW_SIZE_LT_64KB,
+        ROW_SIZE_LT_256KB,
+        ROW_SIZE_GE_256KB
+    }
+
+    static final Counter[] COUNTERS = Counter.values();
+
+    // one row in this many gets timed
+    public static final int PARSE_SAMPLE_RATE = 64;
+
+    private static final int STRIPES = 16;
+    // a cache line of padding after each stripe, so that two stripes never
+    // share one
+    private static final int STRIDE = COUNTERS.length + 8;
+
+    private static final JsonSerDeMetrics GLOBAL = new JsonSerDeMetrics();
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * STRIDE);
+
+    /**
+     * The counts of every SerDe of the JVM.
+     */
+    public static JsonSerDeMetrics global() {
+        return GLOBAL;
+    }
+
+    void add(Counter counter, long amount) {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        cells.addAndGet(stripe * STRIDE + counter.ordinal(), amount);
+    }
+
+    public long get(Counter counter) {
+        long sum = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            sum += cells.get(stripe * STRIDE + counter.ordinal());
+        }
+        return sum;
+    }
+
+    /**
+     * Every counter, by name.
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new LinkedHashMap<String, Long>();
+        for (Counter counter : COUNTERS) {
+            snapshot.put(counter.name(), get(counter));
+        }
+        return snapshot;
+    }
+
+    @Override
+    public String toString() {
+        return GROUP + " " + snapshot();
+    }
+
+    static Counter sizeBucket(int bytes) {
+        if (bytes < 256) {
+            return Counter.ROW_SIZE_LT_256B;
+        } else if (bytes < 1024) {
+            return Counter.ROW_SIZE_LT_1KB;
+        } else if (bytes < 4096) {
+            return Counter.ROW_SIZE_LT_4KB;
+        } else if (bytes < 16384) {
+            return Counter.ROW_SIZE_LT_16KB;
+        } else if (bytes < 65536) {
+            return Counter.ROW_SIZE_LT_64KB;
+        } else if (bytes < 262144) {
+            return Counter.ROW_SIZE_LT_256KB;
+        }
+        return Counter.ROW_SIZE_GE_256KB;
+    }
+
+    // MapredContext only exists from Hive 0.11 on, and the mapred classes
+    // aren't on the compile classpath of every profile, hence reflection
+    private static final Method MAPRED_CONTEXT_GET;
+    private static final Method GET_REPORTER;
+    private static final Method GET_COUNTER;
+    private static final Method INCREMENT;
+    private static final Method SETUP;
+
+    static {
+        Method get = null;
+        Method getReporter = null;
+        Method getCounter = null;
+        Method increment = null;
+        Method setup = null;
+        try {
+            Class<?> c = Class.forName("org.apache.hadoop.hive.ql.exec.MapredContext");
+            get = c.getMethod("get");
+            getReporter = c.getMethod("getReporter");
+            setup = c.getMethod("setup", GenericUDF.class);
+            getCounter = Class.forName("org.apache.hadoop.mapred.Reporter")
+                    .getMethod("getCounter", String.class, String.class);
+            increment = Class.forName("org.apache.hadoop.mapred.Counters$Counter")
+                    .getMethod("increment", long.class);
+        } catch (Exception e) {
+            // older Hive, or not running in a task: no task counters
+            get = null;
+        }
+        MAPRED_CONTEXT_GET = get;
+        GET_REPORTER = getReporter;
+        GET_COUNTER = getCounter;
+        INCREMENT = increment;
+        SETUP = setup;
+    }
+
+    /**
+     * The counter of the task running in this thread, or null if there is
+     * no task, like in a fetch task or outside of Hive.
+     */
+    static Object taskCounter(Counter counter) {
+        if (MAPRED_CONTEXT_GET == null) {
+            return null;
+        }
+        try {
+            Object context = MAPRED_CONTEXT_GET.invoke(null);
+            Object reporter = context == null ? null : GET_REPORTER.invoke(context);
+            return reporter == null ? null : GET_COUNTER.invoke(reporter, GROUP, counter.name());
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    static void increment(Object taskCounter, long amount) {
+        if (taskCounter != null) {
+            try {
+                INCREMENT.invoke(taskCounter, amount);
+            } catch (Exception e) {
+                // counters are best effort
+            }
+        }
+    }
+
+    /**
+     * Has the task running in this thread call metrics.taskEnded() when it
+     * ends.
+     */
+    static void onTaskEnd(RowMetrics metrics) {
+        try {
+            Object context = MAPRED_CONTEXT_GET.invoke(null);
+            if (context != null) {
+                SETUP.invoke(context, new TaskEnd(metrics));
+            }
+        } catch (Exception e) {
+            // then the last counts of the task don't make it to its counters
+        }
+    }
+
+    /**
+     * Not a function: MapredContext closes the GenericUDFs set up with it
+     * when the task ends, the one way a SerDe gets to know about it.
+     */
+    static final class TaskEnd extends GenericUDF {
+        private final RowMetrics metrics;
+
+        TaskEnd(RowMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        public void close() {
+            metrics.taskEnded();
+        }
+
+        @Override
+        public ObjectInspector initialize(ObjectInspector[] arguments) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object evaluate(DeferredObject[] arguments) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getDisplayString(String[] children) {
+            return GROUP + " counters";
+        }
+    }
+
+    /**
+     * Counts the rows of one SerDe, which like the SerDe is used by one
+     * thread at a time.
+     */
+    static class RowMetrics {
+        // the task's counters get the counts every this many rows
+        static final int FLUSH_ROWS = 1024;
+
+        private final JsonSerDeMetrics global;
+        private Object[] taskCounters;
+        private boolean resolved;
+        private long rows;
+        // what the task's counters haven't got yet
+        private final long[] pending = new long[COUNTERS.length];
+        private int pendingRows;
+
+        RowMetrics(JsonSerDeMetrics global) {
+            this.global = global;
+        }
+
+        private void add(Counter counter, long amount) {
+            global.add(counter, amount);
+            pending[counter.ordinal()] += amount;
+        }
+
+        /**
+         * Counts a row about to be parsed.
+         * @return when it started if it gets timed, 0 otherwise
+         */
+        long rowStarted(int bytes) {
+            if (!resolved) {
+                // the task has set up its context by the time rows come
+                resolved = true;
+                if (taskCounter(Counter.ROWS) != null) {
+                    taskCounters = new Object[COUNTERS.length];
+                    for (Counter counter : COUNTERS) {
+                        taskCounters[counter.ordinal()] = taskCounter(counter);
+                    }
+                    onTaskEnd(this);
+                }
+            }
+            if (pendingRows == FLUSH_ROWS) {
+                flush();
+            }
+            pendingRows++;
+            add(Counter.ROWS, 1);
+            add(Counter.INPUT_BYTES, bytes);
+            add(sizeBucket(bytes), 1);
+            return rows++ % PARSE_SAMPLE_RATE == 0 ? System.nanoTime() : 0;
+        }
+
+        void rowParsed(long started) {
+            if (started != 0) {
+                add(Counter.PARSE_NANOS_SAMPLED, System.nanoTime() - started);
+                add(Counter.PARSE_SAMPLED_ROWS, 1);
+            }
+        }
+
+        void malformed() {
+            add(Counter.MALFORMED_ROWS, 1);
+        }
+
+        /**
+         * Counts the values that failed to convert so far, and hands what
+         * it has counted to the task's counters.
+         */
+        void flush() {
+            long failures = ParsePrimitiveUtils.takeCoercionFailures();
+            if (failures != 0) {
+                add(Counter.COERCION_FAILURES, failures);
+            }
+            if (taskCounters != null) {
+                for (int i = 0; i < pending.length; i++) {
+                    if (pending[i] != 0) {
+                        increment(taskCounters[i], pending[i]);
+                    }
+                }
+            }
+            Arrays.fill(pending, 0L);
+            pendingRows = 0;
+        }
+
+        /**
+         * Flushes the last counts of the task. The next task to use the
+         * SerDe looks up its own counters.
+         */
+        void taskEnded() {
+            flush();
+            taskCounters = null;
+            resolved = false;
+        }
+    }
+}
@@ -0,0 +1,662 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+package org.openx.data.jsonserde;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.MapObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.UnionObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BooleanObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.ByteObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.DoubleObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.FloatObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.IntObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.ShortObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.io.Text;
+import org.openx.data.jsonserde.json.JSONByteWriter;
+import org.openx.data.jsonserde.json.JSONException;
+
+/**
+ * Writes rows as UTF-8 JSON straight from their object inspectors into a
+ * reused buffer, instead of building a JSONObject tree first and turning it
+ * into a String.
+ *
+ * The first row compiles the object inspector into a tree of nodes, one
+ * writer per type with the names of the fields resolved and their keys
+ * already quoted, so that later rows don't look at categories or mappings
+ * anymore. The plan is compiled again only if Hive hands us another
+ * object inspector.
+ *
+ * The text is the same as JsonSerDe.serializeField(...).toString(), keys
+ * included: a JSONObject prints its keys in the order its HashMap iterates
+ * them, so for every struct we replay the puts into a HashMap once per set
+ * of non null fields and remember the order it gives. Maps are replayed
+ * into a HashMap for every row.
+ *
+ * Unions are the one difference: their value is read with getField(), so
+ * that unions coming from other SerDes serialize too.
+ */
+class JsonSerializer {
+    private static final Log LOG = LogFactory.getLog(JsonSerializer.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // key orders remembered for each struct, one per set of non null fields
+    static final int MAX_ORDERS = 1024;
+
+    private final JsonSerDe serde;
+    private final Map<String, String> mappings;
+
+    final JSONByteWriter out = new JSONByteWriter();
+    private final Text text = new Text();
+
+    // the plan for the rows, and what it was compiled for
+    StructNode rowPlan = null;
+    private StructObjectInspector rowOI = null;
+    private List<String> rowColumnNames = null;
+
+    // what Node.resolve() found to write
+    Object resolved;
+
+    JsonSerializer(JsonSerDe serde, Map<String, String> mappings) {
+        this.serde = serde;
+        this.mappings = mappings;
+    }
+
+    /**
+     * Serializes a row. The Text returned is reused by the next call.
+     */
+    Text serialize(Object obj, StructObjectInspector soi, List<String> columnNames) throws SerDeException {
+        if (obj == null) {
+            throw new SerDeException("Can't serialize a null row");
+        }
+        if (rowPlan == null || rowOI != soi || rowColumnNames != columnNames) {
+            rowPlan = compileStruct(soi, columnNames);
+            rowOI = soi;
+            rowColumnNames = columnNames;
+        }
+        out.reset();
+        rowPlan.write(obj, this);
+        text.set(out.getBytes(), 0, out.length());
+        return text;
+    }
+
+    Node compile(ObjectInspector oi) {
+        switch (oi.getCategory()) {
+            case PRIMITIVE:
+                PrimitiveObjectInspector poi = (PrimitiveObjectInspector) oi;
+                switch (poi.getPrimitiveCategory()) {
+                    case BOOLEAN:
+                        return new BooleanNode((BooleanObjectInspector) poi);
+                    case BYTE:
+                        return new ByteNode((ByteObjectInspector) poi);
+                    case SHORT:
+                        return new ShortNode((ShortObjectInspector) poi);
+                    case INT:
+                        return new IntNode((IntObjectInspector) poi);
+                    case LONG:
+                        return new LongNode((LongObjectInspector) poi);
+                    case DOUBLE:
+                        return new DoubleNode((DoubleObjectInspector) poi);
+                    case FLOAT:
+                        return new FloatNode((FloatObjectInspector) poi);
+                    case STRING:
+                        return new StringNode((StringObjectInspector) poi);
+                    case UNKNOWN:
+                        return new UnknownNode(poi);
+                    default:
+                        // serializeField() leaves these out
+                        return new NullNode(poi);
+                }
+            case MAP:
+                MapObjectInspector moi = (MapObjectInspector) oi;
+                return new MapNode(moi, compile(moi.getMapKeyObjectInspector()),
+                        compile(moi.getMapValueObjectInspector()));
+            case LIST:
+                ListObjectInspector loi = (ListObjectInspector) oi;
+                return new ListNode(loi, compile(loi.getListElementObjectInspector()));
+            case STRUCT:
+                return compileStruct((StructObjectInspector) oi, null);
+            case UNION:
+                UnionObjectInspector uoi = (UnionObjectInspector) oi;
+                List<ObjectInspector> members = uoi.getObjectInspectors();
+                Node[] nodes = new Node[members.size()];
+                for (int i = 0; i < nodes.length; i++) {
+                    nodes[i] = compile(members.get(i));
+                }
+                return new UnionNode(uoi, nodes);
+            default:
+                return new NullNode(oi);
+        }
+    }
+
+    StructNode compileStruct(StructObjectInspector soi, List<String> columnNames) {
+        List<? extends StructField> fields = soi.getAllStructFieldRefs();
+        String[] names = new String[fields.size()];
+        Node[] children = new Node[fields.size()];
+        for (int i = 0; i < names.length; i++) {
+            // same as JsonSerDe.getSerializedFieldName()
+            String n = columnNames == null ? fields.get(i).getFieldName() : columnNames.get(i);
+            names[i] = mappings.containsKey(n) ? mappings.get(n) : n;
+            children[i] = compile(fields.get(i).getFieldObjectInspector());
+        }
+        return new StructNode(soi, fields.toArray(new StructField[fields.size()]), names, children);
+    }
+
+    /**
+     * Writes one type of value.
+     */
+    abstract static class Node {
+        final ObjectInspector oi;
+
+        Node(ObjectInspector oi) {
+            this.oi = oi;
+        }
+
+        /**
+         * Finds what a value that's not null serializes as. Returns null when
+         * serializeField() would return null for it, otherwise the node to
+         * write it with, and leaves the data to write in s.resolved.
+         */
+        Node resolve(Object obj, JsonSerializer s) {
+            s.resolved = obj;
+            return this;
+        }
+
+        /**
+         * Writes data resolve() returned this node for.
+         */
+        abstract void write(Object obj, JsonSerializer s);
+
+        /**
+         * Whether the JSONObject of a map would refuse the value.
+         */
+        boolean isNonFinite(Object obj) {
+            return false;
+        }
+
+        /**
+         * The key a map key is written with: the text of the value, for a
+         * struct, list or map.
+         */
+        String toKey(Object obj, JsonSerializer s) {
+            Node w = resolve(obj, s);
+            if (w == null) {
+                // what JSONObject.put() does with it
+                throw new NullPointerException("Null key.");
+            }
+            if (w != this) {
+                return w.toKey(s.resolved, s);
+            }
+            int start = s.out.length();
+            write(s.resolved, s);
+            String key = new String(s.out.getBytes(), start, s.out.length() - start, UTF8);
+            s.out.truncate(start);
+            return key;
+        }
+    }
+
+    static final class NullNode extends Node {
+        NullNode(ObjectInspector oi) {
+            super(oi);
+        }
+
+        @Override
+        Node resolve(Object obj, JsonSerializer s) {
+            return null;
+        }
+
+        @Override
+        void write(Object obj, JsonSerializer s) {
+            s.out.writeNull();
+        }
+    }
+
+    static final class UnknownNode extends Node {
+        UnknownNode(ObjectInspector oi) {
+            super(oi);
+        }
+
+        @Override
+        Node resolve(Object obj, JsonSerializer s) {
+            throw new RuntimeException("Unknown primitive");
+        }
+
+        @Override
+        void write(Object obj, JsonSerializer s) {
+            throw new RuntimeException("Unknown primitive");
+        }
+    }
+
+    static final class BooleanNode extends Node {
+        final BooleanObjectInspector boi;
+
+        BooleanNode(BooleanObjectInspector boi) {
+            super(boi);
+            this.boi = boi;
+        }
+
+        @Override
+        void write(Object obj, JsonSerializer s) {
+            s.out.writeBoolean(boi.get(obj));
+        }
+
+        @Override
+        String toKey(Object obj, JsonSerializer s) {
+            return String.valueOf(boi.get(obj));
+        }
+    }
+
+    static final class ByteNode extends Node {
+        final ByteObjectInspector boi;
+
+        ByteNode(ByteObjectInspector boi) {
+            super(boi);
+            this.boi = boi;
+        }
+
+        @Override
+        void write(Object obj, JsonSerializer s) {
+            s.out.writeLong(boi.get(obj));
+        }
+
+        @Override
+        String toKey(Object obj, JsonSerializer s) {
+            return Byte.toString(boi.get(obj));
+        }
+    }
+
+    static final class ShortNode extends Node {
+        final ShortObjectInspector soi;
+
+        ShortNode(ShortObjectInspector soi) {
+            super(soi);
+            this.soi = soi;
+        }
+
+        @Override
+        void write(Object obj, JsonSerializer s) {
+            s.out.writeLong(soi.get(obj));
+        }
+
+        @Override
+        String toKey(Object obj, JsonSerializer s) {
+            return Short.toString(soi.get(obj));
+        }
+    }
+
+    static final class IntNode extends Node {
+        final IntObjectInspector ioi;
+
+        IntNode(IntObjectInspector ioi) {
+            super(ioi);
+            this.ioi = ioi;
+        }
+
+        @Override
+        void write(Object obj, JsonSerializer s) {
+            s.out.writeLong(ioi.get(obj));
+        }
+
+        @Override
+        String toKey(Object obj, JsonSerializer s) {
+            return Integer.toString(ioi.get(obj));
+        }
+    }
+
+    static final class LongNode extends Node {
+        final LongObjectInspector loi;
+
+        LongNode(LongObjectInspector loi) {
+            super(loi);
+            this.loi = loi;
+        }
+
+        @Override
+        void write(Object obj, JsonSerializer s) {
+            s.out.writeLong(loi.get(obj));
+        }
+
+        @Override
+        String toKey(Object obj, JsonSerializer s) {
+            return Long.toString(loi.get(obj));
+        }
+    }
+
+    static final class DoubleNode extends Node {
+        final DoubleObjectInspector doi;
+
+        DoubleNode(DoubleObjectInspector doi) {
+            super(doi);
+            this.doi = doi;
+        }
+
+        @Override
+        void write(Object obj, JsonSerializer s) {
+            try {
+                s.out.writeDouble(doi.get(obj));
+            } catch (JSONException ex) {
+                LOG.warn("Problem serializing", ex);
+                throw new RuntimeException(ex);
+            }
+        }
+
+        @Override
+        boolean isNonFinite(Object obj) {
+            double d = doi.get(obj);
+            return Double.isNaN(d) || Double.isInfinite(d);
+        }
+
+        @Override
+        String toKey(Object obj, JsonSerializer s) {
+            return Double.toString(doi.get(obj));
+        }
+    }
+
+    static final class FloatNode extends Node {
+        final FloatObjectInspector foi;
+
+        FloatNode(FloatObjectInspector foi) {
+            super(foi);
+            this.foi = foi;
+        }
+
+        @Override
+        void write(Object obj, JsonSerializer s) {
+            try {
+                s.out.writeFloat(foi.get(obj));
+            } catch (JSONException ex) {
+                LOG.warn("Problem serializing", ex);
+                throw new RuntimeException(ex);
+            }
+        }
+
+        @Override
+        boolean isNonFinite(Object obj) {
+            float f = foi.get(obj);
+            return Float.isNaN(f) || Float.isInfinite(f);
+        }
+
+        @Override
+        String toKey(Object obj, JsonSerializer s) {
+            return Float.toString(foi.get(obj));
+        }
+    }
+
+    static final class StringNode extends Node {
+        final StringObjectInspector soi;
+
+        StringNode(StringObjectInspector soi) {
+            super(soi);
+            this.soi = soi;
+        }
+
+        @Override
+        Node resolve(Object obj, JsonSerializer s) {
+            String str = soi.getPrimitiveJavaObject(obj);
+            if (str == null) {
+                return null;
+            }
+            s.resolved = str;
+            return this;
+        }
+
+        @Override
+        void write(Object obj, JsonSerializer s) {
+            s.out.writeQuoted((String) obj);
+        }
+
+        @Override
+        String toKey(Object obj, JsonSerializer s) {
+            return soi.getPrimitiveJavaObject(obj).toString();
+        }
+    }
+
+    static final class UnionNode extends Node {
+        final UnionObjectInspector uoi;
+        final Node[] members;
+
+        UnionNode(UnionObjectInspector uoi, Node[] members) {
+            super(uoi);
+            this.uoi = uoi;
+            this.members = members;
+        }
+
+        @Override
+        Node resolve(Object obj, JsonSerializer s) {
+            Node member = members[uoi.getTag(obj)];
+            Object value = uoi.getField(obj);
+            return value == null ? null : member.resolve(value, s);
+        }
+
+        @Override
+        void write(Object obj, JsonSerializer s) {
+            Node member = resolve(obj, s);
+            if (member == null) {
+                s.out.writeNull();
+            } else {
+                member.write(s.resolved, s);
+            }
+        }
+    }
+
+    static final class ListNode extends Node {
+        final ListObjectInspector loi;
+        final Node element;
+
+        ListNode(ListObjectInspector loi, Node element) {
+            super(loi);
+            this.loi = loi;
+            this.element = element;
+        }
+
+        @Override
+        void write(Object obj, JsonSerializer s) {
+            int n = loi.getListLength(obj);
+            s.out.write('[');
+            for (int i = 0; i < n; i++) {
+                if (i > 0) {
+                    s.out.write(',');
+                }
+                Object e = loi.getListElement(obj, i);
+                Node w = e == null ? null : element.resolve(e, s);
+                if (w == null) {
+                    s.out.writeNull();
+                } else {
+                    w.write(s.resolved, s);
+                }
+            }
+            s.out.write(']');
+        }
+    }
+
+    static final class MapNode extends Node {
+        final MapObjectInspector moi;
+        final Node key;
+        final Node value;
+
+        MapNode(MapObjectInspector moi, Node key, Node value) {
+            super(moi);
+            this.moi = moi;
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        void write(Object obj, JsonSerializer s) {
+            Map<?, ?> m = moi.getMap(obj);
+
+            // the same puts and removes serializeMap() does on its JSONObject
+            HashMap<String, MapEntry> entries = new HashMap<String, MapEntry>();
+            for (Object k : m.keySet()) {
+                String name = key.toKey(k, s);
+                Object v = m.get(k);
+                Node w = v == null ? null : value.resolve(v, s);
+                if (w == null) {
+                    entries.remove(name);
+                } else if (w.isNonFinite(s.resolved)) {
+                    LOG.warn("Problem serializing map");
+                } else {
+                    entries.put(name, new MapEntry(s.resolved, w));
+                }
+            }
+
+            s.out.write('{');
+            boolean first = true;
+            for (Map.Entry<String, MapEntry> e : entries.entrySet()) {
+                if (!first) {
+                    s.out.write(',');
+                }
+                first = false;
+                s.out.writeQuoted(e.getKey());
+                s.out.write(':');
+                e.getValue().writer.write(e.getValue().data, s);
+            }
+            s.out.write('}');
+        }
+    }
+
+    private static final class MapEntry {
+        final Object data;
+        final Node writer;
+
+        MapEntry(Object data, Node writer) {
+            this.data = data;
+            this.writer = writer;
+        }
+    }
+
+    static final class StructNode extends Node {
+        final StructObjectInspector soi;
+        final StructField[] fields;
+        final String[] names;
+        final Node[] children;
+        // the quoted names followed by ':'
+        final byte[][] keys;
+
+        // two bits per field: set or not, and serialized as null or not
+        final FieldMask probe;
+        final Map<FieldMask, int[]> orders = new HashMap<FieldMask, int[]>();
+
+        // the field values being written. A struct can't be nested in itself,
+        // so one set per node is enough.
+        final Object[] values;
+        final Node[] writers;
+
+        StructNode(StructObjectInspector soi, StructField[] fields, String[] names, Node[] children) {
+            super(soi);
+            this.soi = soi;
+            this.fields = fields;
+            this.names = names;
+            this.children = children;
+            keys = new byte[names.length][];
+            JSONByteWriter w = new JSONByteWriter(32);
+            for (int i = 0; i < names.length; i++) {
+                w.reset();
+                w.writeQuoted(names[i]).write(':');
+                keys[i] = Arrays.copyOf(w.getBytes(), w.length());
+            }
+            probe = new FieldMask(new long[(2 * names.length + 63) >>> 6]);
+            values = new Object[names.length];
+            writers = new Node[names.length];
+        }
+
+        @Override
+        void write(Object obj, JsonSerializer s) {
+            long[] bits = probe.bits;
+            Arrays.fill(bits, 0L);
+            for (int i = 0; i < fields.length; i++) {
+                Object d = soi.getStructFieldData(obj, fields[i]);
+                if (d == null) {
+                    continue;
+                }
+                Node w = children[i].resolve(d, s);
+                // a field serialized as null removes its key, which matters only
+                // when it's mapped to the same name as another one
+                int bit = w == null ? 2 * i + 1 : 2 * i;
+                bits[bit >>> 6] |= 1L << bit;
+                values[i] = s.resolved;
+                writers[i] = w;
+            }
+
+            int[] order = order();
+            s.out.write('{');
+            for (int k = 0; k < order.length; k++) {
+                int i = order[k];
+                if (k > 0) {
+                    s.out.write(',');
+                }
+                s.out.write(keys[i]);
+                writers[i].write(values[i], s);
+            }
+            s.out.write('}');
+        }
+
+        /**
+         * The order of the keys for the fields set in probe.
+         */
+        int[] order() {
+            int[] order = orders.get(probe);
+            if (order == null) {
+                long[] bits = probe.bits;
+                HashMap<String, Integer> present = new HashMap<String, Integer>();
+                for (int i = 0; i < names.length; i++) {
+                    int bit = 2 * i;
+                    if ((bits[bit >>> 6] & (1L << bit)) != 0) {
+                        present.put(names[i], i);
+                    } else if ((bits[(bit + 1) >>> 6] & (1L << (bit + 1))) != 0) {
+                        present.remove(names[i]);
+                    }
+                }
+                order = new int[present.size()];
+                int k = 0;
+                for (Integer i : present.values()) {
+                    order[k++] = i;
+                }
+                if (orders.size() < MAX_ORDERS) {
+                    orders.put(new FieldMask(bits.clone()), order);
+                }
+            }
+            return order;
+        }
+    }
+
+    private static final class FieldMask {
+        final long[] bits;
+
+        FieldMask(long[] bits) {
+            this.bits = bits;
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(bits);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof FieldMask && Arrays.equals(bits, ((FieldMask) o).bits);
+        }
+    }
+}
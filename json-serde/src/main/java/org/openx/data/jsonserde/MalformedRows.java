@@ -0,0 +1,253 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+package org.openx.data.jsonserde;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.UUID;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.ShutdownHookManager;
+import org.openx.data.jsonserde.json.JSONException;
+import org.openx.data.jsonserde.json.JSONObject;
+import org.openx.data.jsonserde.objectinspector.primitive.SampledLog;
+
+/**
+ * What happens to the malformed rows ignore.malformed.json lets through.
+ *
+ * They get logged, but not all of them, see SampledLog: writing every bad
+ * row to stderr slowed down tasks and buried everything else.
+ *
+ * If a dead letter directory is set, every one of them is also written
+ * there, one JSON object per line with the error, where parsing stopped
+ * and the row. Each JVM writes its own file, through a buffer that a
+ * timer flushes every second if rows were written, and when the JVM exits.
+ */
+class MalformedRows {
+
+    private static final Log LOG = LogFactory.getLog(MalformedRows.class);
+
+    // longest part of a row that gets logged
+    static final int MAX_LOGGED_CHARS = 1024;
+    static final long FLUSH_INTERVAL_MS = 1000L;
+
+    private static final SampledLog SAMPLED_LOG = new SampledLog("Ignoring malformed JSON");
+
+    private static final Map<String, DeadLetterFile> deadLetterFiles = new HashMap<String, DeadLetterFile>();
+    // flushes the dead letter files, started with the first one
+    private static Timer flushTimer;
+
+    private final DeadLetterFile deadLetters;
+
+    MalformedRows(Configuration conf, String deadLetterDir) {
+        this.deadLetters = deadLetterDir == null || deadLetterDir.trim().isEmpty()
+                ? null : deadLetterFile(conf, deadLetterDir.trim());
+    }
+
+    /**
+     * @param message what was wrong
+     * @param position where parsing stopped, or -1
+     * @param row the row, as read
+     */
+    void ignored(String message, int position, String row) {
+        String logged = SAMPLED_LOG.prefix();
+        if (logged != null) {
+            LOG.warn(logged + message + ", row: " + truncate(row));
+        }
+        if (deadLetters != null) {
+            deadLetters.write(message, position, row);
+        }
+    }
+
+    /**
+     * Same, for a row that didn't parse. Most of those are neither logged
+     * nor written, so the message and the text of the row are only made
+     * for the ones that are.
+     */
+    void ignored(String reason, JSONException e, Text row) {
+        String logged = SAMPLED_LOG.prefix();
+        if (logged == null && deadLetters == null) {
+            return;
+        }
+        String message = reason + e.getMessage();
+        String text = row.toString().trim();
+        if (logged != null) {
+            LOG.warn(logged + message + ", row: " + truncate(text));
+        }
+        if (deadLetters != null) {
+            deadLetters.write(message, e.getPosition(), text);
+        }
+    }
+
+    static String truncate(String row) {
+        return row.length() <= MAX_LOGGED_CHARS ? row
+                : row.substring(0, MAX_LOGGED_CHARS) + "... (" + row.length() + " characters)";
+    }
+
+    private static DeadLetterFile deadLetterFile(Configuration conf, String dir) {
+        synchronized (deadLetterFiles) {
+            DeadLetterFile file = deadLetterFiles.get(dir);
+            if (file == null) {
+                file = new DeadLetterFile(conf == null ? new Configuration() : conf, new Path(dir));
+                deadLetterFiles.put(dir, file);
+            }
+            return file;
+        }
+    }
+
+    private static Timer flushTimer() {
+        synchronized (deadLetterFiles) {
+            if (flushTimer == null) {
+                flushTimer = new Timer("json-serde-dead-letters", true);
+            }
+            return flushTimer;
+        }
+    }
+
+    /**
+     * The file malformed rows get written to, opened with the first one.
+     */
+    static class DeadLetterFile implements Runnable {
+        private final Configuration conf;
+        private final Path dir;
+        private Path path;
+        private FSDataOutputStream stream;
+        private Writer out;
+        private boolean failed;
+        private TimerTask flushTask;
+        private long written;
+        private long flushed;
+
+        DeadLetterFile(Configuration conf, Path dir) {
+            this.conf = conf;
+            this.dir = dir;
+        }
+
+        synchronized void write(String message, int position, String row) {
+            if (failed) {
+                return;
+            }
+            try {
+                if (out == null) {
+                    open();
+                }
+                out.write("{\"error\":");
+                out.write(JSONObject.quote(message));
+                out.write(",\"position\":");
+                out.write(Integer.toString(position));
+                out.write(",\"row\":");
+                out.write(JSONObject.quote(row));
+                out.write("}\n");
+                written++;
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+
+        private void failed(IOException e) {
+            // losing the dead letters shouldn't fail the task
+            LOG.warn("Could not write malformed rows to " + (path != null ? path : dir)
+                    + ", not writing them anymore", e);
+            failed = true;
+        }
+
+        private void open() throws IOException {
+            String task = conf.get("mapreduce.task.attempt.id", conf.get("mapred.task.id", "json-serde"));
+            path = new Path(dir, task + "-" + UUID.randomUUID() + ".json");
+            FileSystem fs = path.getFileSystem(conf);
+            stream = fs.create(path, false);
+            out = new BufferedWriter(new OutputStreamWriter(stream, "UTF-8"));
+            flushTask = new TimerTask() {
+                @Override
+                public void run() {
+                    flushWritten();
+                }
+            };
+            flushTimer().schedule(flushTask, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS);
+            // before the file systems get closed
+            ShutdownHookManager.get().addShutdownHook(this, FileSystem.SHUTDOWN_HOOK_PRIORITY + 1);
+            LOG.info("Writing malformed rows to " + path);
+        }
+
+        synchronized Path getPath() {
+            return path;
+        }
+
+        synchronized long getWritten() {
+            return written;
+        }
+
+        synchronized long getFlushed() {
+            return flushed;
+        }
+
+        /**
+         * Gets what was written so far to the file system, so that it's
+         * there even if the task dies.
+         */
+        synchronized void flush() throws IOException {
+            if (out != null) {
+                out.flush();
+                stream.hflush();
+                flushed = written;
+            }
+        }
+
+        /**
+         * Flushes, from the timer, if rows were written since last time.
+         */
+        synchronized void flushWritten() {
+            if (failed || flushed == written) {
+                return;
+            }
+            try {
+                flush();
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+
+        /**
+         * Closes the file, when the JVM exits.
+         */
+        @Override
+        public synchronized void run() {
+            if (flushTask != null) {
+                flushTask.cancel();
+                flushTask = null;
+            }
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    LOG.warn("Could not close " + path, e);
+                }
+                out = null;
+            }
+        }
+    }
+
+    DeadLetterFile getDeadLetters() {
+        return deadLetters;
+    }
+}
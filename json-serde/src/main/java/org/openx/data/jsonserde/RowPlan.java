@@ -0,0 +1,202 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+package org.openx.data.jsonserde;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.openx.data.jsonserde.json.JSONException;
+import org.openx.data.jsonserde.json.JSONObject;
+import org.openx.data.jsonserde.json.JSONTokener;
+import org.openx.data.jsonserde.json.KeyDictionary;
+import org.openx.data.jsonserde.json.KeyProjection;
+import org.openx.data.jsonserde.objectinspector.JsonObjectInspectorFactory;
+
+/**
+ * What the rows of a table schema look like, worked out once: the keys the
+ * schema can ask for, and which column each top level JSON key goes to.
+ *
+ * With json.positional, rows are parsed straight into an Object[] with a
+ * slot per column, which JsonStructObjectInspector reads by position,
+ * instead of into a JSONObject whose HashMap gets looked up by name for
+ * every field. Keys that no column reads are skipped over.
+ *
+ * Plans only depend on the schema, the mappings and the changekeyto rules,
+ * so they're shared by every SerDe of the JVM with the same ones, in the
+ * bounded cache of JsonObjectInspectorFactory, see JsonSerDe.getRowPlan().
+ */
+class RowPlan {
+
+    final String signature;
+    final KeyDictionary keyDictionary;
+    final int width;
+
+    // open addressing table: JSON key -> the columns reading it
+    private final String[] keys;
+    private final int[][] columns;
+    private final int mask;
+
+    /**
+     * @param signature what the plan was built for
+     * @param jsonKeys for each column, the top level key it reads
+     * @param keyDictionary every key the schema can refer to
+     */
+    RowPlan(String signature, List<String> jsonKeys, KeyDictionary keyDictionary) {
+        this.signature = signature;
+        this.keyDictionary = keyDictionary;
+        this.width = jsonKeys.size();
+
+        int capacity = 16;
+        while (capacity < width * 2) {
+            capacity <<= 1;
+        }
+        keys = new String[capacity];
+        columns = new int[capacity][];
+        mask = capacity - 1;
+        for (int col = 0; col < width; col++) {
+            String key = jsonKeys.get(col);
+            int i = slot(key);
+            if (keys[i] == null) {
+                keys[i] = key;
+                columns[i] = new int[] { col };
+            } else {
+                // more than one column reads this key
+                int[] grown = new int[columns[i].length + 1];
+                System.arraycopy(columns[i], 0, grown, 0, columns[i].length);
+                grown[columns[i].length] = col;
+                columns[i] = grown;
+            }
+        }
+    }
+
+    /**
+     * The shared plan for a signature, or null if there is none yet.
+     */
+    static RowPlan cached(String signature) {
+        return JsonObjectInspectorFactory.getCache().get(signature, RowPlan.class);
+    }
+
+    /**
+     * Shares a plan with the SerDes initialized later. If another one got
+     * there first, that one is returned.
+     */
+    static RowPlan cache(RowPlan plan) {
+        return JsonObjectInspectorFactory.getCache().put(plan.signature, RowPlan.class, plan);
+    }
+
+    // the slot of a key, or of the empty slot where it would go
+    private int slot(String key) {
+        int h = key.hashCode();
+        int i = (h ^ (h >>> 16)) & mask;
+        String k;
+        while ((k = keys[i]) != null && k != key && !k.equals(key)) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * The columns that read a top level key, or null if none does.
+     */
+    int[] columns(String key) {
+        return columns[slot(key)];
+    }
+
+    /**
+     * Parses an object into a row. Same as new JSONObject(x, ...), keeping
+     * only the keys a column reads, and JSON nulls as null.
+     *
+     * @param x the tokener, with keyDictionary set
+     * @param projection the keys the query reads, or null for all of them
+     */
+    Object[] parse(JSONTokener x, KeyProjection projection) throws JSONException {
+        Object[] row = new Object[width];
+        boolean[] seen = x.isAllowDuplicates() ? null : new boolean[width];
+        Set<String> skipped = null;
+        // other keys don't need to be built, unless a key replacement or the
+        // duplicate check might still have to look at them
+        boolean knownOnly = x.isAllowDuplicates() && x.getKeySwapMap() == null;
+
+        if (x.nextClean() != '{') {
+            throw x.syntaxError("A JSONObject text must begin with '{'");
+        }
+        for (;;) {
+            String key;
+            char c = x.nextClean();
+            switch (c) {
+            case 0:
+                throw x.syntaxError("A JSONObject text must end with '}'");
+            case '}':
+                return row;
+            default:
+                x.back();
+                key = x.nextKey(knownOnly);
+            }
+
+            c = x.nextClean();
+            if (c == '=') {
+                if (x.next() != '>') {
+                    x.back();
+                }
+            } else if (c != ':') {
+                throw x.syntaxError("Expected a ':' after a key");
+            }
+            if (key == null) {
+                x.skipValue();
+            } else {
+                String safeKey = x.pushKey(key);
+                int[] cols = columns(safeKey);
+                if (cols != null && (projection == null || projection.wants(safeKey))) {
+                    Object value = x.nextValue(safeKey);
+                    if (value == JSONObject.NULL) {
+                        value = null;
+                    }
+                    for (int col : cols) {
+                        if (seen != null) {
+                            if (seen[col]) {
+                                throw new JSONException("Duplicate key \"" + safeKey + "\"");
+                            }
+                            seen[col] = true;
+                        }
+                        row[col] = value;
+                    }
+                } else {
+                    x.skipValue();
+                    // still reject duplicates we never stored
+                    if (!x.isAllowDuplicates()) {
+                        if (skipped == null) {
+                            skipped = new HashSet<String>();
+                        }
+                        if (!skipped.add(safeKey)) {
+                            throw new JSONException("Duplicate key \"" + safeKey + "\"");
+                        }
+                    }
+                }
+                x.popKey();
+            }
+
+            switch (x.nextClean()) {
+            case ';':
+            case ',':
+                if (x.nextClean() == '}') {
+                    return row;
+                }
+                x.back();
+                break;
+            case '}':
+                return row;
+            default:
+                throw x.syntaxError("Expected a ',' or '}'");
+            }
+        }
+    }
+}
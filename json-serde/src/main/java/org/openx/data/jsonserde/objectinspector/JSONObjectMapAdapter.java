@@ -12,12 +12,10 @@
 
 package org.openx.data.jsonserde.objectinspector;
 
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.AbstractMap;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
-import org.openx.data.jsonserde.json.JSONException;
 import org.openx.data.jsonserde.json.JSONObject;
 
 /**
@@ -26,21 +24,18 @@ import org.openx.data.jsonserde.json.JSONObject;
  * define a column as map<string,string>. This consistency is left
  * to the user to satisfy.
  * 
- * Since we want to present a map, and we don't want to extract keys
- * and values every time, we keep a cache
+ * This is a read-only view over JSONObject.asMap(): get, containsKey,
+ * size and iteration go straight to the JSONObject, JSONObject.NULL
+ * values read as null, and nothing gets copied.
  * 
  * @author rcongiu
  */
-/* TODO: having an initialize() that copies everything into a map is expensive
-   and won't work well for large maps. Good enough for now since
-   we seldom - if ever - use maps. */
-public class JSONObjectMapAdapter implements Map {
-    HashMap cache;
+public class JSONObjectMapAdapter extends AbstractMap {
     JSONObject jsonObject;
+    Map view = Collections.EMPTY_MAP;
     
     public JSONObjectMapAdapter(JSONObject obj) {
-        jsonObject = obj;
-        initialize();
+        setJSONObject(obj);
     }
 
     public JSONObjectMapAdapter() {
@@ -53,103 +48,36 @@ public class JSONObjectMapAdapter implements Map {
 
     public void setJSONObject(JSONObject jsonObject) {
         this.jsonObject = jsonObject;
-        initialize();
+        this.view = jsonObject.asMap();
     }
-    
-    
 
     @Override
     public int size() {
-        return jsonObject.length();
-    }
-
-    @Override
-    public boolean isEmpty() {
-        return cache.isEmpty();
-    }
-    
-    protected final void initialize() {
-        if(cache==null) cache = new HashMap();
-        
-        for(Iterator<String> i = jsonObject.keys(); i.hasNext(); ) {
-            String o = i.next();
-            try {
-                cache.put(o, safeGet(o));
-            } catch (JSONException ex) {
-                // if key does not exist - should not happen
-                throw new RuntimeException("Non existent key - should never happen!");
-            }
-        }
-    }
-    
-    /**
-     * sanitize all the JSONObject.NULL converting them to nulls.
-     * @param s
-     * @return
-     * @throws JSONException 
-     */
-    private Object safeGet(String s) throws JSONException {
-	if(s == null) return null;
-	Object obj = jsonObject.get(s);
-	if(JSONObject.NULL.equals(obj)) {
-	    return null;
-	} else {
-	    return obj;
-	}
+        return view.size();
     }
 
     @Override
     public boolean containsKey(Object key) {
-        return cache.containsKey(key);
-    }
-
-    @Override
-    public boolean containsValue(Object value) {
-            return cache.containsValue(value);
+        return view.containsKey(key);
     }
 
     @Override
     public Object get(Object key) {
-        return cache.get(key);
-    }
-
-    @Override
-    public Object put(Object key, Object value) {
-        return cache.put(key,value);
-    }
-
-    @Override
-    public Object remove(Object key) {
-       return cache.remove(key);
-    }
-
-    @Override
-    public void putAll(Map m) {
-        cache.putAll(m);
-    }
-
-    @Override
-    public void clear() {
-        cache.clear();
+        return view.get(key);
     }
 
     @Override
     public Set keySet() {
-        return cache.keySet();
-    }
-
-    @Override
-    public Collection values() {
-        return cache.values();
+        return view.keySet();
     }
 
     @Override
     public Set entrySet() {
-        return cache.entrySet();
+        return view.entrySet();
     }
 
     public Map<?, ?> getMap() {
-        return cache;
+        return view;
     }
     
 }
@@ -12,7 +12,6 @@
 
 package org.openx.data.jsonserde.objectinspector;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.commons.logging.Log;
@@ -20,7 +19,6 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.StandardListObjectInspector;
 import org.openx.data.jsonserde.json.JSONArray;
-import org.openx.data.jsonserde.json.JSONException;
 import org.openx.data.jsonserde.json.JSONObject;
 
 /**
@@ -41,12 +39,8 @@ public class JsonListObjectInspector extends StandardListObjectInspector {
       return null;
     }
 
-    JSONArray array = safetyCheck(data);
-    List al = new ArrayList(array.length());
-    for(int i =0; i< array.length(); i++) {
-	al.add(getListElement(data,i));
-    }
-    return al;
+    // checked once, then a view that reads straight from the array
+    return safetyCheck(data).asList();
   }
 
   @Override
@@ -56,16 +50,9 @@ public class JsonListObjectInspector extends StandardListObjectInspector {
     }
 
     JSONArray array = safetyCheck(data);
-    try {
-        Object obj =  array.get(index);
-	if(JSONObject.NULL == obj) {
-	    return null;
-	} else {
-	    return obj;
-	}
-    } catch(JSONException ex) {
-        return null;
-    }
+    // out of range reads as null
+    Object obj = array.opt(index);
+    return obj == JSONObject.NULL ? null : obj;
   }
 
   @Override
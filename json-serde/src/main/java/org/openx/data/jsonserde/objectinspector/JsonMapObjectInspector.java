@@ -16,7 +16,6 @@ import java.util.Map;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.StandardMapObjectInspector;
 import org.apache.hadoop.io.Text;
-import org.openx.data.jsonserde.json.JSONException;
 import org.openx.data.jsonserde.json.JSONObject;
 
 /**
@@ -39,7 +38,8 @@ public class JsonMapObjectInspector extends StandardMapObjectInspector {
     
     JSONObject jObj = (JSONObject) data;
     
-    return new JSONObjectMapAdapter(jObj);
+    // a view, built once per object, so nothing gets copied
+    return jObj.asMap();
   }
 
 
@@ -60,16 +60,8 @@ public class JsonMapObjectInspector extends StandardMapObjectInspector {
     }
     
      JSONObject jObj = (JSONObject) data;
-        try {
-            Object obj = jObj.get(key.toString());
-            if(JSONObject.NULL == obj) {
-                return null;
-            } else {
-                return obj;
-            }
-        } catch (JSONException ex) {
-            // key does not exists -> like null
-            return null;
-        }
+     // a missing key reads as null, like a JSON null
+     Object obj = jObj.opt(key.toString());
+     return obj == JSONObject.NULL ? null : obj;
   }   
 }
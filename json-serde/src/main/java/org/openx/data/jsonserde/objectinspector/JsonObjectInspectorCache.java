@@ -0,0 +1,108 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+package org.openx.data.jsonserde.objectinspector;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The object inspectors JsonObjectInspectorFactory hands out, by signature,
+ * and the other things SerDes build once per schema, like the row plans of
+ * json.positional.
+ *
+ * SerDes of every table of the JVM share it, so it's thread safe and
+ * bounded: once full, the entry used least recently gets dropped. The
+ * SerDes using it keep theirs, later ones just get a new one.
+ *
+ * Hits, misses and evictions are counted, to see whether the size fits.
+ */
+public class JsonObjectInspectorCache {
+
+    private final int maxSize;
+    private final LinkedHashMap<Object, Object> inspectors;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public JsonObjectInspectorCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.inspectors = new LinkedHashMap<Object, Object>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+                if (size() > JsonObjectInspectorCache.this.maxSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * The inspector for a signature, or null if there is none of that type
+     * (counted as a miss).
+     */
+    public synchronized <T> T get(Object signature, Class<T> type) {
+        Object oi = inspectors.get(signature);
+        if (type.isInstance(oi)) {
+            hits++;
+            return type.cast(oi);
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Caches an inspector built after a miss. If another thread cached one
+     * of the same type for the same signature in the meantime, that one is
+     * returned, so everybody ends up with the same.
+     */
+    public synchronized <T> T put(Object signature, Class<T> type, T oi) {
+        Object previous = inspectors.get(signature);
+        if (type.isInstance(previous)) {
+            return type.cast(previous);
+        }
+        inspectors.put(signature, oi);
+        return oi;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized int size() {
+        return inspectors.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized void clear() {
+        inspectors.clear();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "inspectors: " + inspectors.size() + "/" + maxSize + ", hits: " + hits
+                + ", misses: " + misses + ", evictions: " + evictions;
+    }
+}
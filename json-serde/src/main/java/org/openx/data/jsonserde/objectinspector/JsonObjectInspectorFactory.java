@@ -29,7 +29,27 @@ import org.openx.data.jsonserde.objectinspector.primitive.*;
  */
 public class JsonObjectInspectorFactory {
 
-    static HashMap<TypeInfo, ObjectInspector> cachedJsonObjectInspector = new HashMap<TypeInfo, ObjectInspector>();
+    // JVM system property with the number of inspectors to keep cached
+    public static final String PROP_CACHE_SIZE = "json.serde.inspector.cache.size";
+    public static final int DEFAULT_CACHE_SIZE = 4096;
+
+    /*
+     * Caches every inspector but the primitive ones. The signatures carry
+     * the options, since structs at any depth read their fields with them.
+     */
+    static final JsonObjectInspectorCache cache = new JsonObjectInspectorCache(
+            Integer.getInteger(PROP_CACHE_SIZE, DEFAULT_CACHE_SIZE));
+
+    /**
+     * The cache of the inspectors, with its hit, miss and eviction counts.
+     */
+    public static JsonObjectInspectorCache getCache() {
+        return cache;
+    }
+
+    static List<Object> signature(Object... parts) {
+        return Arrays.asList(parts);
+    }
 
     /**
      *
@@ -40,18 +60,13 @@ public class JsonObjectInspectorFactory {
      */
     public static ObjectInspector getJsonObjectInspectorFromTypeInfo(
             TypeInfo typeInfo, JsonStructOIOptions options) {
-        ObjectInspector result = cachedJsonObjectInspector.get(typeInfo);
-        // let the factory cache the struct object inspectors since
-        // their key also has some options
-        if (result == null ||  typeInfo.getCategory() == ObjectInspector.Category.STRUCT) {
+        if (typeInfo.getCategory() == ObjectInspector.Category.PRIMITIVE) {
+            return getPrimitiveJavaObjectInspector(((PrimitiveTypeInfo) typeInfo).getPrimitiveCategory());
+        }
+        List<Object> signature = signature("type", typeInfo, options);
+        ObjectInspector result = cache.get(signature, ObjectInspector.class);
+        if (result == null) {
             switch (typeInfo.getCategory()) {
-                case PRIMITIVE: {
-                    PrimitiveTypeInfo pti = (PrimitiveTypeInfo) typeInfo;
-
-                    result
-                            = getPrimitiveJavaObjectInspector(pti.getPrimitiveCategory());
-                    break;
-                }
                 case LIST: {
                     ObjectInspector elementObjectInspector
                             = getJsonObjectInspectorFromTypeInfo(
@@ -92,30 +107,22 @@ public class JsonObjectInspectorFactory {
                 }
 
                 default: {
-                    result = null;
+                    return null;
                 }
             }
-            cachedJsonObjectInspector.put(typeInfo, result);
+            result = cache.put(signature, ObjectInspector.class, result);
         }
         return result;
     }
 
 
-    static HashMap<ArrayList<Object>, JsonUnionObjectInspector> cachedJsonUnionObjectInspector
-            = new HashMap<ArrayList<Object>, JsonUnionObjectInspector>();
-
     public static JsonUnionObjectInspector getJsonUnionObjectInspector(
             List<ObjectInspector> ois,
             JsonStructOIOptions options) {
-        ArrayList<Object> signature = new ArrayList<Object>();
-        signature.add(ois);
-        signature.add(options);
-        JsonUnionObjectInspector result = cachedJsonUnionObjectInspector
-                .get(signature);
+        List<Object> signature = signature("union", ois, options);
+        JsonUnionObjectInspector result = cache.get(signature, JsonUnionObjectInspector.class);
         if (result == null) {
-            result = new JsonUnionObjectInspector(ois, options);
-            cachedJsonUnionObjectInspector.put(signature,result);
-
+            result = cache.put(signature, JsonUnionObjectInspector.class, new JsonUnionObjectInspector(ois, options));
         }
         return result;
     }
@@ -123,24 +130,15 @@ public class JsonObjectInspectorFactory {
     /*
      * Caches Struct Object Inspectors
      */
-    static HashMap<ArrayList<Object>, JsonStructObjectInspector> cachedStandardStructObjectInspector
-            = new HashMap<ArrayList<Object>, JsonStructObjectInspector>();
-
-
     public static JsonStructObjectInspector getJsonStructObjectInspector(
             List<String> structFieldNames,
             List<ObjectInspector> structFieldObjectInspectors,
             JsonStructOIOptions options) {
-        ArrayList<Object> signature = new ArrayList<Object>();
-        signature.add(structFieldNames);
-        signature.add(structFieldObjectInspectors);
-        signature.add(options);
-
-        JsonStructObjectInspector result = cachedStandardStructObjectInspector.get(signature);
+        List<Object> signature = signature("struct", structFieldNames, structFieldObjectInspectors, options);
+        JsonStructObjectInspector result = cache.get(signature, JsonStructObjectInspector.class);
         if (result == null) {
-            result = new JsonStructObjectInspector(structFieldNames,
-                    structFieldObjectInspectors, options);
-            cachedStandardStructObjectInspector.put(signature, result);
+            result = cache.put(signature, JsonStructObjectInspector.class, new JsonStructObjectInspector(structFieldNames,
+                    structFieldObjectInspectors, options));
         }
         return result;
     }
@@ -148,18 +146,12 @@ public class JsonObjectInspectorFactory {
     /*
      * Caches the List objecvt inspectors
      */
-    static HashMap<ArrayList<Object>, JsonListObjectInspector> cachedJsonListObjectInspector
-            = new HashMap<ArrayList<Object>, JsonListObjectInspector>();
-
     public static JsonListObjectInspector getJsonListObjectInspector(
             ObjectInspector listElementObjectInspector) {
-        ArrayList<Object> signature = new ArrayList<Object>();
-        signature.add(listElementObjectInspector);
-        JsonListObjectInspector result = cachedJsonListObjectInspector
-                .get(signature);
+        List<Object> signature = signature("list", listElementObjectInspector);
+        JsonListObjectInspector result = cache.get(signature, JsonListObjectInspector.class);
         if (result == null) {
-            result = new JsonListObjectInspector(listElementObjectInspector);
-            cachedJsonListObjectInspector.put(signature, result);
+            result = cache.put(signature, JsonListObjectInspector.class, new JsonListObjectInspector(listElementObjectInspector));
         }
         return result;
     }
@@ -167,29 +159,24 @@ public class JsonObjectInspectorFactory {
     /*
      * Caches Map ObjectInspectors
      */
-    static HashMap<ArrayList<Object>, JsonMapObjectInspector> cachedJsonMapObjectInspector
-            = new HashMap<ArrayList<Object>, JsonMapObjectInspector>();
-
     public static JsonMapObjectInspector getJsonMapObjectInspector(
             ObjectInspector mapKeyObjectInspector,
             ObjectInspector mapValueObjectInspector) {
-        ArrayList<Object> signature = new ArrayList<Object>();
-        signature.add(mapKeyObjectInspector);
-        signature.add(mapValueObjectInspector);
-        JsonMapObjectInspector result = cachedJsonMapObjectInspector
-                .get(signature);
+        List<Object> signature = signature("map", mapKeyObjectInspector, mapValueObjectInspector);
+        JsonMapObjectInspector result = cache.get(signature, JsonMapObjectInspector.class);
         if (result == null) {
-            result = new JsonMapObjectInspector(mapKeyObjectInspector,
-                    mapValueObjectInspector);
-            cachedJsonMapObjectInspector.put(signature, result);
+            result = cache.put(signature, JsonMapObjectInspector.class, new JsonMapObjectInspector(mapKeyObjectInspector,
+                    mapValueObjectInspector));
         }
         return result;
     }
 
    // static JsonStringJavaObjectInspector cachedStringObjectInspector = new JsonStringJavaObjectInspector();
 
+    // at most one per category, so no need to bound it
     static final Map<PrimitiveCategory, AbstractPrimitiveJavaObjectInspector> primitiveOICache
-            = new EnumMap<PrimitiveCategory, AbstractPrimitiveJavaObjectInspector>(PrimitiveCategory.class);
+            = Collections.synchronizedMap(
+                new EnumMap<PrimitiveCategory, AbstractPrimitiveJavaObjectInspector>(PrimitiveCategory.class));
 
     static {
         primitiveOICache.put(PrimitiveCategory.STRING, new JavaStringJsonObjectInspector());
@@ -216,11 +203,13 @@ public class JsonObjectInspectorFactory {
     public static AbstractPrimitiveJavaObjectInspector getPrimitiveJavaObjectInspector(
             PrimitiveCategory primitiveCategory) {
 
+        synchronized (primitiveOICache) {
             if(! primitiveOICache.containsKey(primitiveCategory)) {
                 primitiveOICache.put(primitiveCategory, PrimitiveObjectInspectorFactory.
                     getPrimitiveJavaObjectInspector(primitiveCategory));
             }
             return  primitiveOICache.get(primitiveCategory);
+        }
     }
 
 
@@ -15,6 +15,7 @@ package org.openx.data.jsonserde.objectinspector;
 import org.openx.data.jsonserde.json.ReplaceNode;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -59,10 +60,18 @@ public  class JsonStructOIOptions {
          this.unmappedValuesFieldName = unmappedValuesFieldName;
      }
 
+     public String getUnmappedValuesFieldName() {
+         return unmappedValuesFieldName;
+     }
+
      public void setPrefixMappings(Map<String, String[]> prefixMappings) {
          this.prefixMappings = prefixMappings;
      }
 
+     public Map<String, String[]> getPrefixMappings() {
+         return prefixMappings;
+     }
+
      public List<String> getAllMappedPrefixes() {
          List<String> retVal = new ArrayList<String>();
          for(String[] prefixes : prefixMappings.values()) {
@@ -73,6 +82,10 @@ public  class JsonStructOIOptions {
          return retVal;
      }
 
+     /**
+      * Options are the same if everything an inspector built with them
+      * could depend on is.
+      */
      @Override
      public boolean equals(Object o) {
          if (this == o) return true;
@@ -81,14 +94,36 @@ public  class JsonStructOIOptions {
          JsonStructOIOptions that = (JsonStructOIOptions) o;
 
          if (dotsInKeyNames != that.dotsInKeyNames) return false;
-         return mappings != null ? mappings.equals(that.mappings) : that.mappings == null;
+         if (mappings != null ? !mappings.equals(that.mappings) : that.mappings != null) return false;
+         if (unmappedValuesFieldName != null ? !unmappedValuesFieldName.equals(that.unmappedValuesFieldName)
+                 : that.unmappedValuesFieldName != null) return false;
+         if (jsonKeyReplacements != null ? !jsonKeyReplacements.equals(that.jsonKeyReplacements)
+                 : that.jsonKeyReplacements != null) return false;
+         return prefixMappingsEqual(prefixMappings, that.prefixMappings);
+     }
 
+     private static boolean prefixMappingsEqual(Map<String, String[]> a, Map<String, String[]> b) {
+         if (a == null || b == null) return a == b;
+         if (a.size() != b.size()) return false;
+         for (Map.Entry<String, String[]> e : a.entrySet()) {
+             if (!b.containsKey(e.getKey()) || !Arrays.equals(e.getValue(), b.get(e.getKey()))) return false;
+         }
+         return true;
      }
 
      @Override
      public int hashCode() {
          int result = mappings != null ? mappings.hashCode() : 0;
          result = 31 * result + (dotsInKeyNames ? 1 : 0);
+         result = 31 * result + (unmappedValuesFieldName != null ? unmappedValuesFieldName.hashCode() : 0);
+         result = 31 * result + (jsonKeyReplacements != null ? jsonKeyReplacements.hashCode() : 0);
+         if (prefixMappings != null) {
+             int h = 0;
+             for (Map.Entry<String, String[]> e : prefixMappings.entrySet()) {
+                 h += e.getKey().hashCode() ^ Arrays.hashCode(e.getValue());
+             }
+             result = 31 * result + h;
+         }
          return result;
      }
  }
@@ -17,8 +17,8 @@ import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.StandardStructObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.StructField;
 import org.openx.data.jsonserde.json.JSONArray;
-import org.openx.data.jsonserde.json.JSONException;
 import org.openx.data.jsonserde.json.JSONObject;
+import org.openx.data.jsonserde.json.LazyJSONObject;
 
 /**
  * This Object Inspector is used to look into a JSonObject object.
@@ -35,11 +35,53 @@ public class JsonStructObjectInspector extends StandardStructObjectInspector {
         super(structFieldNames, structFieldObjectInspectors);
     } */
     
+    final Set<String> jsonFieldNames;
+    final List<String> allMappedPrefixes;
+
       public JsonStructObjectInspector(List<String> structFieldNames,
             List<ObjectInspector> structFieldObjectInspectors,JsonStructOIOptions opts) {
         super(structFieldNames, structFieldObjectInspectors);   
 
         options = opts;
+
+        Set<String> names = new HashSet<String>();
+        for (MyField field : fields) {
+            names.add(getJsonField(field));
+        }
+        jsonFieldNames = Collections.unmodifiableSet(names);
+        allMappedPrefixes = options.prefixMappings != null
+                ? Collections.unmodifiableList(options.getAllMappedPrefixes())
+                : Collections.<String>emptyList();
+
+        // swap in fields that know how to read themselves, options don't change
+        for (int i = 0; i < fields.size(); i++) {
+            MyField field = fields.get(i);
+            fields.set(i, new JsonField(field.getFieldID(), field.getFieldName(),
+                    field.getFieldObjectInspector(), accessorFor(field)));
+        }
+    }
+
+    /**
+     * Works out how a field is read, once.
+     */
+    FieldAccessor accessorFor(StructField field) {
+        String name = field.getFieldName();
+        if (name.equalsIgnoreCase(options.unmappedValuesFieldName)) {
+            return new UnmappedAccessor(jsonFieldNames, allMappedPrefixes);
+        } else if (options.prefixMappings != null && options.prefixMappings.containsKey(name)) {
+            return new PrefixAccessor(options.prefixMappings.get(name));
+        } else if (options.dotsInKeyNames) {
+            return new DottedKeyAccessor(getJsonField(field), name);
+        }
+        return new KeyAccessor(getJsonField(field));
+    }
+
+    /**
+     * The accessor of a field. Fields of other inspectors (some callers hand
+     * us the fields of a nested struct) get theirs, or one worked out here.
+     */
+    FieldAccessor accessor(StructField fieldRef) {
+        return fieldRef instanceof JsonField ? ((JsonField) fieldRef).accessor : accessorFor(fieldRef);
     }
 
       /**
@@ -56,7 +98,12 @@ public class JsonStructObjectInspector extends StandardStructObjectInspector {
         }
         
         if( data instanceof JSONObject) {
-            return getStructFieldDataFromJsonObject((JSONObject) data, fieldRef );
+            return accessor(fieldRef).get((JSONObject) data);
+        } if (data instanceof Object[]) {
+            // a row parsed by position, see json.positional
+            return ((Object[]) data)[((MyField) fieldRef).getFieldID()];
+        } if (data instanceof LazyJSONObject) {
+            return accessor(fieldRef).get((LazyJSONObject) data);
         } if (data instanceof List) {
             // somehow we have the object parsed already
             return getStructFieldDataFromList((List) data, fieldRef );
@@ -94,51 +141,18 @@ public class JsonStructObjectInspector extends StandardStructObjectInspector {
         if (JsonObjectInspectorUtils.checkObject(data) == null) {
             return null;
         }
-        
-        MyField f = (MyField) fieldRef;
-
-        int fieldID = f.getFieldID();
-        assert fieldID >= 0 && fieldID < fields.size();
-
-        Object fieldData = null;
-        
-        try {
-            if (fieldRef.getFieldName().equalsIgnoreCase(options.unmappedValuesFieldName)) {
-                fieldData = data.getNotTheseKeys(getJsonFieldNames(), options.getAllMappedPrefixes());
-            }
-            else if (options.prefixMappings.containsKey(fieldRef.getFieldName())) {
-                fieldData = data.getKeysWithPrefixes(options.prefixMappings.get(fieldRef.getFieldName()));
-            }
-            else if (data.has(getJsonField(fieldRef))) {
-               fieldData = data.get(getJsonField(fieldRef));
-
-            }  else if(options.dotsInKeyNames) {
-                // no mappings...but there are dots in name
-                for(Iterator i = data.keys(); i.hasNext(); ) {
-                    String s  = (String) i.next(); // name in json object
-                    if (s == null) break;
-
-                    if(s.contains(".")) {
-                        // substitute . with _
-                        String name = s.replaceAll("\\.", "_");
-                        // does it match the struct field name ?
-                        if(fieldRef.getFieldName().equals(name)) {
-                            fieldData = data.get(s);
-                            break;
-                        }
-                    }
-                }
-            }
-        } catch (JSONException ex) {
-            // if key does not exist
-        }
-        if (fieldData == JSONObject.NULL) fieldData = null;
-        return fieldData;
+        return accessor(fieldRef).get(data);
     }
     
     
+    /**
+     * Same as getStructFieldDataFromJsonObject, but only the requested
+     * field gets parsed.
+     */
+    public Object getStructFieldDataFromLazyObject(LazyJSONObject data, StructField fieldRef ) {
+        return accessor(fieldRef).get(data);
+    }
 
-    
     /**
      * called to map from hive to json
      * @param fr
@@ -152,60 +166,158 @@ public class JsonStructObjectInspector extends StandardStructObjectInspector {
         }
     }
     
-    List<Object> values = new ArrayList<Object>();
+    // reused by getStructFieldsDataAsList, one per thread since inspectors
+    // are shared by all the SerDes of the JVM
+    final ThreadLocal<List<Object>> scratch = new ThreadLocal<List<Object>>() {
+        @Override
+        protected List<Object> initialValue() {
+            return new ArrayList<Object>();
+        }
+    };
+
     @Override
     public List<Object> getStructFieldsDataAsList(Object o) {
 	if (JsonObjectInspectorUtils.checkObject(o) == null) {
             return null;
         }
-        JSONObject jObj = (JSONObject) o;
+        List<Object> values = scratch.get();
         values.clear();
-
-        int unmappedFieldPosition = -1;
-        Map<String, Integer> prefixFieldPositions = new HashMap<String, Integer>();
-        for (int i = 0; i < fields.size(); i++) {
-                StructField field = fields.get(i);
-                if (field.getFieldName().equalsIgnoreCase(options.unmappedValuesFieldName)) {
-                    unmappedFieldPosition = i;
-                    values.add(null);
-                }
-                else if (options.prefixMappings.containsKey(field.getFieldName())) {
-                    String fieldName = field.getFieldName();
-                    prefixFieldPositions.put(fieldName, i);
-                    values.add(null);
-                }
-                else {
-                    String fieldName = getJsonField(field);
-                    if (jObj.has(fieldName)){
-                        values.add(getStructFieldData(o, field));
-                    } else {
-                        values.add(null);
-                    }
-                }
-        }
-
-        if(unmappedFieldPosition != -1) {
-            values.set(
-                unmappedFieldPosition,
-                jObj.getNotTheseKeys(getJsonFieldNames(), options.getAllMappedPrefixes())
-            );
-        }
-
-        for(Map.Entry<String, Integer> entry : prefixFieldPositions.entrySet()) {
-            values.set(
-                entry.getValue(),
-                jObj.getKeysWithPrefixes(options.prefixMappings.get(entry.getKey()))
-            );
+        if (o instanceof Object[]) {
+            Collections.addAll(values, (Object[]) o);
+        } else if (o instanceof LazyJSONObject) {
+            LazyJSONObject lazy = (LazyJSONObject) o;
+            for (int i = 0; i < fields.size(); i++) {
+                values.add(((JsonField) fields.get(i)).accessor.get(lazy));
+            }
+        } else {
+            JSONObject jObj = (JSONObject) o;
+            for (int i = 0; i < fields.size(); i++) {
+                values.add(((JsonField) fields.get(i)).accessor.get(jObj));
+            }
         }
-
         return values;
     }
 
+    /**
+     * The JSON keys of the fields, the ones the unmapped values column leaves out.
+     */
     public Set<String> getJsonFieldNames() {
-        Set<String> fieldNames = new HashSet<String>();
-        for(StructField field : fields) {
-            fieldNames.add(getJsonField(field));
+        return jsonFieldNames;
+    }
+
+    /**
+     * A field that carries the way it's read.
+     */
+    static class JsonField extends MyField {
+        final FieldAccessor accessor;
+
+        JsonField(int fieldID, String fieldName, ObjectInspector fieldObjectInspector, FieldAccessor accessor) {
+            super(fieldID, fieldName, fieldObjectInspector);
+            this.accessor = accessor;
+        }
+    }
+
+    /**
+     * Reads a field out of an object, JSON nulls and missing keys as null.
+     */
+    abstract static class FieldAccessor {
+        abstract Object get(JSONObject data);
+
+        Object get(LazyJSONObject data) {
+            // needs all the keys
+            return get(data.toJSONObject());
+        }
+    }
+
+    /**
+     * A field read from a key: its name, or the key it's mapped to.
+     */
+    static class KeyAccessor extends FieldAccessor {
+        final String key;
+
+        KeyAccessor(String key) {
+            this.key = key;
+        }
+
+        @Override
+        Object get(JSONObject data) {
+            Object value = data.opt(key);
+            return value == JSONObject.NULL ? null : value;
+        }
+
+        @Override
+        Object get(LazyJSONObject data) {
+            // only this field gets parsed
+            Object value = data.opt(key);
+            return value == JSONObject.NULL ? null : value;
+        }
+    }
+
+    /**
+     * With dots.in.keys, a field that isn't found under its key is looked
+     * for among the keys with dots, as if they were underscores. The keys
+     * with dots get indexed once per object, on the first miss.
+     */
+    static class DottedKeyAccessor extends KeyAccessor {
+        final String fieldName;
+
+        DottedKeyAccessor(String key, String fieldName) {
+            super(key);
+            this.fieldName = fieldName;
+        }
+
+        @Override
+        Object get(JSONObject data) {
+            Object value = data.opt(key);
+            if (value == null) {
+                String dotted = data.getDottedKey(fieldName);
+                value = dotted != null ? data.opt(dotted) : null;
+            }
+            return value == JSONObject.NULL ? null : value;
+        }
+
+        @Override
+        Object get(LazyJSONObject data) {
+            Object value = data.opt(key);
+            if (value == null) {
+                String dotted = data.getDottedKey(fieldName);
+                value = dotted != null ? data.opt(dotted) : null;
+            }
+            return value == JSONObject.NULL ? null : value;
+        }
+    }
+
+    /**
+     * The unmapped values column: every key no field reads.
+     */
+    static class UnmappedAccessor extends FieldAccessor {
+        final Set<String> jsonFieldNames;
+        final List<String> allMappedPrefixes;
+
+        UnmappedAccessor(Set<String> jsonFieldNames, List<String> allMappedPrefixes) {
+            this.jsonFieldNames = jsonFieldNames;
+            this.allMappedPrefixes = allMappedPrefixes;
+        }
+
+        @Override
+        Object get(JSONObject data) {
+            return data.getNotTheseKeys(jsonFieldNames, allMappedPrefixes);
+        }
+    }
+
+    /**
+     * A prefix.for column: the keys starting with its prefixes.
+     */
+    static class PrefixAccessor extends FieldAccessor {
+        final String[] prefixes;
+
+        PrefixAccessor(String[] prefixes) {
+            this.prefixes = prefixes;
+        }
+
+        @Override
+        Object get(JSONObject data) {
+            return data.getKeysWithPrefixes(prefixes);
         }
-        return fieldNames;
     }
 }
@@ -5,7 +5,9 @@ import org.apache.hadoop.hive.serde2.objectinspector.*;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
 import org.openx.data.jsonserde.json.JSONArray;
 import org.openx.data.jsonserde.json.JSONObject;
+import org.openx.data.jsonserde.objectinspector.primitive.*;
 
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -15,10 +17,31 @@ public class JsonUnionObjectInspector implements UnionObjectInspector {
     JsonStructOIOptions options;
     private List<ObjectInspector> ois;
 
+    // the kinds of values a JSON parse gives
+    static final int STRING = 0;
+    static final int NUMBER = 1;
+    static final int BOOLEAN = 2;
+    static final int OBJECT = 3;
+    static final int ARRAY = 4;
+    static final int OTHER = 5;
+
+    // whether a member takes a value of some kind
+    static final byte REJECT = 0;
+    static final byte ACCEPT = 1;
+    static final byte TRY = 2;    // depends on the value, ask the member's inspector
+
+    // by member, then by kind of value
+    private final byte[][] members;
+
 
     public JsonUnionObjectInspector(List<ObjectInspector> ois,JsonStructOIOptions opts) {
         this.ois = ois;
         options = opts;
+
+        members = new byte[ois.size()][];
+        for (int i = 0; i < members.length; i++) {
+            members[i] = takes(ois.get(i));
+        }
     }
 
 
@@ -27,31 +50,90 @@ public class JsonUnionObjectInspector implements UnionObjectInspector {
         return ois;
     }
 
+    static int kindOf(Object o) {
+        if (o instanceof String) {
+            return STRING;
+        } else if (o instanceof JSONObject.DelayedValue) {
+            return NUMBER;
+        } else if (o instanceof Boolean) {
+            return BOOLEAN;
+        } else if (o instanceof JSONObject) {
+            return OBJECT;
+        } else if (o instanceof JSONArray) {
+            return ARRAY;
+        }
+        return OTHER;
+    }
+
+    /**
+     * What a member does with each kind of value, worked out from its
+     * inspector the way getTag() used to find out by trying every value.
+     */
+    static byte[] takes(ObjectInspector oi) {
+        byte[] takes = new byte[OTHER + 1];
+        switch (oi.getCategory()) {
+            case LIST:
+                takes[ARRAY] = ACCEPT;
+                break;
+            case STRUCT:
+            case MAP:
+                takes[OBJECT] = ACCEPT;
+                break;
+            case UNION:
+                Arrays.fill(takes, ACCEPT);
+                break;
+            case PRIMITIVE:
+                if (oi instanceof JavaStringJsonObjectInspector || oi instanceof JsonStringJavaObjectInspector) {
+                    // anything has a toString()
+                    Arrays.fill(takes, ACCEPT);
+                } else if (oi instanceof JavaStringBooleanObjectInspector) {
+                    takes[STRING] = takes[NUMBER] = takes[BOOLEAN] = ACCEPT;
+                    takes[OTHER] = TRY;
+                } else if (oi instanceof JavaStringShortObjectInspector
+                        || oi instanceof JavaStringIntObjectInspector
+                        || oi instanceof JavaStringLongObjectInspector
+                        || oi instanceof JavaStringFloatObjectInspector
+                        || oi instanceof JavaStringDoubleObjectInspector) {
+                    // they parse anything that reads as a string, 0 if it's no number
+                    takes[STRING] = takes[NUMBER] = ACCEPT;
+                    takes[OTHER] = TRY;
+                } else if (oi instanceof JavaStringByteObjectInspector
+                        || oi instanceof JavaStringTimestampObjectInspector) {
+                    // these throw on text that doesn't parse
+                    takes[STRING] = takes[NUMBER] = takes[OTHER] = TRY;
+                } else {
+                    Arrays.fill(takes, TRY);
+                }
+                break;
+            default:
+                throw new Error("Object Inspector " + oi.toString() + " Not supported");
+        }
+        return takes;
+    }
+
 
 /*
- * This method looks at the object and finds which object inspector should be used.
+ * This method looks at the object and finds which object inspector should be used:
+ * the first member that takes its kind of value.
  */
     @Override
     public byte getTag(Object o) {
         if(o==null) return 0;
-        for(byte i =0; i< ois.size(); i ++) {
-            ObjectInspector oi = ois.get(i);
-
-            switch(oi.getCategory()) {
-                case LIST: if(o instanceof JSONArray) return i; else break;
-                case STRUCT:  if(o instanceof JSONObject) return i; else break;
-                case MAP:  if(o instanceof JSONObject) return i; else break;
-                case UNION: return i;
-
-                case PRIMITIVE: {
-                    PrimitiveObjectInspector poi = (PrimitiveObjectInspector) oi;
+        int kind = kindOf(o);
+        for(byte i =0; i< members.length; i ++) {
+            switch (members[i][kind]) {
+                case ACCEPT:
+                    return i;
+                case TRY:
                     try {
                         // try to parse it, return if able to
-                        poi.getPrimitiveJavaObject(o);
+                        ((PrimitiveObjectInspector) ois.get(i)).getPrimitiveJavaObject(o);
                         return i;
-                    } catch (Exception ex) { continue;}
-                }
-                default :throw new Error("Object Inspector " + oi.toString() + " Not supported for object " + o.toString());
+                    } catch (Exception ex) {
+                        break;
+                    }
+                default:
+                    break;
             }
         }
         throw new Error("No suitable Object Inspector found for object  " + o.toString() + " of class " + o.getClass().getCanonicalName());
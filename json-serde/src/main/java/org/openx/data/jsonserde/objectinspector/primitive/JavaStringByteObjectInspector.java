@@ -37,7 +37,7 @@ public  class JavaStringByteObjectInspector
     @Override
     public byte get(Object o) {
         if(ParsePrimitiveUtils.isString(o)) {
-           return ParsePrimitiveUtils.parseByte(o.toString());
+           return ParsePrimitiveUtils.parseByte(o);
         } else {
            return (Byte) o;
         }
@@ -36,7 +36,7 @@ public class JavaStringDoubleObjectInspector extends AbstractPrimitiveJavaObject
     @Override
     public double get(Object o) {
         if(ParsePrimitiveUtils.isString(o)) {
-           return ParsePrimitiveUtils.parseDouble(o.toString());
+           return ParsePrimitiveUtils.parseDouble(o);
         } else {
           return (Double) o;
         }
@@ -36,7 +36,7 @@ public class JavaStringFloatObjectInspector extends AbstractPrimitiveJavaObjectI
     @Override
     public float get(Object o) {
         if(ParsePrimitiveUtils.isString(o)) {
-          return ParsePrimitiveUtils.parseFloat(o.toString());
+          return ParsePrimitiveUtils.parseFloat(o);
         } else {
           return (Float) o;
         }
@@ -37,7 +37,7 @@ public class JavaStringIntObjectInspector
     @Override
     public int get(Object o) {
         if(ParsePrimitiveUtils.isString(o)) {
-           return ParsePrimitiveUtils.parseInt(o.toString());
+           return ParsePrimitiveUtils.parseInt(o);
         } else {
            return (Integer) o;
         }
@@ -37,7 +37,7 @@ public class JavaStringLongObjectInspector
     @Override
     public long get(Object o) {
         if(ParsePrimitiveUtils.isString(o)) {
-           return ParsePrimitiveUtils.parseLong(o.toString());
+           return ParsePrimitiveUtils.parseLong(o);
         } else {
           return (Long) o;
         }
@@ -37,7 +37,7 @@ public class JavaStringShortObjectInspector
     @Override
     public short get(Object o) {
         if(ParsePrimitiveUtils.isString(o)) {
-           return ParsePrimitiveUtils.parseShort(o.toString());
+           return ParsePrimitiveUtils.parseShort(o);
         } else {
           return (Short) o;
         }
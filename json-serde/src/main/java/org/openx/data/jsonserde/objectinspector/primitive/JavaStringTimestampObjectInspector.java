@@ -57,7 +57,7 @@ public class JavaStringTimestampObjectInspector extends AbstractPrimitiveJavaObj
     @Override
     public TimestampWritable getPrimitiveWritableObject(Object o) {
         if(o == null) return null;
-        return new TimestampWritable(getPrimitiveJavaObject(0));
+        return new TimestampWritable(getPrimitiveJavaObject(o));
     }
 
     @Override
@@ -19,6 +19,18 @@ public class ParsePrimitiveUtils {
 
     public static final Log LOG = LogFactory.getLog(ParsePrimitiveUtils.class);
 
+    // on dirty data, there can be one for every row
+    private static final SampledLog COERCION_LOG = new SampledLog("Could not convert a value, read it as 0");
+
+    // values that didn't convert, in each thread, until the SerDe reading
+    // the rows takes them to count them
+    private static final ThreadLocal<long[]> COERCION_FAILURES = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
     public static boolean isHex(String s) {
         return s.startsWith("0x") || s.startsWith("0X");
     }
@@ -31,67 +43,253 @@ public class ParsePrimitiveUtils {
         }
     }
 
+    /*
+     * Values that don't convert are common in dirty data, so parseInt() to
+     * parseDouble() check the value first and return 0 right away instead
+     * of having Integer.parseInt() and co. throw, which is slow. What they
+     * accept is exactly what the JDK accepts.
+     */
+
     public static int parseInt(String s) {
-        try {
-            if (isHex(s)) {
-                return Integer.parseInt(s.substring(2), 16);
-            } else {
-                return Integer.parseInt(stripDecimal(s));
+        boolean hex = isHex(s);
+        int from = hex ? 2 : 0;
+        int to = hex ? s.length() : decimalEnd(s);
+        if (!isIntegral(s, from, to, hex ? 16 : 10, Integer.MIN_VALUE, Integer.MAX_VALUE)) {
+            return (int) coercionFailed("an int", s);
+        }
+        return Integer.parseInt(s.substring(from, to), hex ? 16 : 10);
+    }
+
+    public static short parseShort(String s) {
+        boolean hex = isHex(s);
+        int from = hex ? 2 : 0;
+        int to = hex ? s.length() : decimalEnd(s);
+        if (!isIntegral(s, from, to, hex ? 16 : 10, Short.MIN_VALUE, Short.MAX_VALUE)) {
+            return (short) coercionFailed("a short", s);
+        }
+        return Short.parseShort(s.substring(from, to), hex ? 16 : 10);
+    }
+
+    public static long parseLong(String s) {
+        boolean hex = isHex(s);
+        int from = hex ? 2 : 0;
+        int to = hex ? s.length() : decimalEnd(s);
+        if (!isIntegral(s, from, to, hex ? 16 : 10, Long.MIN_VALUE, Long.MAX_VALUE)) {
+            return coercionFailed("a long", s);
+        }
+        return Long.parseLong(s.substring(from, to), hex ? 16 : 10);
+    }
+
+    public static float parseFloat(String s) {
+        if (!isFloatingPoint(s)) {
+            return coercionFailed("a float", s);
+        }
+        return Float.parseFloat(s);
+    }
+
+    public static double parseDouble(String s) {
+        if (!isFloatingPoint(s)) {
+            return coercionFailed("a double", s);
+        }
+        return Double.parseDouble(s);
+    }
+
+    private static long coercionFailed(String type, Object value) {
+        String logged = COERCION_LOG.prefix();
+        if (logged != null) {
+            LOG.warn(logged + "not " + type + ": " + value);
+        }
+        COERCION_FAILURES.get()[0]++;
+        return 0;
+    }
+
+    /**
+     * @return how many values failed to convert in this thread since the
+     *  last call
+     */
+    public static long takeCoercionFailures() {
+        long[] failures = COERCION_FAILURES.get();
+        long taken = failures[0];
+        failures[0] = 0;
+        return taken;
+    }
+
+    // where stripDecimal() would cut the string
+    private static int decimalEnd(String s) {
+        int index = s.indexOf('.');
+        return index > 0 ? index : s.length();
+    }
+
+    /**
+     * True if Long.parseLong(s.substring(from, to), radix) would return a
+     * value between min and max instead of throwing.
+     */
+    static boolean isIntegral(String s, int from, int to, int radix, long min, long max) {
+        if (from >= to) {
+            return false;
+        }
+        // like the JDK, accumulate negatively so that min fits
+        boolean negative = false;
+        char first = s.charAt(from);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            if (++from == to) {
+                return false;
             }
         }
-        catch(NumberFormatException ex) {
-            LOG.warn("Could not parse this as an int:  " + s);
-            return 0;
+        long limit = negative ? min : -max;
+        long multmin = limit / radix;
+        long result = 0;
+        for (int i = from; i < to; i++) {
+            int digit = Character.digit(s.charAt(i), radix);
+            if (digit < 0 || result < multmin) {
+                return false;
+            }
+            result *= radix;
+            if (result < limit + digit) {
+                return false;
+            }
+            result -= digit;
         }
+        return true;
     }
 
-    public static short parseShort(String s) {
-        try {
-            if (isHex(s)) {
-                return Short.parseShort(s.substring(2), 16);
-            } else {
-                return Short.parseShort(stripDecimal(s));
+    /**
+     * True if Double.parseDouble(s) (or Float.parseFloat(s)) would return
+     * instead of throwing: decimal and hexadecimal floating point literals,
+     * NaN and Infinity, with surrounding whitespace.
+     */
+    static boolean isFloatingPoint(String s) {
+        int i = 0;
+        int end = s.length();
+        while (i < end && s.charAt(i) <= ' ') {
+            i++;
+        }
+        while (end > i && s.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (i < end && (s.charAt(i) == '+' || s.charAt(i) == '-')) {
+            i++;
+        }
+        if (s.startsWith("NaN", i)) {
+            return i + 3 == end;
+        }
+        if (s.startsWith("Infinity", i)) {
+            return i + 8 == end;
+        }
+        if (end > i) {
+            char suffix = s.charAt(end - 1);
+            if (suffix == 'f' || suffix == 'F' || suffix == 'd' || suffix == 'D') {
+                end--;
+            }
+        }
+        boolean hex = end - i > 1 && s.charAt(i) == '0' && (s.charAt(i + 1) == 'x' || s.charAt(i + 1) == 'X');
+        if (hex) {
+            i += 2;
+        }
+        int digits = 0;
+        while (i < end && isDigit(s.charAt(i), hex)) {
+            i++;
+            digits++;
+        }
+        if (i < end && s.charAt(i) == '.') {
+            i++;
+            while (i < end && isDigit(s.charAt(i), hex)) {
+                i++;
+                digits++;
             }
         }
-        catch(NumberFormatException ex) {
-            LOG.warn("Could not parse this as a short:  " + s);
-            return 0;
+        if (digits == 0) {
+            return false;
+        }
+        // the exponent is mandatory for hex literals
+        if (i < end && (hex ? s.charAt(i) == 'p' || s.charAt(i) == 'P' : s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            i++;
+            if (i < end && (s.charAt(i) == '+' || s.charAt(i) == '-')) {
+                i++;
+            }
+            int exponentDigits = 0;
+            while (i < end && isDigit(s.charAt(i), false)) {
+                i++;
+                exponentDigits++;
+            }
+            return exponentDigits > 0 && i == end;
         }
+        return !hex && i == end;
+    }
 
+    private static boolean isDigit(char c, boolean hex) {
+        return (c >= '0' && c <= '9') || (hex && ((c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F')));
     }
 
-    public static long parseLong(String s) {
-        try {
-            if (isHex(s)) {
-                return Long.parseLong(s.substring(2), 16);
-            } else {
-                return Long.parseLong(stripDecimal(s));
+    /*
+     * The parseXxx(Object) methods take a value of a row: if it's a plain
+     * integer, it's decoded straight from the digits, otherwise they
+     * behave exactly like the String versions on o.toString().
+     */
+
+    public static byte parseByte(Object o) {
+        if (o instanceof JSONObject.DelayedValue) {
+            JSONObject.DelayedValue value = (JSONObject.DelayedValue) o;
+            if (value.isLong()) {
+                long n = value.longValue();
+                if (n == (byte) n) {
+                    return (byte) n;
+                }
             }
         }
-        catch(NumberFormatException ex) {
-            LOG.warn("Could not parse this as a long:  " + s);
-            return 0;
+        return parseByte(o.toString());
+    }
+
+    public static short parseShort(Object o) {
+        if (o instanceof JSONObject.DelayedValue) {
+            JSONObject.DelayedValue value = (JSONObject.DelayedValue) o;
+            if (value.isLong()) {
+                long n = value.longValue();
+                if (n == (short) n) {
+                    return (short) n;
+                }
+            }
         }
+        return parseShort(o.toString());
     }
 
-    public static float parseFloat(String s) {
-        try {
-            return Float.parseFloat(s);
+    public static int parseInt(Object o) {
+        if (o instanceof JSONObject.DelayedValue) {
+            JSONObject.DelayedValue value = (JSONObject.DelayedValue) o;
+            if (value.isLong()) {
+                long n = value.longValue();
+                if (n == (int) n) {
+                    return (int) n;
+                }
+            }
         }
-        catch(NumberFormatException ex) {
-            LOG.warn("Could not parse this as a float:  " + s);
-            return 0;
+        return parseInt(o.toString());
+    }
+
+    public static long parseLong(Object o) {
+        if (o instanceof JSONObject.DelayedValue && ((JSONObject.DelayedValue) o).isLong()) {
+            return ((JSONObject.DelayedValue) o).longValue();
         }
+        return parseLong(o.toString());
     }
 
-    public static double parseDouble(String s) {
-        try {
-            return Double.parseDouble(s);
+    public static float parseFloat(Object o) {
+        if (o instanceof JSONObject.DelayedValue && ((JSONObject.DelayedValue) o).isLong()) {
+            return (float) ((JSONObject.DelayedValue) o).longValue();
         }
-        catch(NumberFormatException ex) {
-            LOG.warn("Could not parse this as a double:  " + s);
-            return 0;
+        return parseFloat(o.toString());
+    }
+
+    public static double parseDouble(Object o) {
+        if (o instanceof JSONObject.DelayedValue) {
+            JSONObject.DelayedValue value = (JSONObject.DelayedValue) o;
+            if (!value.isLong() && !isFloatingPoint(value.toString())) {
+                return coercionFailed("a double", o);
+            }
+            return value.doubleValue();
         }
+        return parseDouble(o.toString());
     }
 
     public static String stripDecimal(String s) {
@@ -0,0 +1,61 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+package org.openx.data.jsonserde.objectinspector.primitive;
+
+/**
+ * Decides which of a warning that can come up for any number of rows gets
+ * logged: the first few in full, then one line now and then with how many
+ * were left out and one of them. Logging every one of them slows down
+ * tasks and buries everything else.
+ *
+ * Used for malformed rows and for values that don't convert; each instance
+ * is shared by the SerDes of the JVM, the point is not to flood its logs.
+ */
+public final class SampledLog {
+
+    // logged in full before sampling kicks in
+    public static final int LOGGED_IN_FULL = 10;
+    public static final long INTERVAL_MS = 60 * 1000L;
+
+    private final String what;
+    private long logged;
+    private long suppressed;
+    private long lastLogged;
+
+    /**
+     * @param what what the log lines start with
+     */
+    public SampledLog(String what) {
+        this.what = what;
+    }
+
+    /**
+     * What to start the log line with, null if this one isn't logged, in
+     * which case there's no need to put the message together.
+     */
+    public synchronized String prefix() {
+        long now = System.currentTimeMillis();
+        if (logged < LOGGED_IN_FULL) {
+            logged++;
+            lastLogged = now;
+            return logged == LOGGED_IN_FULL ? what + " (further ones are only sampled): " : what + ": ";
+        } else if (now - lastLogged >= INTERVAL_MS) {
+            String prefix = what + " (" + suppressed + " more in the last "
+                    + (now - lastLogged) / 1000 + "s, like this one): ";
+            suppressed = 0;
+            lastLogged = now;
+            return prefix;
+        }
+        suppressed++;
+        return null;
+    }
+}
@@ -13,6 +13,8 @@
 
 package org.openx.data.jsonserde;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hive.serde.serdeConstants;
@@ -107,5 +109,46 @@ public class JsonMapTest {
 
   }
 
+  @Test
+  public void testMapView() throws Exception {
+    Writable w = new Text("{\"religions\": { \"f\": \"v\", \"n\":null, \"g\":\"w\"} }");
+
+    JSONObject result = (JSONObject) instance.deserialize(w);
+    StructObjectInspector soi = (StructObjectInspector) instance.getObjectInspector();
+    StructField sfr = soi.getStructFieldRef("religions");
+    MapObjectInspector moi = (MapObjectInspector) sfr.getFieldObjectInspector();
+    Object val = soi.getStructFieldData(result, sfr);
+
+    Map<?, ?> map = moi.getMap(val);
+    assertEquals(3, map.size());
+    assertEquals("v", map.get("f"));
+    assertTrue(map.containsKey("n"));
+    assertNull(map.get("n"));
+    assertFalse(map.containsKey("x"));
+
+    Map<String, Object> copy = new HashMap<String, Object>();
+    copy.put("f", "v");
+    copy.put("n", null);
+    copy.put("g", "w");
+    assertEquals(copy, map);
+    assertEquals(copy, new HashMap<Object, Object>(map));
+
+    // the view is built once per object
+    assertSame(map, moi.getMap(val));
+
+    // and it changes with it
+    ((JSONObject) val).remove("g");
+    assertEquals(2, map.size());
+    assertFalse(map.containsKey("g"));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testMapViewReadOnly() throws Exception {
+    JSONObject result = (JSONObject) instance.deserialize(new Text("{\"religions\": { \"f\": \"v\"} }"));
+    StructObjectInspector soi = (StructObjectInspector) instance.getObjectInspector();
+    StructField sfr = soi.getStructFieldRef("religions");
+    Map map = ((MapObjectInspector) sfr.getFieldObjectInspector()).getMap(soi.getStructFieldData(result, sfr));
+    map.put("x", "y");
+  }
 
 }
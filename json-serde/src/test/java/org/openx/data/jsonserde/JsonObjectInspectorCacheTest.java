@@ -0,0 +1,142 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+package org.openx.data.jsonserde;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+import org.openx.data.jsonserde.json.JSONObject;
+import org.openx.data.jsonserde.objectinspector.JsonListObjectInspector;
+import org.openx.data.jsonserde.objectinspector.JsonObjectInspectorCache;
+import org.openx.data.jsonserde.objectinspector.JsonObjectInspectorFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the inspectors get shared by tables with the same options, and
+ * only by them.
+ */
+public class JsonObjectInspectorCacheTest {
+
+    static JsonSerDe serde(Properties extra) throws Exception {
+        Properties tbl = TestTables.table("cache_a,cache_items,cache_rest",
+                "int,array<struct<x:int,cache_rest:string>>,map<string,string>");
+        tbl.putAll(extra);
+        return TestTables.serde(tbl);
+    }
+
+    @Test
+    public void testSameOptionsSameInspector() throws Exception {
+        assertSame(serde(new Properties()).getObjectInspector(), serde(new Properties()).getObjectInspector());
+    }
+
+    @Test
+    public void testUnmappedSettingsAreTakenIntoAccount() throws Exception {
+        JsonSerDe plain = serde(new Properties());
+        Properties extra = new Properties();
+        extra.setProperty(JsonSerDe.PROP_UNMAPPED_ATTR_KEY, "cache_rest");
+        JsonSerDe unmapped = serde(extra);
+        assertNotSame(plain.getObjectInspector(), unmapped.getObjectInspector());
+
+        Text row = new Text("{\"cache_a\":1,\"cache_rest\":{\"k\":\"v\"},\"other\":2}");
+        StructObjectInspector soi = (StructObjectInspector) unmapped.getObjectInspector();
+        JSONObject rest = (JSONObject) soi.getStructFieldData(unmapped.deserialize(row), soi.getStructFieldRef("cache_rest"));
+        assertEquals("2", rest.get("other"));
+
+        soi = (StructObjectInspector) plain.getObjectInspector();
+        rest = (JSONObject) soi.getStructFieldData(plain.deserialize(row), soi.getStructFieldRef("cache_rest"));
+        assertEquals("v", rest.get("k"));
+    }
+
+    @Test
+    public void testNestedStructsGetTheirOptions() throws Exception {
+        Properties extra = new Properties();
+        extra.setProperty("mapping.x", "ex");
+        StructObjectInspector mapped = (StructObjectInspector) serde(extra).getObjectInspector();
+        StructObjectInspector plain = (StructObjectInspector) serde(new Properties()).getObjectInspector();
+        assertNotSame(mapped.getStructFieldRef("cache_items").getFieldObjectInspector(),
+                plain.getStructFieldRef("cache_items").getFieldObjectInspector());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        JsonObjectInspectorCache cache = new JsonObjectInspectorCache(2);
+        ObjectInspector oi = PrimitiveObjectInspectorFactory.javaIntObjectInspector;
+        assertNull(cache.get("a", ObjectInspector.class));
+        cache.put("a", ObjectInspector.class, oi);
+        cache.put("b", ObjectInspector.class, oi);
+        assertSame(oi, cache.get("a", ObjectInspector.class));
+        // b is the least recently used one
+        cache.put("c", ObjectInspector.class, oi);
+        assertNull(cache.get("b", ObjectInspector.class));
+        assertSame(oi, cache.get("a", ObjectInspector.class));
+
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testOtherType() throws Exception {
+        JsonObjectInspectorCache cache = new JsonObjectInspectorCache(2);
+        ObjectInspector oi = PrimitiveObjectInspectorFactory.javaIntObjectInspector;
+        cache.put("a", ObjectInspector.class, oi);
+        // an inspector of another type is a miss, and gets replaced
+        assertNull(cache.get("a", JsonListObjectInspector.class));
+        JsonListObjectInspector list = JsonObjectInspectorFactory.getJsonListObjectInspector(oi);
+        assertSame(list, cache.put("a", JsonListObjectInspector.class, list));
+        assertSame(list, cache.get("a", JsonListObjectInspector.class));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testCountsHits() throws Exception {
+        serde(new Properties());
+        long hits = JsonObjectInspectorFactory.getCache().getHits();
+        serde(new Properties());
+        assertTrue(JsonObjectInspectorFactory.getCache().getHits() > hits);
+    }
+
+    @Test
+    public void testConcurrentInitialization() throws Exception {
+        final Properties extra = new Properties();
+        extra.setProperty("mapping.cache_a", "concurrent");
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<ObjectInspector>> futures = new ArrayList<Future<ObjectInspector>>();
+            for (int i = 0; i < 64; i++) {
+                futures.add(pool.submit(new Callable<ObjectInspector>() {
+                    @Override
+                    public ObjectInspector call() throws Exception {
+                        return serde(extra).getObjectInspector();
+                    }
+                }));
+            }
+            ObjectInspector first = futures.get(0).get();
+            for (Future<ObjectInspector> f : futures) {
+                assertSame(first, f.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
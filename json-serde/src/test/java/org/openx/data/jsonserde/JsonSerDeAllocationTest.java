@@ -0,0 +1,246 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+package org.openx.data.jsonserde;
+
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.MapObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.UnionObjectInspector;
+import org.apache.hadoop.io.Text;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openx.data.jsonserde.corpus.JsonCorpusGenerator;
+
+import static org.junit.Assert.*;
+
+/**
+ * Bytes allocated per row, by deserialize() followed by reading every
+ * column the way Hive does, and by serialize(), for tables of different
+ * shapes. Each one has to stay within its budget in
+ * allocation_budgets-<java version>.properties, so that allocating more
+ * shows up in review: it's garbage collection, more than parsing, that
+ * makes JSON tables need more heap than ORC ones.
+ *
+ * Other JVMs allocate differently for the same code, so there is a file
+ * for each Java version. On a version without one, every test fails with
+ * the bytes it measured, to fill in a new file from.
+ *
+ * When a change allocates less, lower the budgets; when it has to
+ * allocate more, raise them in the same change and say why.
+ */
+public class JsonSerDeAllocationTest {
+
+    static final int ROWS = 256;
+    static final int WARMUP = 40000;
+    static final int MEASURED = 20000;
+
+    static final String BUDGETS = "/allocation_budgets-"
+            + System.getProperty("java.specification.version") + ".properties";
+
+    static com.sun.management.ThreadMXBean mx;
+    static Properties budgets;
+
+    // keeps the JIT from dropping what the inspectors return
+    static Object sink;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assertTrue("This JVM can't count the bytes each thread allocates",
+                mx.isThreadAllocatedMemorySupported());
+        mx.setThreadAllocatedMemoryEnabled(true);
+        budgets = new Properties();
+        InputStream in = JsonSerDeAllocationTest.class.getResourceAsStream(BUDGETS);
+        if (in != null) {
+            try {
+                budgets.load(in);
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    static long allocated() {
+        return mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    static Text[] rows(JsonCorpusGenerator generator) {
+        Text[] rows = new Text[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            rows[i] = new Text(generator.nextRow());
+        }
+        return rows;
+    }
+
+    /**
+     * Reads every value under data, like a query selecting every column.
+     */
+    static void read(Object data, ObjectInspector oi) {
+        if (data == null) {
+            return;
+        }
+        switch (oi.getCategory()) {
+            case PRIMITIVE:
+                sink = ((PrimitiveObjectInspector) oi).getPrimitiveJavaObject(data);
+                break;
+            case LIST: {
+                ListObjectInspector loi = (ListObjectInspector) oi;
+                int length = loi.getListLength(data);
+                for (int i = 0; i < length; i++) {
+                    read(loi.getListElement(data, i), loi.getListElementObjectInspector());
+                }
+                break;
+            }
+            case MAP: {
+                MapObjectInspector moi = (MapObjectInspector) oi;
+                for (Map.Entry<?, ?> entry : moi.getMap(data).entrySet()) {
+                    read(entry.getKey(), moi.getMapKeyObjectInspector());
+                    read(entry.getValue(), moi.getMapValueObjectInspector());
+                }
+                break;
+            }
+            case STRUCT: {
+                StructObjectInspector soi = (StructObjectInspector) oi;
+                List<Object> values = soi.getStructFieldsDataAsList(data);
+                for (int i = 0; i < values.size(); i++) {
+                    read(values.get(i), soi.getAllStructFieldRefs().get(i).getFieldObjectInspector());
+                }
+                break;
+            }
+            case UNION: {
+                UnionObjectInspector uoi = (UnionObjectInspector) oi;
+                read(uoi.getField(data), uoi.getObjectInspectors().get(uoi.getTag(data)));
+                break;
+            }
+            default:
+                throw new IllegalArgumentException(oi.getTypeName());
+        }
+    }
+
+    /**
+     * Checks the bytes per row of deserialize() and reading every column,
+     * then of serialize(), against the budgets named after the table.
+     */
+    static void check(String name, Properties tbl, Text[] rows) throws Exception {
+        JsonSerDe serde = TestTables.serde(tbl);
+        ObjectInspector oi = serde.getObjectInspector();
+
+        for (int i = 0; i < WARMUP; i++) {
+            read(serde.deserialize(rows[i % ROWS]), oi);
+        }
+        long before = allocated();
+        for (int i = 0; i < MEASURED; i++) {
+            read(serde.deserialize(rows[i % ROWS]), oi);
+        }
+        assertWithinBudget(name + ".deserialize", (allocated() - before) / MEASURED);
+
+        Object[] deserialized = new Object[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            // lazy rows are reused by the next deserialize()
+            deserialized[i] = serde.deserialize(new Text(rows[i]));
+        }
+        for (int i = 0; i < WARMUP; i++) {
+            sink = serde.serialize(deserialized[i % ROWS], oi);
+        }
+        before = allocated();
+        for (int i = 0; i < MEASURED; i++) {
+            sink = serde.serialize(deserialized[i % ROWS], oi);
+        }
+        assertWithinBudget(name + ".serialize", (allocated() - before) / MEASURED);
+    }
+
+    static void assertWithinBudget(String key, long bytesPerRow) {
+        String budget = budgets.getProperty(key);
+        assertNotNull("No budget for " + key + " in " + BUDGETS + ", it takes " + bytesPerRow
+                + " bytes per row", budget);
+        assertTrue(key + " allocates " + bytesPerRow + " bytes per row, over its budget of " + budget
+                + " in " + BUDGETS, bytesPerRow <= Long.parseLong(budget.trim()));
+    }
+
+    static final String FLAT_COLUMNS = "id,user_name,active,score,created,country,visits,ratio";
+    static final String FLAT_TYPES = "bigint,string,boolean,double,timestamp,string,int,float";
+
+    @Test
+    public void testFlat() throws Exception {
+        check("flat", TestTables.table(FLAT_COLUMNS, FLAT_TYPES),
+                rows(new JsonCorpusGenerator(FLAT_COLUMNS, FLAT_TYPES, 1)));
+    }
+
+    @Test
+    public void testNestedStruct() throws Exception {
+        String columns = "id,address";
+        String types = "bigint,struct<street:string,zip_code:int,geo:struct<lat:double,lon:double>,"
+                + "owner:struct<name:string,since:struct<year:int,month:int>>>";
+        check("nested_struct", TestTables.table(columns, types), rows(new JsonCorpusGenerator(columns, types, 2)));
+    }
+
+    @Test
+    public void testArrayOfStruct() throws Exception {
+        String columns = "id,items";
+        String types = "bigint,array<struct<sku:string,quantity:int,price:double>>";
+        check("array_of_struct", TestTables.table(columns, types),
+                rows(new JsonCorpusGenerator(columns, types, 3).arrayLengths(2, 8)));
+    }
+
+    @Test
+    public void testMap() throws Exception {
+        String columns = "id,attributes,counts";
+        String types = "bigint,map<string,string>,map<string,int>";
+        check("map", TestTables.table(columns, types),
+                rows(new JsonCorpusGenerator(columns, types, 4).arrayLengths(2, 8)));
+    }
+
+    @Test
+    public void testUnmappedAttributes() throws Exception {
+        Properties tbl = TestTables.table(FLAT_COLUMNS + ",unmapped", FLAT_TYPES + ",map<string,string>");
+        tbl.setProperty(JsonSerDe.PROP_UNMAPPED_ATTR_KEY, "unmapped");
+        check("unmapped_attrs", tbl,
+                rows(new JsonCorpusGenerator(FLAT_COLUMNS, FLAT_TYPES, 5).extraKeys(8).maxDepth(1)));
+    }
+
+    @Test
+    public void testPrefixMappings() throws Exception {
+        Properties tbl = TestTables.table(FLAT_COLUMNS + ",extras", FLAT_TYPES + ",map<string,string>");
+        tbl.setProperty(JsonSerDe.PROP_PREFIX_MAPPING_PREFIX + "extras", "extra_");
+        check("prefix_mappings", tbl,
+                rows(new JsonCorpusGenerator(FLAT_COLUMNS, FLAT_TYPES, 6).extraKeys(8).maxDepth(0)));
+    }
+
+    @Test
+    public void testKeyReplacements() throws Exception {
+        String columns = "id,user_name,address";
+        String types = "bigint,string,struct<street:string,zip_code:int,geo:struct<lat:double,lon:double>>";
+        // the same rows, read into columns named differently
+        Properties tbl = TestTables.table("id,name,address",
+                "bigint,string,struct<street:string,zip:int,geo:struct<latitude:double,longitude:double>>");
+        tbl.setProperty(JsonSerDe.CHANGE_KEY_TO_PREFIX + "name", "user_name");
+        tbl.setProperty(JsonSerDe.CHANGE_KEY_TO_PREFIX + "zip", "address.zip_code");
+        tbl.setProperty(JsonSerDe.CHANGE_KEY_TO_PREFIX + "latitude", "address.geo.lat");
+        tbl.setProperty(JsonSerDe.CHANGE_KEY_TO_PREFIX + "longitude", "address.geo.lon");
+        Text[] rows = rows(new JsonCorpusGenerator(columns, types, 7));
+
+        JsonSerDe serde = TestTables.serde(tbl);
+        StructObjectInspector oi = (StructObjectInspector) serde.getObjectInspector();
+        List<Object> address = ((StructObjectInspector) oi.getAllStructFieldRefs().get(2).getFieldObjectInspector())
+                .getStructFieldsDataAsList(oi.getStructFieldsDataAsList(serde.deserialize(rows[0])).get(2));
+        assertNotNull("the keys are replaced", address.get(1));
+
+        check("key_replacements", tbl, rows);
+    }
+}
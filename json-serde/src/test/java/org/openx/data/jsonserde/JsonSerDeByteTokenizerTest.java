@@ -0,0 +1,148 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+package org.openx.data.jsonserde;
+
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+import org.openx.data.jsonserde.json.JSONArray;
+import org.openx.data.jsonserde.json.JSONObject;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that json.tokenizer=bytes builds the same rows as the
+ * default Reader based tokenizer.
+ */
+public class JsonSerDeByteTokenizerTest {
+
+    static final String[] ROWS = {
+        "{\"one\":true,\"three\":[\"red\",\"yellow\",\"orange\"],\"two\":19.5,\"four\":\"poop\"}",
+        "  {\"ONE\":false, \"Two\" : -1.5E3 , \"four\":null}  ",
+        "{ one:true, two:0x1f, four:unquoted value }",
+        "{'four':'single \\' quoted', \"two\"=>3; \"one\"=true,}",
+        "{\"four\":\"esc \\\" \\\\ \\/ \\b\\f\\n\\r\\t \\u00e8\\u4e2d \\a\"}",
+        "{\"four\":\"caff\u00e8 \u4e2d\u6587 \ud83d\ude00 end\"}",
+        "{\"three\":[1,,2,[3,{\"x\":\"y\"}],{}],\"nested\":{\"Deep\":{\"deeper\":[]}}}",
+        "[true,19.5, [\"red\",\"yellow\",\"orange\"],\"poop\"]",
+        "{}",
+        "[]",
+    };
+
+    static final String[] MALFORMED = {
+        "{\"one\":true,\"four\" \"poop\"}",
+        "{\"four\":\"unterminated}",
+        "{\"four\":}",
+        "[1,2",
+    };
+
+    static JsonSerDe serde(String tokenizer, boolean ignoreMalformed) throws SerDeException {
+        return TestTables.serde(TestTables.table("one,two,three,four", "boolean,float,array<string>,string",
+                JsonSerDe.PROP_TOKENIZER, tokenizer,
+                JsonSerDe.PROP_IGNORE_MALFORMED_JSON, String.valueOf(ignoreMalformed)));
+    }
+
+    @Test
+    public void testSameModelAsReader() throws Exception {
+        JsonSerDe reader = serde(JsonSerDe.TOKENIZER_READER, false);
+        JsonSerDe bytes = serde(JsonSerDe.TOKENIZER_BYTES, false);
+
+        for (String row : ROWS) {
+            Object expected = reader.deserialize(new Text(row));
+            Object actual = bytes.deserialize(new Text(row));
+            assertNotNull(row, actual);
+            assertEquals(row, expected.getClass(), actual.getClass());
+            assertEquals(row, expected.toString(), actual.toString());
+        }
+    }
+
+    @Test
+    public void testUnicode() throws Exception {
+        JsonSerDe bytes = serde(JsonSerDe.TOKENIZER_BYTES, false);
+        StructObjectInspector soi = (StructObjectInspector) bytes.getObjectInspector();
+
+        JSONObject result = (JSONObject) bytes.deserialize(new Text(ROWS[5]));
+        assertEquals("caff\u00e8 \u4e2d\u6587 \ud83d\ude00 end",
+                soi.getStructFieldData(result, soi.getStructFieldRef("four")));
+    }
+
+    @Test
+    public void testInvalidUtf8IsReplaced() throws Exception {
+        JsonSerDe reader = serde(JsonSerDe.TOKENIZER_READER, false);
+        JsonSerDe bytes = serde(JsonSerDe.TOKENIZER_BYTES, false);
+
+        byte[] row = new byte[] {
+            '{', '"', 'f', 'o', 'u', 'r', '"', ':', '"',
+            'a', (byte) 0xC3, 'b', (byte) 0xFF, (byte) 0xE4, (byte) 0xB8, 'c',
+            '"', '}' };
+        Text text = new Text();
+        text.set(row);
+
+        Object expected = reader.deserialize(text);
+        Object actual = bytes.deserialize(text);
+        assertEquals(expected.toString(), actual.toString());
+    }
+
+    @Test
+    public void testReusedTextBuffer() throws Exception {
+        JsonSerDe bytes = serde(JsonSerDe.TOKENIZER_BYTES, false);
+
+        // Text keeps a backing array longer than the row, only getLength() bytes count
+        Text text = new Text(ROWS[0]);
+        text.set("{\"four\":\"short\"}");
+        JSONObject result = (JSONObject) bytes.deserialize(text);
+        assertEquals(1, result.length());
+        assertEquals("short", result.get("four"));
+    }
+
+    @Test
+    public void testArrayRow() throws Exception {
+        JsonSerDe bytes = serde(JsonSerDe.TOKENIZER_BYTES, false);
+        StructObjectInspector soi = (StructObjectInspector) bytes.getObjectInspector();
+
+        Object result = bytes.deserialize(new Text(ROWS[7]));
+        assertTrue(result instanceof JSONArray);
+        assertEquals(Boolean.TRUE, soi.getStructFieldData(result, soi.getStructFieldRef("one")));
+    }
+
+    @Test
+    public void testMalformed() throws Exception {
+        JsonSerDe bytes = serde(JsonSerDe.TOKENIZER_BYTES, false);
+        for (String row : MALFORMED) {
+            try {
+                bytes.deserialize(new Text(row));
+                fail("Expected a SerDeException for " + row);
+            } catch (SerDeException ex) {
+                // expected
+            }
+        }
+
+        JsonSerDe ignoring = serde(JsonSerDe.TOKENIZER_BYTES, true);
+        for (String row : MALFORMED) {
+            JSONObject result = (JSONObject) ignoring.deserialize(new Text(row));
+            assertEquals(0, result.length());
+        }
+    }
+
+    @Test
+    public void testBlankRow() throws Exception {
+        JsonSerDe bytes = serde(JsonSerDe.TOKENIZER_BYTES, false);
+        assertNull(bytes.deserialize(new Text("   ")));
+        assertNull(bytes.deserialize(new Text("")));
+    }
+
+    @Test(expected = SerDeException.class)
+    public void testUnknownTokenizer() throws Exception {
+        serde("simd", false);
+    }
+}
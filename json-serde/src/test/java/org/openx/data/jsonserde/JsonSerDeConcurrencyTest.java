@@ -0,0 +1,122 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+package org.openx.data.jsonserde;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.MapObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.UnionObjectInspector;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Many threads, each with its own SerDes, reading different tables whose
+ * inspectors are shared.
+ */
+public class JsonSerDeConcurrencyTest {
+
+    static final int THREADS = 16;
+    static final int ROWS = 3000;
+
+    // tables with different top level columns, but the same nested types
+    static final String[][] TABLES = {
+        { "id,name,inner", "int,string,struct<a:int,b:string,c:array<int>>", "reader" },
+        { "id,name,inner,tags", "int,string,struct<a:int,b:string,c:array<int>>,map<string,string>", "bytes" },
+        { "id,name,inner", "int,string,struct<a:int,b:string,c:array<int>>", "structural" },
+        { "id,name,inner,u", "int,string,struct<a:int,b:string,c:array<int>>,uniontype<int,array<int>>", "reader" },
+    };
+
+    static JsonSerDe serde(String[] table) throws Exception {
+        return TestTables.serde(TestTables.table(table[0], table[1], JsonSerDe.PROP_TOKENIZER, table[2]));
+    }
+
+    static String row(int thread, int i) {
+        int n = thread * 1000000 + i;
+        return "{\"id\":" + n + ",\"name\":\"t" + n + "\",\"inner\":{\"a\":" + n + ",\"b\":\"b" + n
+                + "\",\"c\":[" + n + "," + (n + 1) + "]},\"tags\":{\"k\":\"v" + n + "\"},\"u\":[" + n + "]}";
+    }
+
+    // reads a row through the shared inspectors and checks every value
+    static void check(JsonSerDe serde, int thread, int i) throws Exception {
+        int n = thread * 1000000 + i;
+        StructObjectInspector soi = (StructObjectInspector) serde.getObjectInspector();
+        Object row = serde.deserialize(new Text(row(thread, i)));
+
+        List<Object> fields = soi.getStructFieldsDataAsList(row);
+        StructObjectInspector innerOI = (StructObjectInspector) soi.getStructFieldRef("inner").getFieldObjectInspector();
+        List<Object> inner = innerOI.getStructFieldsDataAsList(fields.get(2));
+        // read them after the other list came back, from the same thread
+        assertEquals(Integer.toString(n), fields.get(0).toString());
+        assertEquals("t" + n, fields.get(1));
+        assertEquals(Integer.toString(n), inner.get(0).toString());
+        assertEquals("b" + n, inner.get(1));
+
+        ListObjectInspector loi = (ListObjectInspector) innerOI.getStructFieldRef("c").getFieldObjectInspector();
+        assertEquals(2, loi.getListLength(inner.get(2)));
+        assertEquals(Integer.toString(n + 1), loi.getList(inner.get(2)).get(1).toString());
+
+        if (fields.size() > 3 && soi.getAllStructFieldRefs().get(3).getFieldName().equals("tags")) {
+            MapObjectInspector moi = (MapObjectInspector) soi.getStructFieldRef("tags").getFieldObjectInspector();
+            assertEquals("v" + n, moi.getMap(fields.get(3)).get("k"));
+        }
+        if (fields.size() > 3 && soi.getAllStructFieldRefs().get(3).getFieldName().equals("u")) {
+            UnionObjectInspector uoi = (UnionObjectInspector) soi.getStructFieldRef("u").getFieldObjectInspector();
+            assertEquals(1, uoi.getTag(fields.get(3)));
+        }
+        // the list is still this row's
+        assertEquals("t" + n, fields.get(1));
+    }
+
+    @Test
+    public void testSharedInspectors() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int t = 0; t < THREADS; t++) {
+                final int thread = t;
+                futures.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        JsonSerDe[] serdes = new JsonSerDe[TABLES.length];
+                        for (int i = 0; i < TABLES.length; i++) {
+                            serdes[i] = serde(TABLES[i]);
+                        }
+                        start.await();
+                        for (int i = 0; i < ROWS; i++) {
+                            check(serdes[(i + thread) % serdes.length], thread, i);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<Void> f : futures) {
+                f.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        // and they were shared
+        assertSame(serde(TABLES[0]).getObjectInspector(), serde(TABLES[2]).getObjectInspector());
+    }
+}
@@ -119,4 +119,33 @@ public class JsonSerDeDotsInKeysTest {
 
         assertEquals(null, innerWithDotsResult);
     }
+
+    @Test
+    public void testManyDottedKeys() throws Exception {
+        StringBuilder row = new StringBuilder("{\"plain_key\":0");
+        for (int i = 0; i < 200; i++) {
+            row.append(",\"k.").append(i).append(".v\":").append(i);
+        }
+        row.append(",\"a_b\":\"direct\",\"a.b\":\"dotted\",\"n.x\":null}");
+
+        for (String lazy : new String[] { "false", "true" }) {
+            JsonSerDe instance = new JsonSerDe();
+            Properties tbl = new Properties();
+            tbl.setProperty(serdeConstants.LIST_COLUMNS, "k_7_v,k_199_v,a_b,n_x,k_200_v");
+            tbl.setProperty(serdeConstants.LIST_COLUMN_TYPES, "int,int,string,string,int");
+            tbl.setProperty(JsonSerDe.PROP_DOTS_IN_KEYS, "true");
+            tbl.setProperty(JsonSerDe.PROP_LAZY, lazy);
+            instance.initialize(null, tbl);
+
+            Object result = instance.deserialize(new Text(row.toString()));
+            StructObjectInspector soi = (StructObjectInspector) instance.getObjectInspector();
+
+            assertEquals("7", soi.getStructFieldData(result, soi.getStructFieldRef("k_7_v")).toString());
+            assertEquals("199", soi.getStructFieldData(result, soi.getStructFieldRef("k_199_v")).toString());
+            // the key itself wins over one with dots
+            assertEquals("direct", soi.getStructFieldData(result, soi.getStructFieldRef("a_b")));
+            assertEquals(null, soi.getStructFieldData(result, soi.getStructFieldRef("n_x")));
+            assertEquals(null, soi.getStructFieldData(result, soi.getStructFieldRef("k_200_v")));
+        }
+    }
 }
@@ -0,0 +1,178 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+package org.openx.data.jsonserde;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.objectinspector.MapObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.io.Text;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openx.data.jsonserde.json.JSONObject;
+import org.openx.data.jsonserde.json.LazyJSONObject;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that json.lazy rows read the same as fully parsed ones.
+ */
+public class JsonSerDeLazyTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static final String[] ROWS = {
+        "{\"one\":true,\"three\":[\"red\",\"yellow\",\"orange\"],\"two\":19.5,\"four\":\"poop\"}",
+        "  {\"ONE\":false, \"Two\" : -1.5E3 , \"four\":null, \"extra\":{\"a\":[1,2]}}  ",
+        "{ one:true, two:3, four:unquoted value }",
+        "{'four':'single \\' quoted', \"two\"=>3; \"one\"=true,}",
+        "{\"four\":\"caffè 中文 😀\",\"five\":{\"Troxy\":\"x\",\"b\":2}}",
+        "{}",
+    };
+
+    static Properties table() {
+        return TestTables.table("one,two,three,four,five",
+                "boolean,float,array<string>,string,struct<foxy:string,b:int>",
+                "changekeyto.foxy", "five.troxy");
+    }
+
+    static JsonSerDe serde(Properties tbl, boolean lazy) throws SerDeException {
+        Properties p = new Properties();
+        p.putAll(tbl);
+        p.setProperty(JsonSerDe.PROP_LAZY, String.valueOf(lazy));
+        return TestTables.serde(p);
+    }
+
+    @Test
+    public void testSameAsEager() throws Exception {
+        JsonSerDe eager = serde(table(), false);
+        JsonSerDe lazy = serde(table(), true);
+
+        for (String row : ROWS) {
+            Object e = eager.deserialize(new Text(row));
+            Object l = lazy.deserialize(new Text(row));
+            assertTrue(l instanceof LazyJSONObject);
+
+            // serializing walks every field through the object inspectors
+            assertEquals(row,
+                    eager.serialize(e, eager.getObjectInspector()).toString(),
+                    lazy.serialize(l, lazy.getObjectInspector()).toString());
+
+            StructObjectInspector soi = (StructObjectInspector) lazy.getObjectInspector();
+            List<Object> values = soi.getStructFieldsDataAsList(l);
+            assertEquals(5, values.size());
+        }
+    }
+
+    @Test
+    public void testParsesOnlyWhatIsRead() throws Exception {
+        JsonSerDe lazy = serde(table(), true);
+        StructObjectInspector soi = (StructObjectInspector) lazy.getObjectInspector();
+
+        // the value of "three" is broken, but nobody reads it
+        LazyJSONObject row = (LazyJSONObject) lazy.deserialize(
+                new Text("{\"four\":\"x\",\"three\":[{\"a\":1 \"b\":2}],\"one\":true}"));
+        assertEquals("x", soi.getStructFieldData(row, soi.getStructFieldRef("four")));
+        assertEquals(Boolean.TRUE, soi.getStructFieldData(row, soi.getStructFieldRef("one")));
+        assertEquals(3, row.length());
+
+        try {
+            soi.getStructFieldData(row, soi.getStructFieldRef("three"));
+            fail("Expected the broken value to be reported");
+        } catch (LazyJSONObject.MalformedJSONException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testMalformed() throws Exception {
+        JsonSerDe lazy = serde(table(), true);
+
+        // the keys are scanned in deserialize(), so the whole row is malformed
+        for (String row : new String[] { "{\"four\" \"x\"}", "{\"four\":\"x\",\"four\":\"y\"}", "{\"four\":\"x\"" }) {
+            try {
+                lazy.deserialize(new Text(row));
+                fail("Expected a SerDeException for " + row);
+            } catch (SerDeException ex) {
+                // expected
+            }
+        }
+
+        Properties tbl = table();
+        tbl.setProperty(JsonSerDe.PROP_IGNORE_MALFORMED_JSON, "true");
+        lazy = serde(tbl, true);
+        assertSame(JSONObject.EMPTY, lazy.deserialize(new Text("{\"four\" \"x\"}")));
+    }
+
+    @Test
+    public void testMalformedValueCounted() throws Exception {
+        Properties tbl = table();
+        tbl.setProperty(JsonSerDe.PROP_IGNORE_MALFORMED_JSON, "true");
+        tbl.setProperty(JsonSerDe.PROP_MALFORMED_DEAD_LETTER_DIR, folder.getRoot().getAbsolutePath());
+        JsonSerDe lazy = serde(tbl, true);
+        StructObjectInspector soi = (StructObjectInspector) lazy.getObjectInspector();
+        long malformed = JsonSerDeMetrics.global().get(JsonSerDeMetrics.Counter.MALFORMED_ROWS);
+
+        // both values only turn out to be broken when they're parsed
+        Object row = lazy.deserialize(new Text("{\"four\":\"x\",\"three\":[{\"a\":1 \"b\":2}],\"two\":{]}"));
+        assertEquals("x", soi.getStructFieldData(row, soi.getStructFieldRef("four")));
+        assertNull(soi.getStructFieldData(row, soi.getStructFieldRef("three")));
+        assertNull(soi.getStructFieldData(row, soi.getStructFieldRef("two")));
+
+        // once per row
+        assertEquals(malformed + 1, JsonSerDeMetrics.global().get(JsonSerDeMetrics.Counter.MALFORMED_ROWS));
+        assertEquals(1, lazy.malformedRows.getDeadLetters().getWritten());
+    }
+
+    @Test
+    public void testUnmappedAndPrefix() throws Exception {
+        Properties tbl = TestTables.table("one,others,pfx", "boolean,map<string,string>,map<string,string>");
+        tbl.setProperty(JsonSerDe.PROP_UNMAPPED_ATTR_KEY, "others");
+        tbl.setProperty(JsonSerDe.PROP_PREFIX_MAPPING_PREFIX + "pfx", "p_");
+        JsonSerDe lazy = serde(tbl, true);
+        StructObjectInspector soi = (StructObjectInspector) lazy.getObjectInspector();
+
+        Object row = lazy.deserialize(new Text("{\"one\":true,\"a\":\"1\",\"p_b\":\"2\"}"));
+        StructField others = soi.getStructFieldRef("others");
+        StructField pfx = soi.getStructFieldRef("pfx");
+
+        Map<?, ?> m = ((MapObjectInspector) others.getFieldObjectInspector())
+                .getMap(soi.getStructFieldData(row, others));
+        assertEquals(1, m.size());
+        assertTrue(m.containsKey("a"));
+
+        m = ((MapObjectInspector) pfx.getFieldObjectInspector())
+                .getMap(soi.getStructFieldData(row, pfx));
+        assertEquals(1, m.size());
+        assertTrue(m.containsKey("p_b"));
+
+        List<Object> values = soi.getStructFieldsDataAsList(row);
+        assertTrue(values.get(1) instanceof JSONObject);
+        assertTrue(values.get(2) instanceof JSONObject);
+    }
+
+    @Test
+    public void testDotsInKeys() throws Exception {
+        Properties tbl = TestTables.table("my_field", "string");
+        tbl.setProperty(JsonSerDe.PROP_DOTS_IN_KEYS, "true");
+        JsonSerDe lazy = serde(tbl, true);
+        StructObjectInspector soi = (StructObjectInspector) lazy.getObjectInspector();
+
+        Object row = lazy.deserialize(new Text("{\"my.field\":\"value\"}"));
+        assertEquals("value", soi.getStructFieldData(row, soi.getStructFieldRef("my_field")));
+    }
+}
@@ -0,0 +1,165 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+package org.openx.data.jsonserde;
+
+import org.apache.hadoop.hive.ql.exec.MapredContext;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.IntObjectInspector;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
+import org.junit.Test;
+import org.openx.data.jsonserde.JsonSerDeMetrics.Counter;
+import org.openx.data.jsonserde.objectinspector.primitive.ParsePrimitiveUtils;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks what reading rows counts, in the JVM and in the task's counters.
+ */
+public class JsonSerDeMetricsTest {
+
+    static JsonSerDe serde() throws Exception {
+        return TestTables.serde(TestTables.table("a,b", "int,string",
+                JsonSerDe.PROP_IGNORE_MALFORMED_JSON, "true"));
+    }
+
+    static int readA(JsonSerDe serde, String row) throws Exception {
+        StructObjectInspector soi = (StructObjectInspector) serde.getObjectInspector();
+        StructField a = soi.getStructFieldRef("a");
+        return ((IntObjectInspector) a.getFieldObjectInspector())
+                .get(soi.getStructFieldData(serde.deserialize(new Text(row)), a));
+    }
+
+    static class CountingReporter implements Reporter {
+        final Counters counters = new Counters();
+
+        public Counters.Counter getCounter(String group, String name) {
+            return counters.findCounter(group, name);
+        }
+
+        public Counters.Counter getCounter(Enum<?> name) {
+            return counters.findCounter(name);
+        }
+
+        public void incrCounter(Enum<?> key, long amount) {
+            counters.incrCounter(key, amount);
+        }
+
+        public void incrCounter(String group, String counter, long amount) {
+            counters.incrCounter(group, counter, amount);
+        }
+
+        public void setStatus(String status) {
+        }
+
+        public void progress() {
+        }
+
+        public float getProgress() {
+            return 0;
+        }
+
+        public InputSplit getInputSplit() {
+            throw new UnsupportedOperationException();
+        }
+
+        long get(Counter counter) {
+            return counters.findCounter(JsonSerDeMetrics.GROUP, counter.name()).getValue();
+        }
+    }
+
+    @Test
+    public void testGlobalCounters() throws Exception {
+        JsonSerDeMetrics global = JsonSerDeMetrics.global();
+        long rows = global.get(Counter.ROWS);
+        long bytes = global.get(Counter.INPUT_BYTES);
+        long malformed = global.get(Counter.MALFORMED_ROWS);
+        // left in this thread by other tests
+        ParsePrimitiveUtils.takeCoercionFailures();
+        long coercion = global.get(Counter.COERCION_FAILURES);
+        long small = global.get(Counter.ROW_SIZE_LT_256B);
+        long sampled = global.get(Counter.PARSE_SAMPLED_ROWS);
+
+        JsonSerDe serde = serde();
+        assertEquals(1, readA(serde, "{\"a\":1}"));
+        assertEquals(0, readA(serde, "{\"a\":\"one\"}"));
+        serde.deserialize(new Text("{\"a\":"));
+        // conversion failures are taken from the inspectors with the rest
+        // of the task's counts
+        serde.metrics.flush();
+
+        assertEquals(rows + 3, global.get(Counter.ROWS));
+        assertEquals(bytes + 7 + 11 + 5, global.get(Counter.INPUT_BYTES));
+        assertEquals(malformed + 1, global.get(Counter.MALFORMED_ROWS));
+        assertEquals(coercion + 1, global.get(Counter.COERCION_FAILURES));
+        assertEquals(small + 3, global.get(Counter.ROW_SIZE_LT_256B));
+        // the first row of a SerDe is timed
+        assertEquals(sampled + 1, global.get(Counter.PARSE_SAMPLED_ROWS));
+    }
+
+    @Test
+    public void testTaskCounters() throws Exception {
+        ParsePrimitiveUtils.takeCoercionFailures();
+        CountingReporter reporter = new CountingReporter();
+        MapredContext.init(true, new JobConf()).setReporter(reporter);
+        int flushed = JsonSerDeMetrics.RowMetrics.FLUSH_ROWS;
+        StringBuilder big = new StringBuilder("{\"b\":\"");
+        for (int i = 0; i < 2000; i++) {
+            big.append('x');
+        }
+        big.append("\"}");
+        try {
+            JsonSerDe serde = serde();
+            for (int i = 0; i < flushed; i++) {
+                serde.deserialize(new Text(big.toString()));
+            }
+            assertEquals(0, reporter.get(Counter.ROWS));
+            readA(serde, "{\"a\":\"one\"}");
+            assertEquals(flushed, reporter.get(Counter.ROWS));
+            serde.deserialize(new Text("[1,"));
+        } finally {
+            // the task ends, with the last rows still to be counted
+            MapredContext.close();
+        }
+
+        int rows = flushed + 2;
+        assertEquals(rows, reporter.get(Counter.ROWS));
+        assertEquals(rows - 2, reporter.get(Counter.ROW_SIZE_LT_4KB));
+        assertEquals(2, reporter.get(Counter.ROW_SIZE_LT_256B));
+        // rows 0, 64, 128 and so on
+        assertEquals((rows - 1) / JsonSerDeMetrics.PARSE_SAMPLE_RATE + 1, reporter.get(Counter.PARSE_SAMPLED_ROWS));
+        assertEquals(1, reporter.get(Counter.MALFORMED_ROWS));
+        assertEquals(1, reporter.get(Counter.COERCION_FAILURES));
+        assertEquals((rows - 2) * big.length() + 11 + 3, reporter.get(Counter.INPUT_BYTES));
+    }
+
+    @Test
+    public void testRawDataSizeIsTheRow() throws Exception {
+        JsonSerDe serde = serde();
+        Text row = new Text("{\"b\":\"a rather long row, longer than the next one\"}");
+        row.set("{\"a\":1}");
+        serde.deserialize(row);
+        assertEquals(7, serde.getSerDeStats().getRawDataSize());
+    }
+
+    @Test
+    public void testSizeBuckets() {
+        assertEquals(Counter.ROW_SIZE_LT_256B, JsonSerDeMetrics.sizeBucket(255));
+        assertEquals(Counter.ROW_SIZE_LT_1KB, JsonSerDeMetrics.sizeBucket(256));
+        assertEquals(Counter.ROW_SIZE_LT_256KB, JsonSerDeMetrics.sizeBucket(262143));
+        assertEquals(Counter.ROW_SIZE_GE_256KB, JsonSerDeMetrics.sizeBucket(262144));
+    }
+}
@@ -0,0 +1,161 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+package org.openx.data.jsonserde;
+
+import java.util.Properties;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+import org.openx.data.jsonserde.objectinspector.JsonObjectInspectorFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that rows parsed by position with json.positional read the same
+ * as the JSONObjects parsed otherwise.
+ */
+public class JsonSerDePositionalTest {
+
+    static final String[] ROWS = {
+        "{\"one\":true,\"Two\":19.5,\"three\":[\"a\",\"b\"],\"quatre\":\"x\",\"timestamp\":123,"
+                + "\"nested\":{\"a\":1,\"b\":{\"k\":\"v\"}},\"other\":{\"deep\":[1,{\"x\":null}]}}",
+        "{\"one\":null,\"two\":1}",
+        "{}",
+        " { \"ONE\" : false ; \"ts\":7, \"four\":\"y\" } ",
+        "{\"one\":true,\"x\":1,\"x\":2}",
+        "{\"four\":\"y\",\"quatre\":\"z\"}",
+        "{\"one\":true,\"one\":false}",
+        "{\"one\":true",
+        "{\"one\":}",
+        "{\"x\":[1,2}",
+        "[true,1.5]",
+        "   ",
+    };
+
+    static Properties table(boolean positional) {
+        return TestTables.table("one,two,three,four,ts,nested",
+                "boolean,float,array<string>,string,bigint,struct<a:int,b:map<string,string>>",
+                "mapping.ts", "timestamp",
+                JsonSerDe.CHANGE_KEY_TO_PREFIX + "four", "quatre",
+                JsonSerDe.PROP_POSITIONAL, Boolean.toString(positional));
+    }
+
+    static Object read(JsonSerDe serde, String row) throws SerDeException {
+        Object data;
+        try {
+            data = serde.deserialize(new Text(row));
+        } catch (SerDeException ex) {
+            return "malformed";
+        }
+        return ObjectInspectorUtils.copyToStandardObject(data, serde.getObjectInspector(),
+                ObjectInspectorCopyOption.JAVA);
+    }
+
+    static void checkSame(Configuration conf, Properties extra) throws Exception {
+        for (String tokenizer : new String[] { JsonSerDe.TOKENIZER_READER, JsonSerDe.TOKENIZER_BYTES, JsonSerDe.TOKENIZER_STRUCTURAL }) {
+            Properties tbl = table(false);
+            tbl.putAll(extra);
+            tbl.setProperty(JsonSerDe.PROP_TOKENIZER, tokenizer);
+            JsonSerDe reference = TestTables.serde(conf, tbl);
+
+            tbl.setProperty(JsonSerDe.PROP_POSITIONAL, "true");
+            JsonSerDe positional = TestTables.serde(conf, tbl);
+            assertNotNull(positional.rowPlan);
+
+            for (String row : ROWS) {
+                assertEquals(tokenizer + " " + row, read(reference, row), read(positional, row));
+            }
+        }
+    }
+
+    @Test
+    public void testSameValues() throws Exception {
+        checkSame(null, new Properties());
+    }
+
+    @Test
+    public void testSameValuesWithDuplicates() throws Exception {
+        Properties extra = new Properties();
+        extra.setProperty(JsonSerDe.PROP_ALLOW_DUPLICATE_KEYS, "true");
+        checkSame(null, extra);
+    }
+
+    @Test
+    public void testSameValuesProjected() throws Exception {
+        checkSame(JsonSerDeProjectionTest.projection("0,3,5"), new Properties());
+    }
+
+    @Test
+    public void testPositionalRow() throws Exception {
+        JsonSerDe serde = TestTables.serde(null, table(true));
+        Object[] row = (Object[]) serde.deserialize(new Text(ROWS[0]));
+        assertEquals(6, row.length);
+        assertEquals("x", row[3]);
+    }
+
+    @Test
+    public void testKeyNotAscii() throws Exception {
+        for (String tokenizer : new String[] { JsonSerDe.TOKENIZER_READER, JsonSerDe.TOKENIZER_BYTES, JsonSerDe.TOKENIZER_STRUCTURAL }) {
+            for (String duplicates : new String[] { "false", "true" }) {
+                Properties tbl = table(true);
+                tbl.setProperty(JsonSerDe.PROP_TOKENIZER, tokenizer);
+                tbl.setProperty(JsonSerDe.PROP_ALLOW_DUPLICATE_KEYS, duplicates);
+                tbl.setProperty("mapping.ts", "\u00e9poque");
+                // with a key replacement every key gets built anyway
+                tbl.remove(JsonSerDe.CHANGE_KEY_TO_PREFIX + "four");
+                JsonSerDe serde = TestTables.serde(null, tbl);
+                assertNotNull(serde.rowPlan);
+
+                Object[] row = (Object[]) serde.deserialize(new Text("{\"one\":true,\"\u00c9poque\":123}"));
+                assertEquals(tokenizer, "123", String.valueOf(row[4]));
+            }
+        }
+    }
+
+    @Test
+    public void testPlanShared() throws Exception {
+        JsonSerDe first = TestTables.serde(null, table(true));
+        JsonSerDe second = TestTables.serde(null, table(true));
+        assertSame(first.rowPlan, second.rowPlan);
+
+        Properties tbl = table(true);
+        tbl.setProperty("mapping.four", "cuatro");
+        JsonSerDe other = TestTables.serde(null, tbl);
+        assertNotSame(first.rowPlan, other.rowPlan);
+    }
+
+    @Test
+    public void testPlansCachedPastManySchemas() throws Exception {
+        for (int i = 0; i < 300; i++) {
+            Properties tbl = table(true);
+            tbl.setProperty("mapping.four", "four" + i);
+            JsonSerDe first = TestTables.serde(null, tbl);
+            JsonSerDe second = TestTables.serde(null, tbl);
+            assertSame(first.rowPlan, second.rowPlan);
+            assertSame(first.rowPlan,
+                    JsonObjectInspectorFactory.getCache().get(first.rowPlan.signature, RowPlan.class));
+        }
+    }
+
+    @Test
+    public void testNotWithUnmappedColumn() throws Exception {
+        Properties tbl = table(true);
+        tbl.putAll(TestTables.table("one,two,three,four,ts,other",
+                "boolean,float,array<string>,string,bigint,map<string,string>"));
+        tbl.setProperty(JsonSerDe.PROP_UNMAPPED_ATTR_KEY, "other");
+        JsonSerDe serde = TestTables.serde(null, tbl);
+        assertNull(serde.rowPlan);
+    }
+}
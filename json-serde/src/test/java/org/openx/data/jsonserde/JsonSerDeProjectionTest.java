@@ -0,0 +1,193 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+package org.openx.data.jsonserde;
+
+import java.util.Properties;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.serde.Constants;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+import org.openx.data.jsonserde.json.JSONObject;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that only the projected columns get materialized.
+ */
+public class JsonSerDeProjectionTest {
+
+    static final String ROW = "{\"one\":true,"
+            + "\"skip1\":{\"a\":\"} ] { [ \\\" '\",\"b\":[1,{\"c\":null}]},"
+            + "\"Two\":19.5,"
+            + "\"skip2\":[\"x\", 'y\\'', {}, [[]]],"
+            + "\"skip3\": unquoted value ,"
+            + "\"skip4\":\"caffè 中\","
+            + "\"three\":[\"red\",\"yellow\"],"
+            + "\"four\":\"poop\"}";
+
+    static Properties table() {
+        return TestTables.table("one,two,three,four", "boolean,float,array<string>,string");
+    }
+
+    static Configuration projection(String ids) {
+        Configuration conf = new Configuration(false);
+        conf.set(JsonSerDe.READ_COLUMN_IDS, ids);
+        conf.set(JsonSerDe.READ_ALL_COLUMNS, "false");
+        return conf;
+    }
+
+    @Test
+    public void testSkipsUnprojectedKeys() throws Exception {
+        for (String tokenizer : new String[] { JsonSerDe.TOKENIZER_READER, JsonSerDe.TOKENIZER_BYTES, JsonSerDe.TOKENIZER_STRUCTURAL }) {
+            Properties tbl = table();
+            tbl.setProperty(JsonSerDe.PROP_TOKENIZER, tokenizer);
+            JsonSerDe full = TestTables.serde(null, tbl);
+            JsonSerDe projected = TestTables.serde(projection("1,3"), tbl);
+
+            JSONObject all = (JSONObject) full.deserialize(new Text(ROW));
+            JSONObject some = (JSONObject) projected.deserialize(new Text(ROW));
+
+            assertEquals(8, all.length());
+            assertEquals(2, some.length());
+            assertTrue(some.has("two"));
+            assertTrue(some.has("four"));
+
+            StructObjectInspector soi = (StructObjectInspector) projected.getObjectInspector();
+            assertEquals("19.5", soi.getStructFieldData(some, soi.getStructFieldRef("two")).toString());
+            assertEquals("poop", soi.getStructFieldData(some, soi.getStructFieldRef("four")));
+            assertNull(soi.getStructFieldData(some, soi.getStructFieldRef("one")));
+        }
+    }
+
+    @Test
+    public void testNoProjection() throws Exception {
+        assertNull(TestTables.serde(null, table()).projection);
+        assertNull(TestTables.serde(new Configuration(false), table()).projection);
+
+        Configuration conf = projection("0");
+        conf.set(JsonSerDe.READ_ALL_COLUMNS, "true");
+        assertNull(TestTables.serde(conf, table()).projection);
+
+        // Hive reads all columns unless the flag says otherwise
+        conf = new Configuration(false);
+        conf.set(JsonSerDe.READ_COLUMN_IDS, "0");
+        assertNull(TestTables.serde(conf, table()).projection);
+    }
+
+    @Test
+    public void testColumnNames() throws Exception {
+        Configuration conf = new Configuration(false);
+        conf.set(JsonSerDe.READ_COLUMN_NAMES, "three");
+        conf.set(JsonSerDe.READ_ALL_COLUMNS, "false");
+        JsonSerDe serde = TestTables.serde(conf, table());
+
+        JSONObject some = (JSONObject) serde.deserialize(new Text(ROW));
+        assertEquals(1, some.length());
+        assertEquals(2, some.getJSONArray("three").length());
+    }
+
+    @Test
+    public void testMappedColumn() throws Exception {
+        Properties tbl = table();
+        tbl.setProperty("mapping.four", "skip4");
+        JsonSerDe serde = TestTables.serde(projection("3"), tbl);
+
+        JSONObject some = (JSONObject) serde.deserialize(new Text(ROW));
+        StructObjectInspector soi = (StructObjectInspector) serde.getObjectInspector();
+        assertEquals("caffè 中", soi.getStructFieldData(some, soi.getStructFieldRef("four")));
+    }
+
+    @Test
+    public void testMappedColumnNotAscii() throws Exception {
+        for (String tokenizer : new String[] { JsonSerDe.TOKENIZER_READER, JsonSerDe.TOKENIZER_BYTES, JsonSerDe.TOKENIZER_STRUCTURAL }) {
+            for (String duplicates : new String[] { "false", "true" }) {
+                Properties tbl = table();
+                tbl.setProperty(JsonSerDe.PROP_TOKENIZER, tokenizer);
+                tbl.setProperty(JsonSerDe.PROP_ALLOW_DUPLICATE_KEYS, duplicates);
+                tbl.setProperty("mapping.four", "Caff\u00e8");
+                JsonSerDe serde = TestTables.serde(projection("3"), tbl);
+
+                Object some = serde.deserialize(new Text("{\"one\":true,\"CAFF\u00c8\":\"x\"}"));
+                StructObjectInspector soi = (StructObjectInspector) serde.getObjectInspector();
+                assertEquals(tokenizer, "x", soi.getStructFieldData(some, soi.getStructFieldRef("four")));
+            }
+        }
+    }
+
+    @Test
+    public void testDotsInKeys() throws Exception {
+        Properties tbl = table();
+        tbl.setProperty(Constants.LIST_COLUMNS, "one,two,three,my_field");
+        tbl.setProperty(JsonSerDe.PROP_DOTS_IN_KEYS, "true");
+        JsonSerDe serde = TestTables.serde(projection("3"), tbl);
+
+        JSONObject some = (JSONObject) serde.deserialize(new Text("{\"one\":true,\"my.field\":\"value\"}"));
+        StructObjectInspector soi = (StructObjectInspector) serde.getObjectInspector();
+        assertEquals(1, some.length());
+        assertEquals("value", soi.getStructFieldData(some, soi.getStructFieldRef("my_field")));
+    }
+
+    @Test
+    public void testUnmappedColumnReadsEverything() throws Exception {
+        Properties tbl = TestTables.table("one,two,three,other", "boolean,float,array<string>,map<string,string>");
+        tbl.setProperty(JsonSerDe.PROP_UNMAPPED_ATTR_KEY, "other");
+
+        assertNull(TestTables.serde(projection("0,3"), tbl).projection);
+        assertNotNull(TestTables.serde(projection("0"), tbl).projection);
+    }
+
+    @Test
+    public void testPrefixColumnReadsEverything() throws Exception {
+        Properties tbl = TestTables.table("one,two,three,skips", "boolean,float,array<string>,map<string,string>");
+        tbl.setProperty(JsonSerDe.PROP_PREFIX_MAPPING_PREFIX + "skips", "skip");
+
+        assertNull(TestTables.serde(projection("3"), tbl).projection);
+    }
+
+    @Test
+    public void testDuplicateSkippedKey() throws Exception {
+        for (String tokenizer : new String[] { JsonSerDe.TOKENIZER_READER, JsonSerDe.TOKENIZER_BYTES, JsonSerDe.TOKENIZER_STRUCTURAL }) {
+            Properties tbl = table();
+            tbl.setProperty(JsonSerDe.PROP_TOKENIZER, tokenizer);
+            JsonSerDe serde = TestTables.serde(projection("0"), tbl);
+            try {
+                serde.deserialize(new Text("{\"one\":true,\"x\":1,\"x\":[2]}"));
+                fail("Expected a SerDeException for the duplicate key");
+            } catch (SerDeException ex) {
+                // expected
+            }
+
+            tbl.setProperty(JsonSerDe.PROP_ALLOW_DUPLICATE_KEYS, "true");
+            serde = TestTables.serde(projection("0"), tbl);
+            assertEquals(1, ((JSONObject) serde.deserialize(new Text("{\"one\":true,\"x\":1,\"x\":[2]}"))).length());
+        }
+    }
+
+    @Test
+    public void testUnterminatedSkippedValue() throws Exception {
+        for (String tokenizer : new String[] { JsonSerDe.TOKENIZER_READER, JsonSerDe.TOKENIZER_BYTES, JsonSerDe.TOKENIZER_STRUCTURAL }) {
+            Properties tbl = table();
+            tbl.setProperty(JsonSerDe.PROP_TOKENIZER, tokenizer);
+            JsonSerDe serde = TestTables.serde(projection("0"), tbl);
+            for (String row : new String[] { "{\"one\":true,\"x\":{\"a\":[1,2}", "{\"x\":\"abc}", "{\"x\":,\"one\":true}" }) {
+                try {
+                    serde.deserialize(new Text(row));
+                    fail("Expected a SerDeException for " + row);
+                } catch (SerDeException ex) {
+                    // expected
+                }
+            }
+        }
+    }
+}
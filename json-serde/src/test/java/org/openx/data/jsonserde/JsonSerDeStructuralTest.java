@@ -0,0 +1,178 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+package org.openx.data.jsonserde;
+
+import java.util.Properties;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+import org.openx.data.jsonserde.json.JSONObject;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that json.tokenizer=structural builds the same rows as the
+ * byte tokenizer, both on the rows it indexes and on the ones it hands
+ * back to the tokenizer.
+ */
+public class JsonSerDeStructuralTest {
+
+    static final String[] ROWS = {
+        // longer than a 64 byte block, escapes and quotes across block boundaries
+        "{\"four\":\"" + pad(55) + "\\\\\\\"x\",\"three\":[\"" + pad(60) + "\\\\\",\"\\\"\"],\"one\":true}",
+        "{\"four\":\"" + pad(54) + "\\\\\\\\\",\"two\":\"" + pad(63) + "\\u00e8\",\"x\":{\"y\":[1,2,{}]}}",
+        "{\"nested\":{\"Deep\":{\"deeper\":[[],[{\"A\":null}],\"} ] { [ ,:\"]}},\"two\":  -1.5E3  ,\"one\":false}",
+        "[true,19.5, [\"red\",\"yellow\",\"orange\"],\"poop\" , {\"four\":\"x\"}]",
+        "{\"four\":\"caff\u00e8 \u4e2d\u6587 \ud83d\ude00 end\",\"two\":1e400}",
+        "{\"three\":[1,,2,],\"four\":unquoted value with spaces,}",
+        "{}",
+        "[]",
+        "{ }",
+    };
+
+    // lenient syntax the second stage leaves to the tokenizer
+    static final String[] LENIENT = {
+        "{ one:true, two:0x1f, four:unquoted value }",
+        "{'four':'single \\' quoted', \"two\"=>3; \"one\"=true,}",
+        "{\"three\":[\"a\";\"b\"],\"four\":\"x\"}",
+        "{\"one\":true}\u0000garbage",
+    };
+
+    static final String[] MALFORMED = {
+        "{\"one\":true,\"four\" \"poop\"}",
+        "{\"four\":\"unterminated}",
+        "{\"four\":}",
+        "[1,2",
+        "{\"one\":true,\"one\":false}",
+        "{\"four\":{\"a\":1,\"a\":2}}",
+    };
+
+    // raw control characters inside strings the parser only skips over
+    static final String[] CONTROL = {
+        "{\"one\":true,\"four\":\"a\nb\"}",
+        "{\"one\":true,\"four\":\"a\rb\"}",
+        "{\"one\":true,\"four\":\"a\u0000b\"}",
+        "{\"one\":true,\"skip\":{\"a\":[\"x\ny\"]}}",
+        "{\"one\":true,\"skip\":[\"x\ry\"]}",
+        "{\"one\":true,\"skip\":{\"a\nb\":1}}",
+        "{\"one\":true,\"four\":\"a\\nb\",\"skip\":[\"\\r\"]}",
+    };
+
+    static String pad(int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        return sb.toString();
+    }
+
+    static void assertSameRows(String[] rows) throws Exception {
+        JsonSerDe bytes = JsonSerDeByteTokenizerTest.serde(JsonSerDe.TOKENIZER_BYTES, false);
+        JsonSerDe structural = JsonSerDeByteTokenizerTest.serde(JsonSerDe.TOKENIZER_STRUCTURAL, false);
+
+        for (String row : rows) {
+            Object expected = bytes.deserialize(new Text(row));
+            Object actual = structural.deserialize(new Text(row));
+            assertNotNull(row, actual);
+            assertEquals(row, expected.getClass(), actual.getClass());
+            assertEquals(row, expected.toString(), actual.toString());
+        }
+    }
+
+    @Test
+    public void testSameModelAsBytes() throws Exception {
+        assertSameRows(ROWS);
+        assertSameRows(JsonSerDeByteTokenizerTest.ROWS);
+
+        JsonSerDe structural = JsonSerDeByteTokenizerTest.serde(JsonSerDe.TOKENIZER_STRUCTURAL, false);
+        for (String row : ROWS) {
+            structural.deserialize(new Text(row));
+        }
+        assertEquals(0, structural.structuralParser.getFallbacks());
+    }
+
+    @Test
+    public void testFallsBackOnLenientSyntax() throws Exception {
+        assertSameRows(LENIENT);
+
+        JsonSerDe structural = JsonSerDeByteTokenizerTest.serde(JsonSerDe.TOKENIZER_STRUCTURAL, false);
+        for (String row : LENIENT) {
+            structural.deserialize(new Text(row));
+        }
+        assertEquals(LENIENT.length, structural.structuralParser.getFallbacks());
+    }
+
+    @Test
+    public void testMalformed() throws Exception {
+        JsonSerDe structural = JsonSerDeByteTokenizerTest.serde(JsonSerDe.TOKENIZER_STRUCTURAL, false);
+        for (String row : MALFORMED) {
+            try {
+                structural.deserialize(new Text(row));
+                fail("Expected a SerDeException for " + row);
+            } catch (SerDeException ex) {
+                // expected
+            }
+        }
+
+        JsonSerDe ignoring = JsonSerDeByteTokenizerTest.serde(JsonSerDe.TOKENIZER_STRUCTURAL, true);
+        for (String row : MALFORMED) {
+            JSONObject result = (JSONObject) ignoring.deserialize(new Text(row));
+            assertEquals(0, result.length());
+        }
+    }
+
+    static String outcome(JsonSerDe serde, String row) {
+        try {
+            return String.valueOf(serde.deserialize(new Text(row)));
+        } catch (SerDeException ex) {
+            return "malformed";
+        }
+    }
+
+    @Test
+    public void testControlCharactersSameForAllTokenizers() throws Exception {
+        Configuration[] confs = { null, JsonSerDeProjectionTest.projection("0") };
+        for (Configuration conf : confs) {
+            for (String duplicates : new String[] { "false", "true" }) {
+                JsonSerDe[] serdes = new JsonSerDe[3];
+                String[] tokenizers = { JsonSerDe.TOKENIZER_READER, JsonSerDe.TOKENIZER_BYTES, JsonSerDe.TOKENIZER_STRUCTURAL };
+                for (int i = 0; i < tokenizers.length; i++) {
+                    Properties tbl = JsonSerDeProjectionTest.table();
+                    tbl.setProperty(JsonSerDe.PROP_TOKENIZER, tokenizers[i]);
+                    tbl.setProperty(JsonSerDe.PROP_ALLOW_DUPLICATE_KEYS, duplicates);
+                    serdes[i] = TestTables.serde(conf, tbl);
+                }
+                for (int r = 0; r < CONTROL.length; r++) {
+                    String row = CONTROL[r];
+                    String expected = outcome(serdes[0], row);
+                    assertEquals(row, r < CONTROL.length - 1, "malformed".equals(expected));
+                    for (int i = 1; i < serdes.length; i++) {
+                        assertEquals(tokenizers[i] + " " + row, expected, outcome(serdes[i], row));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testReusedTextBuffer() throws Exception {
+        JsonSerDe structural = JsonSerDeByteTokenizerTest.serde(JsonSerDe.TOKENIZER_STRUCTURAL, false);
+
+        Text text = new Text(ROWS[0]);
+        text.set("{\"four\":\"short\"}");
+        JSONObject result = (JSONObject) structural.deserialize(text);
+        assertEquals(1, result.length());
+        assertEquals("short", result.get("four"));
+        assertNull(structural.deserialize(new Text("   ")));
+    }
+}
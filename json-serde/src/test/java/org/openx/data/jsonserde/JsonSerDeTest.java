@@ -23,6 +23,7 @@ import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import java.util.List;
 import java.util.LinkedList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import org.openx.data.jsonserde.json.JSONArray;
 import org.apache.hadoop.io.Text;
 import org.openx.data.jsonserde.json.JSONException;
@@ -209,6 +210,29 @@ public class JsonSerDeTest {
 	
     }
     
+    @Test
+    public void testListView() throws Exception {
+        JsonSerDe instance = new JsonSerDe();
+        initialize(instance);
+
+        Writable w = new Text("{\"three\":[\"red\",null,\"orange\"]}");
+        StructObjectInspector soi = (StructObjectInspector) instance.getObjectInspector();
+        JSONObject result = (JSONObject) instance.deserialize(w);
+        Object res = soi.getStructFieldData(result, soi.getStructFieldRef("three"));
+        ListObjectInspector loi = (ListObjectInspector) soi.getStructFieldRef("three").getFieldObjectInspector();
+
+        List all = loi.getList(res);
+        assertEquals(3, all.size());
+        assertNull(all.get(1));
+        assertEquals(new ArrayList(Arrays.asList("red", null, "orange")), all);
+        // built once per array
+        assertSame(all, loi.getList(res));
+
+        // out of range elements read as null
+        assertNull(loi.getListElement(res, 3));
+        assertNull(loi.getListElement(res, -1));
+    }
+
     @Test
     public void testDeserialize2Initializations() throws Exception {
         JsonSerDe instance = new JsonSerDe();
@@ -0,0 +1,95 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+package org.openx.data.jsonserde;
+
+import java.util.List;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+import org.openx.data.jsonserde.json.JSONObject;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that numbers decoded by the tokenizers read the same as the
+ * ones parsed from their text by the object inspectors.
+ */
+public class JsonSerDeTypedValueTest {
+
+    static final String COLUMNS = "i,l,s,b,f,d";
+    static final String TYPES = "int,bigint,smallint,tinyint,float,double";
+
+    // value, then the expected int, bigint, smallint, tinyint, float and double
+    static final Object[][] VALUES = {
+        { "42", 42, 42L, (short) 42, (byte) 42, 42f, 42d },
+        { "-7", -7, -7L, (short) -7, (byte) -7, -7f, -7d },
+        { "007", 7, 7L, (short) 7, (byte) 7, 7f, 7d },
+        { "-0", 0, 0L, (short) 0, (byte) 0, -0f, -0d },
+        { "3.9", 3, 3L, (short) 3, (byte) 3, 3.9f, 3.9d },
+        { "1e3", 0, 0L, (short) 0, null, 1000f, 1000d },
+        { "0x1f", 31, 31L, (short) 31, (byte) 31, 0f, 0d },
+        { "123456789012", 0, 123456789012L, (short) 0, null, 123456789012f, 123456789012d },
+        { "123456789012345678", 0, 123456789012345678L, (short) 0, null,
+                123456789012345678f, 123456789012345678d },
+        { "1234567890123456789", 0, 1234567890123456789L, (short) 0, null,
+                1234567890123456789f, 1234567890123456789d },
+        { "99999999999999999999", 0, 0L, (short) 0, null, 1e20f, 1e20d },
+        { "\"12\"", 12, 12L, (short) 12, (byte) 12, 12f, 12d },
+    };
+
+    static JsonSerDe serde(String tokenizer) throws Exception {
+        return TestTables.serde(TestTables.table(COLUMNS, TYPES, JsonSerDe.PROP_TOKENIZER, tokenizer));
+    }
+
+    @Test
+    public void testSameValues() throws Exception {
+        for (String tokenizer : new String[] { JsonSerDe.TOKENIZER_READER, JsonSerDe.TOKENIZER_BYTES }) {
+            JsonSerDe serde = serde(tokenizer);
+            StructObjectInspector soi = (StructObjectInspector) serde.getObjectInspector();
+
+            for (Object[] expected : VALUES) {
+                String v = (String) expected[0];
+                String row = "{\"i\":" + v + ",\"l\":" + v + ",\"s\":" + v
+                        + ",\"f\":" + v + ",\"d\":" + v
+                        + (expected[4] != null ? ",\"b\":" + v : "") + "}";
+                Object data = serde.deserialize(new Text(row));
+                List<? extends StructField> fields = soi.getAllStructFieldRefs();
+                for (int i = 0; i < 6; i++) {
+                    if (expected[i + 1] != null) {
+                        PrimitiveObjectInspector poi = (PrimitiveObjectInspector) fields.get(i).getFieldObjectInspector();
+                        assertEquals(tokenizer + " " + row + " " + i, expected[i + 1],
+                                poi.getPrimitiveJavaObject(soi.getStructFieldData(data, fields.get(i))));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDecodedOnDemand() throws Exception {
+        JsonSerDe serde = serde(JsonSerDe.TOKENIZER_BYTES);
+        JSONObject row = (JSONObject) serde.deserialize(new Text("{\"l\":-123,\"d\":1.5,\"i\":-0}"));
+
+        JSONObject.DelayedValue l = (JSONObject.DelayedValue) row.get("l");
+        assertTrue(l.isLong());
+        assertEquals(-123L, l.longValue());
+        assertEquals("-123", l.toString());
+
+        JSONObject.DelayedValue d = (JSONObject.DelayedValue) row.get("d");
+        assertFalse(d.isLong());
+        assertEquals(1.5d, d.doubleValue(), 0);
+
+        assertFalse(((JSONObject.DelayedValue) row.get("i")).isLong());
+    }
+}
@@ -0,0 +1,263 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+package org.openx.data.jsonserde;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import org.apache.hadoop.hive.serde2.objectinspector.StandardUnionObjectInspector.StandardUnion;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.typeinfo.ListTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.MapTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.StructTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that serialize() writes the same bytes as turning the JSONObject
+ * built by serializeField() into a String.
+ */
+public class JsonSerializerTest {
+
+    static final String COLUMNS = "b,t,sm,i,l,f,d,s,dt,a,ad,m,mi,md,st";
+    static final String TYPES = "boolean,tinyint,smallint,int,bigint,float,double,string,date,"
+            + "array<string>,array<double>,map<string,double>,map<int,string>,map<double,boolean>,"
+            + "struct<x:int,y:string,z:array<int>>";
+
+    static final String[] CHARS = {
+        "a", "Z", "0", " ", "\"", "\\", "/", "<", "\n", "\t", "\b", "\f", "\r", "\u0001", "\u001f",
+        "\u007f", "\u0085", "\u00a0", "\u00e9", "\u2028", "\u20ac", "\u4e2d", "\ud83d\ude00", "\ud800", "\udc00",
+    };
+
+    static JsonSerDe serde(Properties tbl) throws Exception {
+        tbl.putAll(TestTables.table(COLUMNS, TYPES));
+        return TestTables.serde(tbl);
+    }
+
+    static StructObjectInspector rowOI() {
+        return (StructObjectInspector) TypeInfoUtils.getStandardJavaObjectInspectorFromTypeInfo(
+                TypeInfoUtils.getTypeInfoFromTypeString("struct<" + fields() + ">"));
+    }
+
+    static String fields() {
+        String[] names = COLUMNS.split(",");
+        List<TypeInfo> types = TypeInfoUtils.getTypeInfosFromTypeString(TYPES);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < names.length; i++) {
+            sb.append(i > 0 ? "," : "").append(names[i]).append(':').append(types.get(i).getTypeName());
+        }
+        return sb.toString();
+    }
+
+    static Object value(TypeInfo type, Random r, boolean nonFinite) {
+        if (r.nextInt(5) == 0) {
+            return null;
+        }
+        switch (type.getCategory()) {
+            case PRIMITIVE:
+                switch (((PrimitiveTypeInfo) type).getPrimitiveCategory()) {
+                    case BOOLEAN:
+                        return r.nextBoolean();
+                    case BYTE:
+                        return (byte) r.nextInt();
+                    case SHORT:
+                        return (short) r.nextInt();
+                    case INT:
+                        return r.nextBoolean() ? r.nextInt(100) : r.nextInt();
+                    case LONG:
+                        return r.nextBoolean() ? Long.MIN_VALUE : r.nextLong();
+                    case FLOAT:
+                        return r.nextBoolean() ? (float) r.nextInt(10) : r.nextFloat() * 1e9f;
+                    case DOUBLE:
+                        if (nonFinite && r.nextInt(4) == 0) {
+                            return r.nextBoolean() ? Double.NaN : Double.NEGATIVE_INFINITY;
+                        }
+                        return r.nextBoolean() ? r.nextInt(10) / 4d : r.nextGaussian() * 1e20;
+                    case STRING:
+                        StringBuilder sb = new StringBuilder();
+                        for (int n = r.nextInt(8); n > 0; n--) {
+                            sb.append(CHARS[r.nextInt(CHARS.length)]);
+                        }
+                        return sb.toString();
+                    case DATE:
+                        return new Date(0);
+                    default:
+                        throw new IllegalArgumentException(type.getTypeName());
+                }
+            case LIST:
+                List<Object> list = new ArrayList<Object>();
+                for (int n = r.nextInt(4); n > 0; n--) {
+                    list.add(value(((ListTypeInfo) type).getListElementTypeInfo(), r, false));
+                }
+                return list;
+            case MAP:
+                Map<Object, Object> map = new HashMap<Object, Object>();
+                for (int n = r.nextInt(5); n > 0; n--) {
+                    Object k = value(((MapTypeInfo) type).getMapKeyTypeInfo(), r, false);
+                    if (k != null) {
+                        map.put(k, value(((MapTypeInfo) type).getMapValueTypeInfo(), r, true));
+                    }
+                }
+                return map;
+            case STRUCT:
+                List<Object> struct = new ArrayList<Object>();
+                for (TypeInfo t : ((StructTypeInfo) type).getAllStructFieldTypeInfos()) {
+                    struct.add(value(t, r, false));
+                }
+                return struct;
+            default:
+                throw new IllegalArgumentException(type.getTypeName());
+        }
+    }
+
+    static void checkSame(JsonSerDe serde, long seed) throws Exception {
+        StructObjectInspector soi = rowOI();
+        TypeInfo rowType = TypeInfoUtils.getTypeInfoFromTypeString("struct<" + fields() + ">");
+        Random r = new Random(seed);
+        for (int i = 0; i < 2000; i++) {
+            Object row = value(rowType, r, false);
+            if (row == null) {
+                continue;
+            }
+            Text expected = new Text(serde.serializeField(row, soi).toString());
+            assertEquals(row.toString(), expected, serde.serialize(row, soi));
+        }
+    }
+
+    @Test
+    public void testSameText() throws Exception {
+        checkSame(serde(new Properties()), 42);
+    }
+
+    @Test
+    public void testSameTextWithMappings() throws Exception {
+        Properties tbl = new Properties();
+        // renames, with some of them onto another field's name
+        tbl.setProperty("mapping.i", "ii");
+        tbl.setProperty("mapping.s", "l");
+        tbl.setProperty("mapping.dt", "b");
+        tbl.setProperty("mapping.y", "x");
+        checkSame(serde(tbl), 7);
+    }
+
+    @Test
+    public void testLargeMaps() throws Exception {
+        JsonSerDe serde = TestTables.serde(TestTables.table("m", "map<string,int>"));
+        StructObjectInspector soi = (StructObjectInspector) TypeInfoUtils.getStandardJavaObjectInspectorFromTypeInfo(
+                TypeInfoUtils.getTypeInfoFromTypeString("struct<m:map<string,int>>"));
+
+        Random r = new Random(11);
+        for (int size : new int[] { 12, 13, 100, 1000, 5000 }) {
+            Map<Object, Object> map = new HashMap<Object, Object>();
+            for (int i = 0; i < size; i++) {
+                map.put(Integer.toString(r.nextInt(), 36), r.nextInt(8) == 0 ? null : i);
+            }
+            List<Object> row = new ArrayList<Object>();
+            row.add(map);
+            assertEquals(serde.serializeField(row, soi).toString(), serde.serialize(row, soi).toString());
+        }
+
+        // "Aa" and "BB" have the same hash, so these all land in one bucket
+        Map<Object, Object> colliding = new HashMap<Object, Object>();
+        for (int i = 0; i < 1 << 5; i++) {
+            StringBuilder key = new StringBuilder();
+            for (int b = 0; b < 5; b++) {
+                key.append((i & (1 << b)) == 0 ? "Aa" : "BB");
+            }
+            colliding.put(key.toString(), i);
+        }
+        List<Object> row = new ArrayList<Object>();
+        row.add(colliding);
+        assertEquals(serde.serializeField(row, soi).toString(), serde.serialize(row, soi).toString());
+    }
+
+    @Test
+    public void testComplexKeys() throws Exception {
+        JsonSerDe serde = TestTables.serde(TestTables.table("ms,ma",
+                "map<struct<x:int,y:string>,int>,map<array<string>,int>"));
+        StructObjectInspector soi = (StructObjectInspector) TypeInfoUtils.getStandardJavaObjectInspectorFromTypeInfo(
+                TypeInfoUtils.getTypeInfoFromTypeString(
+                        "struct<ms:map<struct<x:int,y:string>,int>,ma:map<array<string>,int>>"));
+
+        Map<Object, Object> ms = new HashMap<Object, Object>();
+        ms.put(Arrays.<Object>asList(1, "caf\u00e9 \""), 1);
+        ms.put(Arrays.<Object>asList(null, "b"), 2);
+        Map<Object, Object> ma = new HashMap<Object, Object>();
+        ma.put(Arrays.<Object>asList("x", null), 3);
+        ma.put(new ArrayList<Object>(), 4);
+        List<Object> row = new ArrayList<Object>();
+        row.add(ms);
+        row.add(ma);
+        assertEquals(serde.serializeField(row, soi).toString(), serde.serialize(row, soi).toString());
+    }
+
+    @Test
+    public void testReusedText() throws Exception {
+        JsonSerDe serde = serde(new Properties());
+        List<Object> row = new ArrayList<Object>();
+        for (int i = 0; i < COLUMNS.split(",").length; i++) {
+            row.add(null);
+        }
+        row.set(7, "caf\u00e9");
+        Text t = (Text) serde.serialize(row, rowOI());
+        assertEquals("{\"s\":\"caf\u00e9\"}", t.toString());
+    }
+
+    @Test
+    public void testPlanCompiledOnce() throws Exception {
+        JsonSerDe serde = serde(new Properties());
+        List<Object> row = new ArrayList<Object>();
+        for (int i = 0; i < COLUMNS.split(",").length; i++) {
+            row.add(null);
+        }
+        StructObjectInspector soi = rowOI();
+        serde.serialize(row, soi);
+        JsonSerializer.StructNode plan = serde.jsonSerializer.rowPlan;
+        row.set(0, true);
+        serde.serialize(row, soi);
+        assertSame(plan, serde.jsonSerializer.rowPlan);
+    }
+
+    @Test
+    public void testStandardUnion() throws Exception {
+        // serializeField() hands the union itself to the member's inspector,
+        // which only works for our own union inspector
+        JsonSerDe serde = TestTables.serde(TestTables.table("u,v", "uniontype<int,string>,uniontype<int,string>"));
+        StructObjectInspector soi = (StructObjectInspector) TypeInfoUtils.getStandardJavaObjectInspectorFromTypeInfo(
+                TypeInfoUtils.getTypeInfoFromTypeString("struct<u:uniontype<int,string>,v:uniontype<int,string>>"));
+        List<Object> row = new ArrayList<Object>();
+        row.add(new StandardUnion((byte) 1, "x"));
+        row.add(new StandardUnion((byte) 0, null));
+        assertEquals("{\"u\":\"x\"}", serde.serialize(row, soi).toString());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testNonFinite() throws Exception {
+        JsonSerDe serde = serde(new Properties());
+        List<Object> row = new ArrayList<Object>();
+        for (int i = 0; i < COLUMNS.split(",").length; i++) {
+            row.add(null);
+        }
+        row.set(6, Double.NaN);
+        serde.serialize(row, rowOI());
+    }
+}
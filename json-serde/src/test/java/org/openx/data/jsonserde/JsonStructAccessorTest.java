@@ -0,0 +1,74 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+package org.openx.data.jsonserde;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+import org.openx.data.jsonserde.json.JSONObject;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the fields of every kind (plain, mapped, dotted, prefix and
+ * unmapped values) read the same one at a time and as a list.
+ */
+public class JsonStructAccessorTest {
+
+    static final String ROW = "{\"acc_a\":1,\"acc.b\":\"x\",\"Other\":\"y\",\"p_1\":2,\"p_2\":null,"
+            + "\"zz\":[1],\"n\":null}";
+
+    static JsonSerDe serde(boolean lazy) throws Exception {
+        return TestTables.serde(TestTables.table("acc_a,acc_b,acc_mapped,acc_pre,acc_rest",
+                "int,string,string,map<string,int>,map<string,string>",
+                "mapping.acc_mapped", "Other",
+                JsonSerDe.PROP_DOTS_IN_KEYS, "true",
+                JsonSerDe.PROP_PREFIX_MAPPING_PREFIX + "acc_pre", "p_",
+                JsonSerDe.PROP_UNMAPPED_ATTR_KEY, "acc_rest",
+                JsonSerDe.PROP_LAZY, Boolean.toString(lazy)));
+    }
+
+    static List<Object> read(boolean lazy) throws Exception {
+        JsonSerDe serde = serde(lazy);
+        StructObjectInspector soi = (StructObjectInspector) serde.getObjectInspector();
+        Object row = serde.deserialize(new Text(ROW));
+
+        List<Object> one = new ArrayList<Object>();
+        for (StructField f : soi.getAllStructFieldRefs()) {
+            one.add(soi.getStructFieldData(row, f));
+        }
+        assertEquals(one.toString(), soi.getStructFieldsDataAsList(row).toString());
+        return one;
+    }
+
+    @Test
+    public void testSameAsList() throws Exception {
+        List<Object> values = read(false);
+        assertEquals("1", values.get(0).toString());
+        assertEquals("x", values.get(1));
+        assertEquals("y", values.get(2));
+
+        JSONObject pre = (JSONObject) values.get(3);
+        assertEquals(2, pre.length());
+        assertEquals("2", pre.opt("p_1").toString());
+        assertTrue(pre.has("p_2"));
+        assertTrue(values.get(4).toString().contains("\"zz\":\"[1]\""));
+    }
+
+    @Test
+    public void testLazySameAsEager() throws Exception {
+        assertEquals(read(false).toString(), read(true).toString());
+    }
+}
@@ -14,6 +14,7 @@ import java.util.Properties;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Created by rcongiu on 8/30/15.
@@ -79,4 +80,73 @@ public class JsonUnionTest {
         assertTrue(val instanceof JSONArray);
         assertEquals(2, uoi.getTag(val));
     }
+
+    // how getTag() used to find the member: trying each one in turn
+    static byte trialTag(UnionObjectInspector uoi, Object o) {
+        if (o == null) return 0;
+        for (byte i = 0; i < uoi.getObjectInspectors().size(); i++) {
+            ObjectInspector oi = uoi.getObjectInspectors().get(i);
+            switch (oi.getCategory()) {
+                case LIST: if (o instanceof JSONArray) return i; else break;
+                case STRUCT: if (o instanceof JSONObject) return i; else break;
+                case MAP: if (o instanceof JSONObject) return i; else break;
+                case UNION: return i;
+                case PRIMITIVE: {
+                    try {
+                        ((PrimitiveObjectInspector) oi).getPrimitiveJavaObject(o);
+                        return i;
+                    } catch (Exception ex) { continue; }
+                }
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void testSameTagsAsTrying() throws Exception {
+        String[] unions = {
+            "uniontype<int,double,array<string>,struct<a:int,b:string>,string>",
+            "uniontype<boolean,string>",
+            "uniontype<tinyint,string>",
+            "uniontype<timestamp,bigint,map<string,int>>",
+            "uniontype<array<int>,smallint,float,boolean,struct<a:int>>",
+            "uniontype<string,struct<a:int>>",
+            "uniontype<map<string,int>,tinyint,timestamp,date,decimal(10,2),boolean>",
+        };
+        String[] values = {
+            "\"abc\"", "\"12\"", "\"300\"", "\"2015-01-01 10:00:00\"", "\"true\"", "\"0x1f\"", "\"\"",
+            "12", "-7", "300", "1.5", "1454612111000", "1e3", "99999999999999999999",
+            "true", "false", "{\"a\":1}", "{}", "[1,2]", "[]",
+        };
+        for (String union : unions) {
+            JsonSerDe serde = new JsonSerDe();
+            Properties tbl = new Properties();
+            tbl.setProperty(Constants.LIST_COLUMNS, "u");
+            tbl.setProperty(Constants.LIST_COLUMN_TYPES, union);
+            serde.initialize(null, tbl);
+            StructObjectInspector soi = (StructObjectInspector) serde.getObjectInspector();
+            StructField sf = soi.getStructFieldRef("u");
+            UnionObjectInspector uoi = (UnionObjectInspector) sf.getFieldObjectInspector();
+
+            for (String value : values) {
+                Object o = soi.getStructFieldData(serde.deserialize(new Text("{\"u\":" + value + "}")), sf);
+                byte expected = trialTag(uoi, o);
+                if (expected < 0) {
+                    try {
+                        uoi.getTag(o);
+                        fail(union + " " + value);
+                    } catch (Error expectedError) {
+                        continue;
+                    }
+                }
+                assertEquals(union + " " + value, expected, uoi.getTag(o));
+            }
+            for (Object o : new Object[] { 5, 5L, 2.5d, JSONObject.NULL }) {
+                byte expected = trialTag(uoi, o);
+                if (expected >= 0) {
+                    assertEquals(union + " " + o, expected, uoi.getTag(o));
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,122 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+package org.openx.data.jsonserde;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Properties;
+import org.apache.hadoop.io.Text;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openx.data.jsonserde.json.JSONObject;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks what happens to the malformed rows ignore.malformed.json lets
+ * through.
+ */
+public class MalformedRowsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static JsonSerDe serde(String tokenizer, File deadLetters) throws Exception {
+        Properties tbl = TestTables.table("country,languages", "string,string",
+                JsonSerDe.PROP_IGNORE_MALFORMED_JSON, "true",
+                JsonSerDe.PROP_TOKENIZER, tokenizer);
+        if (deadLetters != null) {
+            tbl.setProperty(JsonSerDe.PROP_MALFORMED_DEAD_LETTER_DIR, deadLetters.getAbsolutePath());
+        }
+        return TestTables.serde(tbl);
+    }
+
+    @Test
+    public void testSharedEmptyRow() throws Exception {
+        JsonSerDe serde = serde(JsonSerDe.TOKENIZER_READER, null);
+        assertSame(JSONObject.EMPTY, serde.deserialize(new Text("{\"country\":")));
+        assertSame(JSONObject.EMPTY, serde.deserialize(new Text("[1,")));
+        assertNull(serde.malformedRows.getDeadLetters());
+        try {
+            JSONObject.EMPTY.put("country", "Italy");
+            fail("EMPTY must not change");
+        } catch (UnsupportedOperationException expected) {
+        }
+        assertEquals(0, JSONObject.EMPTY.length());
+    }
+
+    @Test
+    public void testDeadLetters() throws Exception {
+        File dir = folder.newFolder("bad_rows");
+        String bad = "{\"country\":\"Italy\",\"languages\" \"Italian\"}";
+        for (String tokenizer : new String[] { JsonSerDe.TOKENIZER_READER, JsonSerDe.TOKENIZER_BYTES }) {
+            JsonSerDe serde = serde(tokenizer, dir);
+            serde.deserialize(new Text("{\"country\":\"Italy\"}"));
+            serde.deserialize(new Text("  " + bad));
+        }
+        // same directory, same file
+        MalformedRows.DeadLetterFile deadLetters = serde(JsonSerDe.TOKENIZER_READER, dir).malformedRows.getDeadLetters();
+        assertEquals(2, deadLetters.getWritten());
+        // as when the JVM exits
+        deadLetters.run();
+
+        File[] files = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".json");
+            }
+        });
+        assertEquals(1, files.length);
+        assertEquals(deadLetters.getPath().getName(), files[0].getName());
+        List<String> lines = Files.readAllLines(files[0].toPath(), Charset.forName("UTF-8"));
+        assertEquals(2, lines.size());
+        for (String line : lines) {
+            JSONObject deadLetter = new JSONObject(line, false, null, "test");
+            assertEquals(bad, deadLetter.getString("row"));
+            assertEquals("32", deadLetter.get("position").toString());
+            assertTrue(deadLetter.getString("error").startsWith("Row is not a valid JSON Object"));
+        }
+    }
+
+    @Test
+    public void testFlushedWithoutMoreRows() throws Exception {
+        File dir = folder.newFolder("flushed");
+        JsonSerDe serde = serde(JsonSerDe.TOKENIZER_BYTES, dir);
+        serde.deserialize(new Text("{\"country\":"));
+        MalformedRows.DeadLetterFile deadLetters = serde.malformedRows.getDeadLetters();
+        assertEquals(1, deadLetters.getWritten());
+
+        // no other row comes, the timer flushes it
+        long deadline = System.currentTimeMillis() + 10 * MalformedRows.FLUSH_INTERVAL_MS;
+        while (deadLetters.getFlushed() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(1, deadLetters.getFlushed());
+        deadLetters.run();
+    }
+
+    @Test
+    public void testTruncate() {
+        StringBuilder row = new StringBuilder();
+        for (int i = 0; i < MalformedRows.MAX_LOGGED_CHARS + 10; i++) {
+            row.append('x');
+        }
+        assertEquals("{}", MalformedRows.truncate("{}"));
+        String truncated = MalformedRows.truncate(row.toString());
+        assertTrue(truncated.endsWith("... (" + row.length() + " characters)"));
+        assertEquals(MalformedRows.MAX_LOGGED_CHARS, truncated.indexOf("..."));
+    }
+}
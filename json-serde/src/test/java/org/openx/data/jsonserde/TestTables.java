@@ -0,0 +1,50 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+package org.openx.data.jsonserde;
+
+import java.util.Properties;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.serde.Constants;
+import org.apache.hadoop.hive.serde2.SerDeException;
+
+/**
+ * Table properties and SerDes for the tests, so that each test only spells
+ * out what its table is.
+ */
+public final class TestTables {
+
+    private TestTables() {
+    }
+
+    /**
+     * @param properties more table properties, as name, value pairs
+     */
+    public static Properties table(String columns, String types, String... properties) {
+        Properties tbl = new Properties();
+        tbl.setProperty(Constants.LIST_COLUMNS, columns);
+        tbl.setProperty(Constants.LIST_COLUMN_TYPES, types);
+        for (int i = 0; i < properties.length; i += 2) {
+            tbl.setProperty(properties[i], properties[i + 1]);
+        }
+        return tbl;
+    }
+
+    public static JsonSerDe serde(Properties tbl) throws SerDeException {
+        return serde(null, tbl);
+    }
+
+    public static JsonSerDe serde(Configuration conf, Properties tbl) throws SerDeException {
+        JsonSerDe serde = new JsonSerDe();
+        serde.initialize(conf, tbl);
+        return serde;
+    }
+}
@@ -0,0 +1,396 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+package org.openx.data.jsonserde.corpus;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import org.openx.data.jsonserde.TestTables;
+import org.apache.hadoop.hive.serde2.typeinfo.ListTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.MapTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.StructTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+import org.apache.hadoop.hive.serde2.typeinfo.UnionTypeInfo;
+
+/**
+ * Generates rows of JSON, one per line, for the columns of a Hive table,
+ * so that benchmarks and tests can have as much data as they like
+ * without using real data.
+ *
+ * The rows only depend on the columns, the options and the seed: the
+ * same ones give the same rows, on any machine.
+ *
+ * Options, all off by default:
+ * <ul>
+ * <li>extra keys: keys no column maps to, with values up to a depth</li>
+ * <li>array lengths: for arrays and maps</li>
+ * <li>null rate: how often a value is null</li>
+ * <li>dotted keys: how often a column with an underscore is written with
+ *   a dot instead, for tables with dots.in.keys</li>
+ * <li>mixed case keys: how often a key gets some letters in upper case</li>
+ * <li>malformed rate: how often a row is cut short</li>
+ * <li>escape rate: how often a character of a string is escaped or not
+ *   ASCII</li>
+ * </ul>
+ *
+ * To write a file:
+ * <pre>
+ * java ... JsonCorpusGenerator "id,tags" "int,array&lt;string&gt;" 1000000 rows.json seed=1 nullRate=0.1
+ * </pre>
+ */
+public class JsonCorpusGenerator {
+
+    private final String columnNames;
+    private final String columnTypes;
+    private final List<String> names;
+    private final List<TypeInfo> types;
+    private final Random random;
+
+    private int extraKeys = 0;
+    private int maxDepth = 2;
+    private int minArrayLength = 0;
+    private int maxArrayLength = 8;
+    private int maxStringLength = 24;
+    private double nullRate = 0;
+    private double dottedKeyRate = 0;
+    private double mixedCaseKeyRate = 0;
+    private double malformedRate = 0;
+    private double escapeRate = 0;
+
+    private final StringBuilder row = new StringBuilder();
+
+    /**
+     * @param columnNames as in the columns table property, comma separated
+     * @param columnTypes as in the columns.types table property
+     */
+    public JsonCorpusGenerator(String columnNames, String columnTypes, long seed) {
+        this.columnNames = columnNames;
+        this.columnTypes = columnTypes;
+        this.names = Arrays.asList(columnNames.split(","));
+        this.types = TypeInfoUtils.getTypeInfosFromTypeString(columnTypes);
+        if (names.size() != types.size()) {
+            throw new IllegalArgumentException(names.size() + " columns but " + types.size() + " types");
+        }
+        this.random = new Random(seed);
+    }
+
+    public JsonCorpusGenerator extraKeys(int extraKeys) {
+        this.extraKeys = extraKeys;
+        return this;
+    }
+
+    /**
+     * How deep the values of extra keys go.
+     */
+    public JsonCorpusGenerator maxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+        return this;
+    }
+
+    public JsonCorpusGenerator arrayLengths(int min, int max) {
+        this.minArrayLength = min;
+        this.maxArrayLength = max;
+        return this;
+    }
+
+    public JsonCorpusGenerator maxStringLength(int maxStringLength) {
+        this.maxStringLength = maxStringLength;
+        return this;
+    }
+
+    public JsonCorpusGenerator nullRate(double nullRate) {
+        this.nullRate = nullRate;
+        return this;
+    }
+
+    public JsonCorpusGenerator dottedKeyRate(double dottedKeyRate) {
+        this.dottedKeyRate = dottedKeyRate;
+        return this;
+    }
+
+    public JsonCorpusGenerator mixedCaseKeyRate(double mixedCaseKeyRate) {
+        this.mixedCaseKeyRate = mixedCaseKeyRate;
+        return this;
+    }
+
+    public JsonCorpusGenerator malformedRate(double malformedRate) {
+        this.malformedRate = malformedRate;
+        return this;
+    }
+
+    public JsonCorpusGenerator escapeRate(double escapeRate) {
+        this.escapeRate = escapeRate;
+        return this;
+    }
+
+    /**
+     * The table properties JsonSerDe.initialize() needs to read the rows.
+     */
+    public Properties table() {
+        return TestTables.table(columnNames, columnTypes);
+    }
+
+    public String nextRow() {
+        row.setLength(0);
+        object(names, types, row, true);
+        if (malformedRate > 0 && random.nextDouble() < malformedRate) {
+            // any shorter prefix of an object is malformed
+            row.setLength(1 + random.nextInt(row.length() - 1));
+        }
+        return row.toString();
+    }
+
+    /**
+     * Writes rows, one per line, until there are maxRows of them or they
+     * take maxBytes.
+     * @return how many rows were written
+     */
+    public long write(OutputStream out, long maxRows, long maxBytes) throws IOException {
+        long rows = 0;
+        long bytes = 0;
+        while (rows < maxRows && bytes < maxBytes) {
+            byte[] line = (nextRow() + "\n").getBytes("UTF-8");
+            out.write(line);
+            bytes += line.length;
+            rows++;
+        }
+        return rows;
+    }
+
+    private void object(List<String> keys, List<TypeInfo> values, StringBuilder sb, boolean top) {
+        sb.append('{');
+        boolean first = true;
+        for (int i = 0; i < keys.size(); i++) {
+            first = key(keys.get(i), first, sb);
+            value(values.get(i), sb);
+        }
+        if (top) {
+            for (int i = 0; i < extraKeys; i++) {
+                first = key("extra_" + i, first, sb);
+                anyValue(maxDepth, sb);
+            }
+        }
+        sb.append('}');
+    }
+
+    private boolean key(String name, boolean first, StringBuilder sb) {
+        if (!first) {
+            sb.append(',');
+        }
+        if (dottedKeyRate > 0 && name.indexOf('_') > 0 && random.nextDouble() < dottedKeyRate) {
+            name = name.replace('_', '.');
+        }
+        if (mixedCaseKeyRate > 0 && random.nextDouble() < mixedCaseKeyRate) {
+            char[] chars = name.toCharArray();
+            for (int i = 0; i < chars.length; i++) {
+                if (random.nextBoolean()) {
+                    chars[i] = Character.toUpperCase(chars[i]);
+                }
+            }
+            name = new String(chars);
+        }
+        sb.append('"').append(name).append("\":");
+        return false;
+    }
+
+    private int length() {
+        return minArrayLength + random.nextInt(maxArrayLength - minArrayLength + 1);
+    }
+
+    private void value(TypeInfo type, StringBuilder sb) {
+        if (nullRate > 0 && random.nextDouble() < nullRate) {
+            sb.append("null");
+            return;
+        }
+        switch (type.getCategory()) {
+            case PRIMITIVE:
+                primitive(type.getTypeName(), sb);
+                break;
+            case LIST: {
+                TypeInfo element = ((ListTypeInfo) type).getListElementTypeInfo();
+                int length = length();
+                sb.append('[');
+                for (int i = 0; i < length; i++) {
+                    if (i > 0) {
+                        sb.append(',');
+                    }
+                    value(element, sb);
+                }
+                sb.append(']');
+                break;
+            }
+            case MAP: {
+                TypeInfo value = ((MapTypeInfo) type).getMapValueTypeInfo();
+                int length = length();
+                sb.append('{');
+                for (int i = 0; i < length; i++) {
+                    key("k" + i, i == 0, sb);
+                    value(value, sb);
+                }
+                sb.append('}');
+                break;
+            }
+            case STRUCT:
+                StructTypeInfo struct = (StructTypeInfo) type;
+                object(struct.getAllStructFieldNames(), struct.getAllStructFieldTypeInfos(), sb, false);
+                break;
+            case UNION:
+                List<TypeInfo> members = ((UnionTypeInfo) type).getAllUnionObjectTypeInfos();
+                value(members.get(random.nextInt(members.size())), sb);
+                break;
+            default:
+                throw new IllegalArgumentException("Can't generate " + type.getTypeName());
+        }
+    }
+
+    private void primitive(String type, StringBuilder sb) {
+        if (type.equals("string") || type.startsWith("varchar") || type.startsWith("char")
+                || type.equals("binary")) {
+            string(sb);
+        } else if (type.equals("boolean")) {
+            sb.append(random.nextBoolean());
+        } else if (type.equals("tinyint")) {
+            sb.append(random.nextInt(256) - 128);
+        } else if (type.equals("smallint")) {
+            sb.append(random.nextInt(65536) - 32768);
+        } else if (type.equals("int")) {
+            sb.append(random.nextBoolean() ? random.nextInt(1000) : random.nextInt());
+        } else if (type.equals("bigint")) {
+            sb.append(random.nextBoolean() ? random.nextInt(1000) : random.nextLong());
+        } else if (type.equals("float") || type.equals("double")) {
+            sb.append(random.nextGaussian() * 1000);
+        } else if (type.startsWith("decimal")) {
+            sb.append(random.nextInt(100000)).append('.').append(random.nextInt(100));
+        } else if (type.equals("date")) {
+            sb.append(String.format("\"%04d-%02d-%02d\"", 1970 + random.nextInt(60), 1 + random.nextInt(12),
+                    1 + random.nextInt(28)));
+        } else if (type.equals("timestamp")) {
+            sb.append(String.format("\"%04d-%02d-%02d %02d:%02d:%02d\"", 1970 + random.nextInt(60),
+                    1 + random.nextInt(12), 1 + random.nextInt(28), random.nextInt(24), random.nextInt(60),
+                    random.nextInt(60)));
+        } else {
+            throw new IllegalArgumentException("Can't generate " + type);
+        }
+    }
+
+    private void string(StringBuilder sb) {
+        int length = random.nextInt(maxStringLength + 1);
+        sb.append('"');
+        for (int i = 0; i < length; i++) {
+            if (escapeRate > 0 && random.nextDouble() < escapeRate) {
+                switch (random.nextInt(6)) {
+                    case 0: sb.append("\\\""); break;
+                    case 1: sb.append("\\\\"); break;
+                    case 2: sb.append("\\n"); break;
+                    case 3: sb.append(String.format("\\u%04x", 0x80 + random.nextInt(0xd700))); break;
+                    // not ASCII, written as is: accented letters, CJK and emoji
+                    case 4: sb.appendCodePoint(random.nextBoolean() ? 0xe0 + random.nextInt(0x20) : 0x4e00 + random.nextInt(0x5000)); break;
+                    default: sb.appendCodePoint(0x1f600 + random.nextInt(0x40));
+                }
+            } else {
+                sb.append((char) ('a' + random.nextInt(26)));
+            }
+        }
+        sb.append('"');
+    }
+
+    // the value of an extra key, of any type
+    private void anyValue(int depth, StringBuilder sb) {
+        if (nullRate > 0 && random.nextDouble() < nullRate) {
+            sb.append("null");
+            return;
+        }
+        switch (random.nextInt(depth > 0 ? 6 : 4)) {
+            case 0: string(sb); break;
+            case 1: sb.append(random.nextInt()); break;
+            case 2: sb.append(random.nextGaussian()); break;
+            case 3: sb.append(random.nextBoolean()); break;
+            case 4: {
+                int length = length();
+                sb.append('[');
+                for (int i = 0; i < length; i++) {
+                    if (i > 0) {
+                        sb.append(',');
+                    }
+                    anyValue(depth - 1, sb);
+                }
+                sb.append(']');
+                break;
+            }
+            default: {
+                int length = length();
+                sb.append('{');
+                for (int i = 0; i < length; i++) {
+                    key("k" + i, i == 0, sb);
+                    anyValue(depth - 1, sb);
+                }
+                sb.append('}');
+            }
+        }
+    }
+
+    /**
+     * columns types rows file [seed=n] [option=value ...], the options
+     * being those of the setters, like nullRate=0.1 or extraKeys=10.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4) {
+            System.err.println("Usage: JsonCorpusGenerator columns types rows file [seed=n] [option=value ...]");
+            System.exit(1);
+        }
+        long seed = 0;
+        for (int i = 4; i < args.length; i++) {
+            if (args[i].startsWith("seed=")) {
+                seed = Long.parseLong(args[i].substring(5));
+            }
+        }
+        JsonCorpusGenerator generator = new JsonCorpusGenerator(args[0], args[1], seed);
+        for (int i = 4; i < args.length; i++) {
+            String option = args[i].substring(0, args[i].indexOf('='));
+            String value = args[i].substring(args[i].indexOf('=') + 1);
+            if (option.equals("extraKeys")) {
+                generator.extraKeys(Integer.parseInt(value));
+            } else if (option.equals("maxDepth")) {
+                generator.maxDepth(Integer.parseInt(value));
+            } else if (option.equals("arrayLengths")) {
+                String[] range = value.split("-");
+                generator.arrayLengths(Integer.parseInt(range[0]), Integer.parseInt(range[1]));
+            } else if (option.equals("maxStringLength")) {
+                generator.maxStringLength(Integer.parseInt(value));
+            } else if (option.equals("nullRate")) {
+                generator.nullRate(Double.parseDouble(value));
+            } else if (option.equals("dottedKeyRate")) {
+                generator.dottedKeyRate(Double.parseDouble(value));
+            } else if (option.equals("mixedCaseKeyRate")) {
+                generator.mixedCaseKeyRate(Double.parseDouble(value));
+            } else if (option.equals("malformedRate")) {
+                generator.malformedRate(Double.parseDouble(value));
+            } else if (option.equals("escapeRate")) {
+                generator.escapeRate(Double.parseDouble(value));
+            } else if (!option.equals("seed")) {
+                throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(args[3]), 1 << 16);
+        try {
+            generator.write(out, Long.parseLong(args[2]), Long.MAX_VALUE);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+package org.openx.data.jsonserde.corpus;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Properties;
+import org.apache.hadoop.hive.serde2.SerDeUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+import org.openx.data.jsonserde.JsonSerDe;
+import org.openx.data.jsonserde.TestTables;
+import org.openx.data.jsonserde.json.JSONException;
+import org.openx.data.jsonserde.json.JSONObject;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that generated rows are the same for the same seed, and that the
+ * SerDe reads them.
+ */
+public class JsonCorpusGeneratorTest {
+
+    static final String COLUMNS = "id,user_name,active,score,created,day,tags,attributes,address,choice";
+    static final String TYPES = "bigint,string,boolean,double,timestamp,date,array<int>,"
+            + "map<string,array<string>>,struct<street:string,zip_code:smallint,geo:struct<lat:float,lon:float>>,"
+            + "uniontype<int,string>";
+
+    static JsonCorpusGenerator generator(long seed) {
+        return new JsonCorpusGenerator(COLUMNS, TYPES, seed).extraKeys(6).maxDepth(3).escapeRate(0.1);
+    }
+
+    static JsonSerDe serde(JsonCorpusGenerator generator, String tokenizer) throws Exception {
+        Properties tbl = generator.table();
+        tbl.setProperty(JsonSerDe.PROP_TOKENIZER, tokenizer);
+        tbl.setProperty(JsonSerDe.PROP_DOTS_IN_KEYS, "true");
+        tbl.setProperty(JsonSerDe.PROP_IGNORE_MALFORMED_JSON, "true");
+        return TestTables.serde(tbl);
+    }
+
+    @Test
+    public void testSameSeedSameRows() throws Exception {
+        JsonCorpusGenerator a = generator(42).nullRate(0.1).malformedRate(0.1);
+        JsonCorpusGenerator b = generator(42).nullRate(0.1).malformedRate(0.1);
+        JsonCorpusGenerator c = generator(43).nullRate(0.1).malformedRate(0.1);
+        ByteArrayOutputStream outA = new ByteArrayOutputStream();
+        ByteArrayOutputStream outB = new ByteArrayOutputStream();
+        ByteArrayOutputStream outC = new ByteArrayOutputStream();
+        assertEquals(500, a.write(outA, 500, Long.MAX_VALUE));
+        assertEquals(500, b.write(outB, 500, Long.MAX_VALUE));
+        assertEquals(500, c.write(outC, 500, Long.MAX_VALUE));
+        assertArrayEquals(outA.toByteArray(), outB.toByteArray());
+        assertFalse(java.util.Arrays.equals(outA.toByteArray(), outC.toByteArray()));
+    }
+
+    @Test
+    public void testWriteStopsAtBytes() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long rows = generator(1).write(out, Long.MAX_VALUE, 100000);
+        assertTrue(rows > 0);
+        assertTrue(out.size() >= 100000);
+        assertEquals(rows, out.toString("UTF-8").split("\n").length);
+    }
+
+    @Test
+    public void testEveryRowReads() throws Exception {
+        for (String tokenizer : new String[] {JsonSerDe.TOKENIZER_READER, JsonSerDe.TOKENIZER_BYTES}) {
+            JsonCorpusGenerator generator = generator(7).dottedKeyRate(0.5).mixedCaseKeyRate(0.5);
+            JsonSerDe serde = serde(generator, tokenizer);
+            StructObjectInspector oi = (StructObjectInspector) serde.getObjectInspector();
+            for (int i = 0; i < 1000; i++) {
+                String row = generator.nextRow();
+                Object data = serde.deserialize(new Text(row));
+                assertNotSame(tokenizer + ": " + row, JSONObject.EMPTY, data);
+                List<Object> values = oi.getStructFieldsDataAsList(data);
+                // no nulls asked for, so every column is there whatever its key looks like
+                for (int column = 0; column < values.size(); column++) {
+                    assertNotNull(tokenizer + ": column " + column + " of " + row, values.get(column));
+                }
+                assertNotNull(SerDeUtils.getJSONString(data, oi));
+            }
+        }
+    }
+
+    @Test
+    public void testNullRate() throws Exception {
+        JsonCorpusGenerator generator = generator(3).nullRate(0.2);
+        JsonSerDe serde = serde(generator, JsonSerDe.TOKENIZER_READER);
+        StructObjectInspector oi = (StructObjectInspector) serde.getObjectInspector();
+        int nulls = 0;
+        int values = 0;
+        for (int i = 0; i < 1000; i++) {
+            for (Object value : oi.getStructFieldsDataAsList(serde.deserialize(new Text(generator.nextRow())))) {
+                nulls += value == null ? 1 : 0;
+                values++;
+            }
+        }
+        assertEquals(0.2, (double) nulls / values, 0.03);
+    }
+
+    @Test
+    public void testMalformedRate() throws Exception {
+        JsonCorpusGenerator generator = generator(5).malformedRate(0.25);
+        int malformed = 0;
+        for (int i = 0; i < 2000; i++) {
+            try {
+                new JSONObject(generator.nextRow(), false, null, null);
+            } catch (JSONException e) {
+                malformed++;
+            }
+        }
+        assertEquals(500, malformed, 75);
+    }
+
+    @Test
+    public void testExtraKeys() throws Exception {
+        JSONObject row = new JSONObject(new JsonCorpusGenerator("id", "int", 9).extraKeys(5).nextRow(), false, null, null);
+        assertEquals(6, row.length());
+        assertTrue(row.has("extra_4"));
+    }
+}
@@ -0,0 +1,60 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+package org.openx.data.jsonserde.json;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks syntax errors are cheap but still say where the error is.
+ */
+public class JSONSyntaxErrorTest {
+
+    static final String ROW = "{\"country\":\"Italy\",\n\"languages\" \"Italian\"}";
+
+    static byte[] utf8(String s) throws Exception {
+        return s.getBytes("UTF-8");
+    }
+
+    @Test
+    public void testReaderTokener() throws Exception {
+        try {
+            new JSONObject(new JSONTokener(ROW, false, null), "test");
+            fail();
+        } catch (JSONException e) {
+            // the reader tokener counts characters from 0 after a newline
+            assertEquals("Expected a ':' after a key at 33 [character 13 line 2]", e.getMessage());
+            assertEquals(33, e.getPosition());
+            assertEquals(0, e.getStackTrace().length);
+        }
+    }
+
+    @Test
+    public void testByteTokener() throws Exception {
+        byte[] bytes = utf8("  " + ROW);
+        try {
+            new JSONObject(new JSONByteTokener(bytes, 2, bytes.length, false, null), "test");
+            fail();
+        } catch (JSONException e) {
+            assertEquals(33, e.getPosition());
+            assertEquals("Expected a ':' after a key at 33 [character 14 line 2]", e.getMessage());
+            assertEquals(0, e.getStackTrace().length);
+        }
+    }
+
+    @Test
+    public void testOtherExceptionsKeepTheirStackTrace() {
+        assertTrue(new JSONException("Null key.").getStackTrace().length > 0);
+        assertEquals(-1, new JSONException("Null key.").getPosition());
+    }
+}
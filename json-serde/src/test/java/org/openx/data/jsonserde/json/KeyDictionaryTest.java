@@ -0,0 +1,104 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+
+package org.openx.data.jsonserde.json;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class KeyDictionaryTest {
+
+    static final KeyDictionary DICT = new KeyDictionary(
+            Arrays.asList("one", "Two", "event_type", "caffè", "", "a"));
+
+    @Test
+    public void testLookup() {
+        String one = DICT.lookup("one");
+        assertEquals("one", one);
+        assertSame(one, DICT.lookup("ONE"));
+        assertSame(one, DICT.lookup("oNe"));
+        assertSame(one, "one".intern());
+
+        assertEquals("two", DICT.lookup("TWO"));
+        assertEquals("event_type", DICT.lookup("Event_Type"));
+        assertEquals("", DICT.lookup(""));
+        assertEquals("a", DICT.lookup("A"));
+
+        assertNull(DICT.lookup("on"));
+        assertNull(DICT.lookup("ones"));
+        assertNull(DICT.lookup("event-type"));
+        // keys that are not ASCII go through toLowerCase()
+        assertEquals("caff\u00e8", DICT.lookup("CAFF\u00c8"));
+        assertSame(DICT.lookup("caff\u00e8"), DICT.lookup("Caff\u00e8"));
+        assertNull(DICT.lookup("caff\u00e9"));
+        assertNull(DICT.lookup("Key"));
+        assertEquals(6, DICT.size());
+        // the Kelvin sign lower cases to an ASCII k, like it did before
+        assertEquals("key", new KeyDictionary(Collections.singleton("key")).lookup("\u212Aey"));
+    }
+
+    @Test
+    public void testLookupRange() {
+        char[] buf = "xxONEyy".toCharArray();
+        assertEquals("one", DICT.lookup(buf, 2, 3));
+        assertNull(DICT.lookup(buf, 1, 3));
+    }
+
+    @Test
+    public void testManyKeys() {
+        String[] keys = new String[1000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "key" + i;
+        }
+        KeyDictionary dict = new KeyDictionary(Arrays.asList(keys));
+        for (String key : keys) {
+            assertEquals(key, dict.lookup(key.toUpperCase()));
+        }
+        assertNull(dict.lookup("key1000"));
+    }
+
+    @Test
+    public void testParseWithDictionary() throws Exception {
+        String json = "{\"ONE\":1,\"Unknown\":{\"Two\":[{\"A\":true}]},\"caffè\":\"x\"}";
+
+        JSONObject plain = new JSONObject(new JSONTokener(json, false, null), "test");
+        JSONObject dict = new JSONObject(new JSONTokener(json, false, null).setKeyDictionary(DICT), "test");
+        assertEquals(plain.toString(), dict.toString());
+
+        byte[] utf8 = json.getBytes("UTF-8");
+        JSONObject bytes = new JSONObject(new JSONByteTokener(utf8, 0, utf8.length, false, null)
+                .setKeyDictionary(DICT), "test");
+        assertEquals(plain.toString(), bytes.toString());
+    }
+
+    @Test
+    public void testUnknownKeysSkipped() throws JSONException {
+        String json = "{\"ONE\":1,\"Unknown\":{\"x\":2},\"unknown\":3}";
+        KeyProjection projection = new KeyProjection(Collections.singleton("one"), false);
+
+        // duplicates allowed: the unknown keys are never built
+        JSONObject o = new JSONObject(new JSONTokener(json, true, null).setKeyDictionary(DICT), "test", projection);
+        assertEquals(1, o.length());
+        assertEquals("1", o.get("one").toString());
+
+        // otherwise they still have to be checked for duplicates
+        try {
+            new JSONObject(new JSONTokener(json, false, null).setKeyDictionary(DICT), "test", projection);
+            fail("Expected a duplicate key");
+        } catch (JSONException ex) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+
+package org.openx.data.jsonserde.json;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ReplaceNodeTest {
+
+    /**
+     * Adds a rule the way JsonSerDe.getKeyReplacements does.
+     */
+    static void rule(ReplaceNode root, String path, String replaceWith) {
+        ReplaceNode node = root;
+        for (String part : path.split("\\.")) {
+            ReplaceNode child = node.children.get(part);
+            if (child == null) {
+                child = new ReplaceNode();
+                node.children.put(part, child);
+            }
+            node = child;
+        }
+        node.replaceWith = replaceWith;
+    }
+
+    @Test
+    public void testLongestWildcardFirst() {
+        ReplaceNode root = new ReplaceNode();
+        rule(root, "a*", "short");
+        rule(root, "abc_*", "long");
+        root.compile();
+
+        assertEquals("long", root.nextNode("abc_x").replaceWith);
+        assertEquals("long", root.nextNode("ABC_").replaceWith);
+        assertEquals("short", root.nextNode("abc").replaceWith);
+        assertEquals("short", root.nextNode("a").replaceWith);
+        assertNull(root.nextNode("b"));
+        assertNull(root.nextNode(null));
+    }
+
+    @Test
+    public void testExactAndWildcard() {
+        ReplaceNode root = new ReplaceNode();
+        rule(root, "abc", "exact");
+        rule(root, "abc*", "longer wildcard");
+        rule(root, "ab*", "same length wildcard");
+        rule(root, "a*", "shorter wildcard");
+        root.compile();
+
+        // "abc*" is longer than "abc", so it gets the first chance
+        assertEquals("longer wildcard", root.nextNode("abc").replaceWith);
+        assertEquals("longer wildcard", root.nextNode("abcd").replaceWith);
+        assertEquals("same length wildcard", root.nextNode("abx").replaceWith);
+
+        root = new ReplaceNode();
+        rule(root, "abc", "exact");
+        rule(root, "ab*", "wildcard");
+        root.compile();
+        assertEquals("exact", root.nextNode("abc").replaceWith);
+        assertEquals("exact", root.nextNode("ABC").replaceWith);
+        assertEquals("wildcard", root.nextNode("abd").replaceWith);
+    }
+
+    @Test
+    public void testNotCompiled() {
+        ReplaceNode root = new ReplaceNode();
+        rule(root, "x.y*", "z");
+        assertEquals("z", root.nextNode("x").nextNode("yes").replaceWith);
+    }
+
+    @Test
+    public void testNestedReplacements() throws JSONException {
+        ReplaceNode root = new ReplaceNode();
+        rule(root, "ary.shoop.foot.noot", "testme");
+        rule(root, "ary.*.foot.n*", "wild");
+        rule(root, "troxy", "foxy");
+        root.compile();
+
+        String json = "{\"ary\":[{\"shoop\":{\"foot\":{\"noot\":1,\"nope\":2,\"x\":3}}},"
+                + "{\"other\":{\"foot\":{\"noot\":4}}}],"
+                + "\"troxy\":\"abc\",\"nested\":{\"troxy\":\"def\"}}";
+        JSONObject o = new JSONObject(new JSONTokener(json, false, root), "test");
+
+        JSONArray ary = o.getJSONArray("ary");
+        JSONObject foot = ary.getJSONObject(0).getJSONObject("shoop").getJSONObject("foot");
+        assertTrue(foot.has("testme"));
+        // no backtracking: "shoop" took the exact branch, so "ary.*.foot.n*" is out of reach
+        assertTrue(foot.has("nope"));
+        assertTrue(foot.has("x"));
+        assertEquals(3, foot.length());
+        assertTrue(ary.getJSONObject(1).getJSONObject("other").getJSONObject("foot").has("wild"));
+
+        assertEquals("abc", o.getString("foxy"));
+        assertEquals("def", o.getJSONObject("nested").getString("troxy"));
+    }
+}
@@ -0,0 +1,101 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+
+package org.openx.data.jsonserde.json;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StructuralIndexTest {
+
+    /**
+     * The positions StructuralIndex should find, one byte at a time.
+     * Returns null where build() should return false.
+     */
+    static List<Integer> naive(byte[] buf, int start, int end) {
+        List<Integer> positions = new ArrayList<Integer>();
+        boolean inString = false;
+        boolean escaped = false;
+        for (int i = start; i < end; i++) {
+            byte b = buf[i];
+            // outside of strings a backslash is a syntax error anyway, and
+            // the structural characters it precedes are still reported
+            boolean isEscaped = escaped;
+            escaped = !escaped && b == '\\';
+            if (b == '"') {
+                if (!isEscaped) {
+                    inString = !inString;
+                    positions.add(i);
+                }
+            } else if (!inString) {
+                if (b == '{' || b == '}' || b == '[' || b == ']' || b == ':' || b == ',') {
+                    positions.add(i);
+                } else if (b == '\'' || b == 0) {
+                    return null;
+                }
+            }
+        }
+        return positions;
+    }
+
+    static void check(StructuralIndex index, byte[] buf, int start, int end) {
+        List<Integer> expected = naive(buf, start, end);
+        boolean ok = index.build(buf, start, end);
+        assertEquals(expected != null, ok);
+        if (ok) {
+            List<Integer> actual = new ArrayList<Integer>();
+            for (int i = 0; i < index.count(); i++) {
+                actual.add(index.positions()[i]);
+            }
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void testRandomRows() {
+        // few distinct bytes, so that runs of backslashes and quotes
+        // cross the 8 and 64 byte boundaries often
+        byte[] alphabet = { '"', '\\', '\\', '{', '}', '[', ']', ':', ',', 'a', ' ', (byte) 0xE4 };
+        Random random = new Random(42);
+        StructuralIndex index = new StructuralIndex();
+
+        for (int n = 0; n < 2000; n++) {
+            byte[] buf = new byte[random.nextInt(300)];
+            for (int i = 0; i < buf.length; i++) {
+                buf[i] = alphabet[random.nextInt(alphabet.length)];
+            }
+            int start = buf.length == 0 ? 0 : random.nextInt(Math.min(buf.length, 10));
+            check(index, buf, start, buf.length);
+        }
+    }
+
+    @Test
+    public void testUnsupported() throws Exception {
+        StructuralIndex index = new StructuralIndex();
+        assertFalse(index.build("{'a':1}".getBytes("UTF-8"), 0, 7));
+        assertTrue(index.build("{\"'a\":1}".getBytes("UTF-8"), 0, 8));
+        assertEquals(5, index.count());
+    }
+
+    @Test
+    public void testMatch() {
+        long word = 0x2200225C7B7D225CL;
+        assertEquals(0xA2, StructuralIndex.match(word, '"' * 0x0101010101010101L));
+        assertEquals(0x11, StructuralIndex.match(word, '\\' * 0x0101010101010101L));
+        assertEquals(0x40, StructuralIndex.match(word, 0));
+        assertEquals(0xFF, StructuralIndex.match(0, 0));
+    }
+}
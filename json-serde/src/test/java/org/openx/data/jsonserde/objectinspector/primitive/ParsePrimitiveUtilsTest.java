@@ -0,0 +1,134 @@
+/*======================================================================*
+ * Copyright (c) 2011, OpenX Technologies, Inc. All rights reserved.    *
+ *                                                                      *
+ * Licensed under the New BSD License (the "License"); you may not use  *
+ * this file except in compliance with the License. Unless required     *
+ * by applicable law or agreed to in writing, software distributed      *
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT        *
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.     *
+ * See the License for the specific language governing permissions and  *
+ * limitations under the License. See accompanying LICENSE file.        *
+ *======================================================================*/
+package org.openx.data.jsonserde.objectinspector.primitive;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that checking numbers before parsing them accepts exactly what
+ * the JDK parsers accept.
+ */
+public class ParsePrimitiveUtilsTest {
+
+    static final List<String> SAMPLES = Arrays.asList(
+            "", " ", "0", "-0", "+0", "-", "+", "12", "-12", "+12", "12.7", "-12.7", ".5", "5.", "1.2.3",
+            "12abc", "abc", "N/A", "null", "0x1F", "0X1f", "0x", "0x-1f", "0x+1f", "0xg", "0x1.8p1", "0x.8p1",
+            "0x1p", "0x1d", "0x1p1d", "-0x1p-2f", "0x.p1",
+            "2147483647", "2147483648", "-2147483648", "-2147483649", "32767", "32768", "-32768", "-32769",
+            "9223372036854775807", "9223372036854775808", "-9223372036854775808", "-9223372036854775809",
+            "0x7fffffff", "0x80000000", "0x7fffffffffffffff", "0x8000000000000000",
+            "1e5", "1E-5", "1e", "1e+", "e5", ".e5", "1.e5", "1e5f", "1e5d", "1ff", "1f", "1D", "1 f",
+            " 1.5 ", "\t2\n", "NaN", "-NaN", "+Infinity", "-Infinity", "Infinity", "NaNx", "infinity",
+            "1,5", "1_000", "١٢", "１");
+
+    static List<String> samples() {
+        List<String> samples = new ArrayList<String>(SAMPLES);
+        String alphabet = "0123456789.-+eExXpPfFdDa \t";
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int length = random.nextInt(8);
+            for (int j = 0; j < length; j++) {
+                sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            samples.add(sb.toString());
+        }
+        return samples;
+    }
+
+    @Test
+    public void testIntegralsAsTheJdk() {
+        long[][] ranges = {
+            { Short.MIN_VALUE, Short.MAX_VALUE },
+            { Integer.MIN_VALUE, Integer.MAX_VALUE },
+            { Long.MIN_VALUE, Long.MAX_VALUE },
+        };
+        for (String s : samples()) {
+            for (int radix : new int[] { 10, 16 }) {
+                for (long[] range : ranges) {
+                    boolean parses;
+                    try {
+                        long value = Long.parseLong(s, radix);
+                        parses = value >= range[0] && value <= range[1];
+                    } catch (NumberFormatException e) {
+                        parses = false;
+                    }
+                    assertEquals("'" + s + "' radix " + radix + " max " + range[1], parses,
+                            ParsePrimitiveUtils.isIntegral(s, 0, s.length(), radix, range[0], range[1]));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFloatingPointAsTheJdk() {
+        for (String s : samples()) {
+            boolean parses;
+            try {
+                Double.parseDouble(s);
+                parses = true;
+            } catch (NumberFormatException e) {
+                parses = false;
+            }
+            assertEquals("'" + s + "'", parses, ParsePrimitiveUtils.isFloatingPoint(s));
+        }
+    }
+
+    @Test
+    public void testSameValues() {
+        for (String s : SAMPLES) {
+            int i;
+            try {
+                i = ParsePrimitiveUtils.isHex(s) ? Integer.parseInt(s.substring(2), 16)
+                        : Integer.parseInt(ParsePrimitiveUtils.stripDecimal(s));
+            } catch (NumberFormatException e) {
+                i = 0;
+            }
+            assertEquals(s, i, ParsePrimitiveUtils.parseInt(s));
+
+            long l;
+            try {
+                l = ParsePrimitiveUtils.isHex(s) ? Long.parseLong(s.substring(2), 16)
+                        : Long.parseLong(ParsePrimitiveUtils.stripDecimal(s));
+            } catch (NumberFormatException e) {
+                l = 0;
+            }
+            assertEquals(s, l, ParsePrimitiveUtils.parseLong(s));
+
+            double d;
+            try {
+                d = Double.parseDouble(s);
+            } catch (NumberFormatException e) {
+                d = 0;
+            }
+            assertEquals(s, d, ParsePrimitiveUtils.parseDouble(s), 0);
+        }
+    }
+
+    @Test
+    public void testFailuresSampled() {
+        SampledLog log = new SampledLog("Could not");
+        for (int i = 1; i < SampledLog.LOGGED_IN_FULL; i++) {
+            assertEquals("Could not: ", log.prefix());
+        }
+        assertEquals("Could not (further ones are only sampled): ", log.prefix());
+        for (int i = 0; i < 1000; i++) {
+            assertNull(log.prefix());
+        }
+    }
+}
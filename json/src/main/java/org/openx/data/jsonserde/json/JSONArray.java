@@ -88,6 +88,11 @@ public class JSONArray {
      */
     protected List myArrayList;
 
+    /**
+     * The view asList() returns, built on the first call.
+     */
+    private List listView;
+
 
     /**
      * Construct an empty JSONArray.
@@ -921,6 +926,33 @@ public class JSONArray {
     public List getAsList() {
         return myArrayList;
     }
+
+    /**
+     * Get a read-only List view of the JSONArray, with JSONObject.NULL
+     * elements as null. Nothing gets copied: the view reads straight from
+     * the JSONArray, and it's only built once.
+     *
+     * @return The view.
+     */
+    public List asList() {
+        if (listView == null) {
+            listView = new ListView();
+        }
+        return listView;
+    }
+
+    private class ListView extends AbstractList implements RandomAccess {
+        @Override
+        public Object get(int index) {
+            Object value = myArrayList.get(index);
+            return value == JSONObject.NULL ? null : value;
+        }
+
+        @Override
+        public int size() {
+            return myArrayList.size();
+        }
+    }
     
     
     
@@ -0,0 +1,513 @@
+package org.openx.data.jsonserde.json;
+
+/**
+ * A JSONTokener that reads straight from a UTF-8 encoded byte array, such as
+ * the backing buffer of a Hadoop Text, instead of going through a Reader.
+ * Structural characters are ASCII, so bytes are only decoded when they are
+ * part of a string literal (or of an unquoted value, which the lenient
+ * parser tolerates). Malformed UTF-8 is replaced with U+FFFD, which is what
+ * Text.toString() would have produced.
+ *
+ * It builds exactly the same JSONObject / JSONArray model as JSONTokener.
+ */
+public class JSONByteTokener extends JSONTokener {
+
+    private static final char REPLACEMENT_CHAR = '\uFFFD';
+
+    private final byte[] buf;
+    private final int start;
+    private final int end;
+    private int pos;
+    // where the last character returned by next() started
+    private int previousPos;
+
+    private boolean eof;
+    private boolean usePrevious;
+    private char previous;
+    // low surrogate still to be returned after a supplementary code point
+    private char pendingLow;
+
+    /**
+     * Construct a JSONByteTokener over a range of a byte array.
+     *
+     * @param buf    UTF-8 encoded source
+     * @param start  first byte to read
+     * @param end    one past the last byte to read
+     */
+    public JSONByteTokener(byte[] buf, int start, int end, boolean allowDuplicates, ReplaceNode keySwapMap) {
+        super(allowDuplicates, keySwapMap);
+        this.buf = buf;
+        this.start = start;
+        this.end = end;
+        this.pos = start;
+    }
+
+    @Override
+    public void back() throws JSONException {
+        if (usePrevious || pos <= start) {
+            throw new JSONException("Stepping back two steps is not supported");
+        }
+        usePrevious = true;
+        eof = false;
+    }
+
+    @Override
+    public boolean end() {
+        return eof && !usePrevious;
+    }
+
+    @Override
+    public char next() throws JSONException {
+        if (usePrevious) {
+            usePrevious = false;
+            return previous;
+        }
+        char c;
+        previousPos = pos;
+        if (pendingLow != 0) {
+            c = pendingLow;
+            pendingLow = 0;
+        } else if (pos >= end) {
+            eof = true;
+            c = 0;
+        } else {
+            int b = buf[pos++];
+            if (b >= 0) {
+                c = (char) b;
+                if (c == 0) { // same as the Reader based tokener
+                    eof = true;
+                }
+            } else {
+                c = decode(b & 0xff);
+            }
+        }
+        previous = c;
+        return c;
+    }
+
+    /**
+     * Moves to another offset of the byte array, forgetting any character
+     * read so far. The key stack is kept.
+     */
+    public void seek(int position) {
+        pos = position;
+        usePrevious = false;
+        pendingLow = 0;
+        eof = false;
+    }
+
+    /**
+     * The offset in the byte array of the next character to be read.
+     */
+    public int position() {
+        return usePrevious ? previousPos : pos;
+    }
+
+    /**
+     * Same as JSONTokener.nextChars(), but works directly on the bytes.
+     */
+    @Override
+    protected int nextChars(char quote) throws JSONException {
+        if (usePrevious || pendingLow != 0) {
+            return super.nextChars(quote);
+        }
+        int n = 0;
+        for (;;) {
+            if (pos >= end) {
+                eof = true;
+                throw syntaxError("Unterminated string");
+            }
+            int b = buf[pos++];
+            if (n + 2 >= chars.length) {
+                char[] grown = new char[chars.length * 2];
+                System.arraycopy(chars, 0, grown, 0, n);
+                chars = grown;
+            }
+            if (b == quote) {
+                previous = quote;
+                return n;
+            }
+            switch (b) {
+            case 0:
+            case '\n':
+            case '\r':
+                throw syntaxError("Unterminated string");
+            case '\\':
+                if (pos >= end) {
+                    throw syntaxError("Illegal escape.");
+                }
+                b = buf[pos++];
+                switch (b) {
+                case 'b':
+                    chars[n++] = '\b';
+                    break;
+                case 't':
+                    chars[n++] = '\t';
+                    break;
+                case 'n':
+                    chars[n++] = '\n';
+                    break;
+                case 'f':
+                    chars[n++] = '\f';
+                    break;
+                case 'r':
+                    chars[n++] = '\r';
+                    break;
+                case 'u':
+                    chars[n++] = nextHex4();
+                    break;
+                case 'a':
+                    // JSONTokener falls through into 'v' here, keep it identical
+                    chars[n++] = '\007';
+                case 'v':
+                    chars[n++] = '\011';
+                    break;
+                case '"':
+                case '\'':
+                case '\\':
+                case '/':
+                    chars[n++] = (char) b;
+                    break;
+                default:
+                    throw syntaxError("Illegal escape.");
+                }
+                break;
+            default:
+                if (b >= 0) {
+                    chars[n++] = (char) b;
+                } else {
+                    char c = decode(b & 0xff);
+                    chars[n++] = c;
+                    if (pendingLow != 0) {
+                        chars[n++] = pendingLow;
+                        pendingLow = 0;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Same as JSONTokener.nextValue(), but unquoted values (numbers, true,
+     * false, null) are sliced out of the byte array in one go.
+     */
+    @Override
+    public Object nextValue(String parent) throws JSONException {
+        char c = nextClean();
+
+        switch (c) {
+            case '"':
+            case '\'':
+                return nextString(c);
+            case '{':
+                back();
+                return new JSONObject(this, parent);
+            case '[':
+                back();
+                return new JSONArray(this);
+            default:
+                break;
+        }
+
+        if (usePrevious || pendingLow != 0 || c < ' ' || c >= 0x80) {
+            return nextUnquoted(c);
+        }
+
+        int from = pos - 1;
+        int i = from;
+        while (i < end) {
+            int b = buf[i];
+            if (b < 0) {
+                // non ASCII unquoted value, let the generic loop decode it
+                pos = from + 1;
+                return nextUnquoted(c);
+            }
+            if (b < ' ' || isValueTerminator(b)) {
+                break;
+            }
+            i++;
+        }
+        pos = i;
+
+        // trim, like the Reader based tokener does
+        int to = i;
+        while (to > from && buf[to - 1] == ' ') {
+            to--;
+        }
+        if (to == from) {
+            throw syntaxError("Missing value");
+        }
+        return JSONObject.stringToValue(asciiString(from, to));
+    }
+
+    /**
+     * Same as JSONTokener.skipValue(), but scans the bytes directly. Every
+     * byte of a multi byte UTF-8 sequence is >= 0x80, so none of them can be
+     * mistaken for a quote or a bracket.
+     */
+    @Override
+    public void skipValue() throws JSONException {
+        if (usePrevious || pendingLow != 0) {
+            super.skipValue();
+            return;
+        }
+        while (pos < end && buf[pos] >= 0 && buf[pos] <= ' ' && buf[pos] != 0) {
+            pos++;
+        }
+        if (pos >= end || buf[pos] == 0) {
+            pos = end;
+            eof = true;
+            throw syntaxError("Missing value");
+        }
+
+        int b = buf[pos];
+        if (b == '"' || b == '\'') {
+            pos = skipStringBytes(pos + 1, b);
+        } else if (b == '{' || b == '[') {
+            int depth = 0;
+            int i = pos;
+            for (;;) {
+                if (i >= end || buf[i] == 0) {
+                    pos = end;
+                    eof = true;
+                    throw syntaxError("Unterminated value");
+                }
+                b = buf[i++];
+                if (b == '"' || b == '\'') {
+                    i = skipStringBytes(i, b);
+                } else if (b == '{' || b == '[') {
+                    depth++;
+                } else if ((b == '}' || b == ']') && --depth == 0) {
+                    break;
+                }
+            }
+            pos = i;
+        } else {
+            int i = pos;
+            boolean blank = true;
+            // bytes >= 0x80 are part of the value, like any char >= ' '
+            while (i < end && (buf[i] < 0 || (buf[i] >= ' ' && !isValueTerminator(buf[i])))) {
+                if (buf[i] != ' ') {
+                    blank = false;
+                }
+                i++;
+            }
+            pos = i;
+            if (blank) {
+                throw syntaxError("Missing value");
+            }
+        }
+    }
+
+    /**
+     * Returns the position just after the closing quote of a string
+     * starting at from.
+     */
+    private int skipStringBytes(int from, int quote) throws JSONException {
+        int i = from;
+        for (;;) {
+            if (i >= end) {
+                pos = end;
+                eof = true;
+                throw syntaxError("Unterminated string");
+            }
+            int b = buf[i++];
+            if (b == quote) {
+                return i;
+            }
+            switch (b) {
+                case 0:
+                case '\n':
+                case '\r':
+                    pos = i;
+                    throw syntaxError("Unterminated string");
+                case '\\':
+                    i++;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private Object nextUnquoted(char c) throws JSONException {
+        StringBuilder sb = new StringBuilder();
+        while (c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0) {
+            sb.append(c);
+            c = next();
+        }
+        back();
+
+        String string = sb.toString().trim();
+        if (string.equals("")) {
+            throw syntaxError("Missing value");
+        }
+        return JSONObject.stringToValue(string);
+    }
+
+    private static boolean isValueTerminator(int b) {
+        switch (b) {
+            case ',': case ':': case ']': case '}': case '/': case '\\':
+            case '"': case '[': case '{': case ';': case '=': case '#':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private String asciiString(int from, int to) {
+        int len = to - from;
+        if (len > chars.length) {
+            chars = new char[len];
+        }
+        for (int i = 0; i < len; i++) {
+            chars[i] = (char) buf[from + i];
+        }
+        return new String(chars, 0, len);
+    }
+
+    private char nextHex4() throws JSONException {
+        if (end - pos < 4) {
+            pos = end;
+            throw syntaxError("Substring bounds error");
+        }
+        int v = 0;
+        for (int i = 0; i < 4; i++) {
+            int h = dehexchar((char) buf[pos++]);
+            if (h < 0) {
+                throw syntaxError("Illegal escape.");
+            }
+            v = (v << 4) | h;
+        }
+        return (char) v;
+    }
+
+    /**
+     * Decodes a multi byte UTF-8 sequence whose lead byte has just been
+     * consumed. Supplementary code points return the high surrogate and
+     * leave the low one in pendingLow.
+     */
+    private char decode(int lead) {
+        int cp;
+        int min;
+        int max = 0xBF;
+        int count;
+        if (lead >= 0xC2 && lead <= 0xDF) {
+            count = 1;
+            min = 0x80;
+            cp = lead & 0x1F;
+        } else if (lead >= 0xE0 && lead <= 0xEF) {
+            count = 2;
+            min = lead == 0xE0 ? 0xA0 : 0x80;
+            if (lead == 0xED) {
+                max = 0x9F; // no encoded surrogates
+            }
+            cp = lead & 0x0F;
+        } else if (lead >= 0xF0 && lead <= 0xF4) {
+            count = 3;
+            min = lead == 0xF0 ? 0x90 : 0x80;
+            if (lead == 0xF4) {
+                max = 0x8F;
+            }
+            cp = lead & 0x07;
+        } else {
+            return REPLACEMENT_CHAR;
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (pos >= end) {
+                return REPLACEMENT_CHAR;
+            }
+            int b = buf[pos] & 0xff;
+            if (b < min || b > max) {
+                // leave the offending byte to be read again
+                return REPLACEMENT_CHAR;
+            }
+            pos++;
+            cp = (cp << 6) | (b & 0x3F);
+            min = 0x80;
+            max = 0xBF;
+        }
+
+        if (cp >= 0x10000) {
+            cp -= 0x10000;
+            pendingLow = (char) (0xDC00 + (cp & 0x3FF));
+            return (char) (0xD800 + (cp >>> 10));
+        }
+        return (char) cp;
+    }
+
+    @Override
+    public char skipTo(char to) throws JSONException {
+        int startPos = pos;
+        boolean startUsePrevious = usePrevious;
+        char startPrevious = previous;
+        char startPendingLow = pendingLow;
+        char c;
+        do {
+            c = next();
+            if (c == 0) {
+                pos = startPos;
+                usePrevious = startUsePrevious;
+                previous = startPrevious;
+                pendingLow = startPendingLow;
+                eof = false;
+                return c;
+            }
+        } while (c != to);
+        back();
+        return c;
+    }
+
+    /**
+     * The line and character are only worked out when the message is
+     * asked for, from the bytes of the row: do it before they're reused.
+     */
+    @Override
+    public JSONException syntaxError(String message) {
+        return new ByteSyntaxError(message, buf, start, pos);
+    }
+
+    private static class ByteSyntaxError extends SyntaxError {
+        private static final long serialVersionUID = 0;
+        private final transient byte[] buf;
+        private final int start;
+        private final int pos;
+
+        ByteSyntaxError(String reason, byte[] buf, int start, int pos) {
+            super(reason, pos - start, 0, 0);
+            this.buf = buf;
+            this.start = start;
+            this.pos = pos;
+        }
+
+        @Override
+        String where() {
+            return describe(buf, start, pos);
+        }
+    }
+
+    /**
+     * Make a printable string of this JSONByteTokener. Positions are byte
+     * offsets into the row.
+     *
+     * @return " at {index} [character {character} line {line}]"
+     */
+    @Override
+    public String toString() {
+        return describe(buf, start, pos);
+    }
+
+    private static String describe(byte[] buf, int start, int pos) {
+        int line = 1;
+        int lineStart = start;
+        for (int i = start; i < pos; i++) {
+            if (buf[i] == '\n') {
+                line++;
+                lineStart = i + 1;
+            }
+        }
+        return " at " + (pos - start) + " [character " + (pos - lineStart + 1) +
+                " line " + line + "]";
+    }
+}
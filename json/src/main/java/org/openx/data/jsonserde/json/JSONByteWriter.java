@@ -0,0 +1,266 @@
+package org.openx.data.jsonserde.json;
+
+/**
+ * A growable buffer JSON text gets written into as UTF-8 bytes, with the
+ * same escaping as JSONObject.quote() and the same number formatting as
+ * JSONObject.numberToString(), so that the bytes are exactly those of the
+ * String JSONObject.toString() would build.
+ *
+ * Meant to be reset and reused for every row.
+ */
+public class JSONByteWriter {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final byte[] MIN_LONG = String.valueOf(Long.MIN_VALUE).getBytes();
+
+    private byte[] buf;
+    private int length;
+
+    public JSONByteWriter() {
+        this(256);
+    }
+
+    public JSONByteWriter(int capacity) {
+        buf = new byte[capacity];
+    }
+
+    public void reset() {
+        length = 0;
+    }
+
+    /**
+     * @return the buffer, only the first length() bytes are valid.
+     */
+    public byte[] getBytes() {
+        return buf;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Drops what was written past the first length bytes.
+     */
+    public void truncate(int length) {
+        this.length = Math.min(length, this.length);
+    }
+
+    private void ensure(int more) {
+        if (length + more > buf.length) {
+            byte[] grown = new byte[Math.max(buf.length * 2, length + more)];
+            System.arraycopy(buf, 0, grown, 0, length);
+            buf = grown;
+        }
+    }
+
+    /**
+     * Appends an ASCII character, like '{' or ','.
+     */
+    public JSONByteWriter write(char c) {
+        ensure(1);
+        buf[length++] = (byte) c;
+        return this;
+    }
+
+    /**
+     * Appends a String made of ASCII characters only, like a number.
+     */
+    public JSONByteWriter writeAscii(String s) {
+        int n = s.length();
+        ensure(n);
+        for (int i = 0; i < n; i++) {
+            buf[length++] = (byte) s.charAt(i);
+        }
+        return this;
+    }
+
+    /**
+     * Appends bytes as they are, like a key quoted beforehand.
+     */
+    public JSONByteWriter write(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buf, length, bytes.length);
+        length += bytes.length;
+        return this;
+    }
+
+    public JSONByteWriter writeBoolean(boolean b) {
+        return writeAscii(b ? "true" : "false");
+    }
+
+    public JSONByteWriter writeNull() {
+        return writeAscii("null");
+    }
+
+    public JSONByteWriter writeLong(long v) {
+        if (v == Long.MIN_VALUE) {
+            ensure(MIN_LONG.length);
+            System.arraycopy(MIN_LONG, 0, buf, length, MIN_LONG.length);
+            length += MIN_LONG.length;
+            return this;
+        }
+        ensure(20);
+        if (v < 0) {
+            buf[length++] = '-';
+            v = -v;
+        }
+        int digits = 1;
+        for (long p = 10; digits < 19 && v >= p; p *= 10) {
+            digits++;
+        }
+        int i = length + digits;
+        length = i;
+        do {
+            buf[--i] = (byte) ('0' + (v % 10));
+            v /= 10;
+        } while (v != 0);
+        return this;
+    }
+
+    /**
+     * Appends a number the way JSONObject.numberToString() formats it.
+     * @throws JSONException if it's infinite or NaN
+     */
+    public JSONByteWriter writeNumber(Number number) throws JSONException {
+        if (number instanceof Long || number instanceof Integer
+                || number instanceof Short || number instanceof Byte) {
+            return writeLong(number.longValue());
+        }
+        if (number instanceof Double) {
+            return writeDouble(number.doubleValue());
+        }
+        if (number instanceof Float) {
+            return writeFloat(number.floatValue());
+        }
+        return writeAscii(JSONObject.numberToString(number));
+    }
+
+    /**
+     * Same as writeNumber(Double.valueOf(d)).
+     */
+    public JSONByteWriter writeDouble(double d) throws JSONException {
+        if (Double.isInfinite(d) || Double.isNaN(d)) {
+            throw new JSONException("JSON does not allow non-finite numbers.");
+        }
+        return writeDecimal(Double.toString(d));
+    }
+
+    /**
+     * Same as writeNumber(Float.valueOf(f)).
+     */
+    public JSONByteWriter writeFloat(float f) throws JSONException {
+        if (Float.isInfinite(f) || Float.isNaN(f)) {
+            throw new JSONException("JSON does not allow non-finite numbers.");
+        }
+        return writeDecimal(Float.toString(f));
+    }
+
+    // shaves off trailing zeros and decimal point, like numberToString()
+    private JSONByteWriter writeDecimal(String string) {
+        int end = string.length();
+        if (string.indexOf('.') > 0 && string.indexOf('e') < 0
+                && string.indexOf('E') < 0) {
+            while (string.charAt(end - 1) == '0') {
+                end--;
+            }
+            if (string.charAt(end - 1) == '.') {
+                end--;
+            }
+        }
+        ensure(end);
+        for (int i = 0; i < end; i++) {
+            buf[length++] = (byte) string.charAt(i);
+        }
+        return this;
+    }
+
+    /**
+     * Appends a String as a quoted JSON string, escaped the way
+     * JSONObject.quote() does it. Unpaired surrogates become '?', as when
+     * Hadoop's Text encodes a String.
+     */
+    public JSONByteWriter writeQuoted(String string) {
+        if (string == null || string.length() == 0) {
+            return writeAscii("\"\"");
+        }
+
+        int len = string.length();
+        // worst case is 6 bytes (an escape) per char
+        ensure(len * 6 + 2);
+        byte[] b = buf;
+        int n = length;
+
+        b[n++] = '"';
+        char c = 0;
+        for (int i = 0; i < len; i++) {
+            char prev = c;
+            c = string.charAt(i);
+            switch (c) {
+                case '\\':
+                case '"':
+                    b[n++] = '\\';
+                    b[n++] = (byte) c;
+                    break;
+                case '/':
+                    if (prev == '<') {
+                        b[n++] = '\\';
+                    }
+                    b[n++] = '/';
+                    break;
+                case '\b':
+                    b[n++] = '\\';
+                    b[n++] = 'b';
+                    break;
+                case '\t':
+                    b[n++] = '\\';
+                    b[n++] = 't';
+                    break;
+                case '\n':
+                    b[n++] = '\\';
+                    b[n++] = 'n';
+                    break;
+                case '\f':
+                    b[n++] = '\\';
+                    b[n++] = 'f';
+                    break;
+                case '\r':
+                    b[n++] = '\\';
+                    b[n++] = 'r';
+                    break;
+                default:
+                    if (c < ' ' || (c >= 0x80 && c < 0xA0)
+                            || (c >= 0x2000 && c < 0x2100)) {
+                        b[n++] = '\\';
+                        b[n++] = 'u';
+                        b[n++] = HEX[(c >> 12) & 0xF];
+                        b[n++] = HEX[(c >> 8) & 0xF];
+                        b[n++] = HEX[(c >> 4) & 0xF];
+                        b[n++] = HEX[c & 0xF];
+                    } else if (c < 0x80) {
+                        b[n++] = (byte) c;
+                    } else if (c < 0x800) {
+                        b[n++] = (byte) (0xC0 | (c >> 6));
+                        b[n++] = (byte) (0x80 | (c & 0x3F));
+                    } else if (Character.isHighSurrogate(c) && i + 1 < len
+                            && Character.isLowSurrogate(string.charAt(i + 1))) {
+                        int cp = Character.toCodePoint(c, string.charAt(++i));
+                        c = string.charAt(i);
+                        b[n++] = (byte) (0xF0 | (cp >> 18));
+                        b[n++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                        b[n++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                        b[n++] = (byte) (0x80 | (cp & 0x3F));
+                    } else if (Character.isSurrogate(c)) {
+                        b[n++] = '?';
+                    } else {
+                        b[n++] = (byte) (0xE0 | (c >> 12));
+                        b[n++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                        b[n++] = (byte) (0x80 | (c & 0x3F));
+                    }
+            }
+        }
+        b[n++] = '"';
+        length = n;
+        return this;
+    }
+}
@@ -8,6 +8,7 @@ package org.openx.data.jsonserde.json;
 public class JSONException extends Exception {
 	private static final long serialVersionUID = 0;
 	private Throwable cause;
+    private int position = -1;
 
     /**
      * Constructs a JSONException with an explanatory message.
@@ -17,11 +18,28 @@ public class JSONException extends Exception {
         super(message);
     }
 
+    /**
+     * Constructs a JSONException for a syntax error.
+     * @param message Detail about the reason for the exception.
+     * @param position Where in the source parsing stopped.
+     */
+    public JSONException(String message, int position) {
+        super(message);
+        this.position = position;
+    }
+
     public JSONException(Throwable cause) {
         super(cause.getMessage());
         this.cause = cause;
     }
 
+    /**
+     * Where in the source parsing stopped, for syntax errors, -1 otherwise.
+     */
+    public int getPosition() {
+        return this.position;
+    }
+
 	@Override
     public Throwable getCause() {
         return this.cause;
@@ -137,6 +137,17 @@ public class JSONObject {
      */
     private Map map;
 
+    /**
+     * Keys with dots by their name with underscores instead, built on the
+     * first getDottedKey(), dropped when the object changes.
+     */
+    private Map<String, String> dottedKeys;
+
+    /**
+     * The view asMap() returns, built on the first call.
+     */
+    private Map mapView;
+
 
     /**
      * It is sometimes more convenient and less ambiguous to have a
@@ -146,6 +157,12 @@ public class JSONObject {
      */
     public static final Object NULL = new Null();
 
+    /**
+     * An empty JSONObject that can't be changed, shared by the rows that
+     * read as empty because they were malformed.
+     */
+    public static final JSONObject EMPTY = unmodifiable(new HashMap(), "malformed");
+
     private String parent;
 
 
@@ -162,6 +179,13 @@ public class JSONObject {
     }
 
 
+    private static JSONObject unmodifiable(Map map, String parent) {
+        JSONObject jo = new JSONObject(parent);
+        jo.map = Collections.unmodifiableMap(map);
+        return jo;
+    }
+
+
     /**
      * Construct a JSONObject from a subset of another JSONObject.
      * An array of strings is used to identify the keys that should be copied.
@@ -187,9 +211,29 @@ public class JSONObject {
      *  or a duplicated key.
      */
     public JSONObject(JSONTokener x, String parent) throws JSONException {
+        this(x, parent, null);
+    }
+
+
+    /**
+     * Construct a JSONObject from a JSONTokener, keeping only the keys
+     * in the projection. Values of other keys are skipped over by the
+     * tokener and never built. Nested objects are always parsed in full.
+     * @param x A JSONTokener object containing the source string.
+     * @param projection The keys to keep, or null to keep all of them.
+     * @throws JSONException If there is a syntax error in the source string
+     *  or a duplicated key.
+     */
+    public JSONObject(JSONTokener x, String parent, KeyProjection projection) throws JSONException {
         this(parent);
         char c;
         String key;
+        Set<String> skipped = null;
+        // keys outside the dictionary can't be projected, so they don't even
+        // need to be built, unless a key replacement, dots in keys or the
+        // duplicate check might still have to look at them
+        boolean knownOnly = projection != null && x.getKeyDictionary() != null
+                && x.isAllowDuplicates() && x.getKeySwapMap() == null && !projection.isDotsInKeys();
 
         if (x.nextClean() != '{') {
             throw x.syntaxError("A JSONObject text must begin with '{'");
@@ -203,7 +247,7 @@ public class JSONObject {
                 return;
             default:
                 x.back();
-                key = x.nextValue("key").toString().toLowerCase();
+                key = x.nextKey(knownOnly);
             }
 
 // The key is followed by ':'. We will also tolerate '=' or '=>'.
@@ -216,9 +260,27 @@ public class JSONObject {
             } else if (c != ':') {
                 throw x.syntaxError("Expected a ':' after a key");
             }
-            String safeKey = x.pushKey(key);
-            putOnce(safeKey, x.nextValue(safeKey), x.isAllowDuplicates());
-            x.popKey();
+            if (key == null) {
+                // not in the dictionary, so not in the projection either
+                x.skipValue();
+            } else {
+                String safeKey = x.pushKey(key);
+                if (projection == null || projection.wants(safeKey)) {
+                    putOnce(safeKey, x.nextValue(safeKey), x.isAllowDuplicates());
+                } else {
+                    x.skipValue();
+                    // still reject duplicates we never stored
+                    if (!x.isAllowDuplicates()) {
+                        if (skipped == null) {
+                            skipped = new HashSet<String>();
+                        }
+                        if (!skipped.add(safeKey)) {
+                            throw new JSONException("Duplicate key \"" + safeKey + "\"");
+                        }
+                    }
+                }
+                x.popKey();
+            }
 
 // Pairs are separated by ','. We will also tolerate ';'.
 
@@ -718,6 +780,125 @@ public class JSONObject {
     }
 
 
+    /**
+     * Get the key with dots that reads as name once its dots are turned
+     * into underscores, as dots.in.keys tables name their columns.
+     * If several do, the first one of keys().
+     *
+     * @param name  A name with underscores.
+     * @return      The key, or null if there is none.
+     */
+    public String getDottedKey(String name) {
+        if (dottedKeys == null) {
+            dottedKeys = indexDottedKeys(keys());
+        }
+        return dottedKeys.get(name);
+    }
+
+
+    /**
+     * Maps the keys with dots to their name with underscores instead,
+     * keeping the first key of each name.
+     */
+    static Map<String, String> indexDottedKeys(Iterator keys) {
+        Map<String, String> index = null;
+        while (keys.hasNext()) {
+            String key = (String) keys.next();
+            if (key != null && key.indexOf('.') >= 0) {
+                if (index == null) {
+                    index = new HashMap<String, String>();
+                }
+                String name = key.replace('.', '_');
+                if (!index.containsKey(name)) {
+                    index.put(name, key);
+                }
+            }
+        }
+        return index != null ? index : Collections.<String, String>emptyMap();
+    }
+
+
+    /**
+     * Get a read-only Map view of the JSONObject, with JSONObject.NULL
+     * values as null. Nothing gets copied: the view reads straight from
+     * the JSONObject, so it sees later changes, and it's only built once.
+     *
+     * @return The view.
+     */
+    public Map asMap() {
+        if (mapView == null) {
+            mapView = new MapView();
+        }
+        return mapView;
+    }
+
+
+    private static Object unNull(Object value) {
+        return value == NULL ? null : value;
+    }
+
+
+    private class MapView extends AbstractMap {
+        private Set entries;
+        private Set keys;
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return map.containsKey(key);
+        }
+
+        @Override
+        public Object get(Object key) {
+            return unNull(map.get(key));
+        }
+
+        @Override
+        public Set keySet() {
+            if (keys == null) {
+                keys = Collections.unmodifiableSet(map.keySet());
+            }
+            return keys;
+        }
+
+        @Override
+        public Set entrySet() {
+            if (entries == null) {
+                entries = new AbstractSet() {
+                    @Override
+                    public int size() {
+                        return map.size();
+                    }
+
+                    @Override
+                    public Iterator iterator() {
+                        final Iterator i = map.entrySet().iterator();
+                        return new Iterator() {
+                            public boolean hasNext() {
+                                return i.hasNext();
+                            }
+
+                            public Object next() {
+                                Map.Entry e = (Map.Entry) i.next();
+                                return new AbstractMap.SimpleImmutableEntry(e.getKey(), unNull(e.getValue()));
+                            }
+
+                            public void remove() {
+                                throw new UnsupportedOperationException();
+                            }
+                        };
+                    }
+                };
+            }
+            return entries;
+        }
+    }
+
+
     /**
      * Get the number of keys stored in the JSONObject.
      *
@@ -1116,6 +1297,7 @@ public class JSONObject {
         if (value != null) {
             testValidity(value);
             this.map.put(key, value);
+            this.dottedKeys = null;
         } else {
             remove(key);
         }
@@ -1233,6 +1415,7 @@ public class JSONObject {
      * or null if there was no value.
      */
     public Object remove(String key) {
+        this.dottedKeys = null;
         return this.map.remove(key);
     }
 
@@ -1243,12 +1426,59 @@ public class JSONObject {
      */
     public static class DelayedValue implements JSONString {
 
+        // more digits than this might not fit in a long
+        static final int MAX_LONG_DIGITS = 18;
+
         private final String value;
 
         DelayedValue(String value) {
             this.value = value;
         }
 
+        /**
+         * True if the value is an optional minus sign followed by at most 18
+         * digits (but not minus zero), in which case longValue() returns it
+         * without going through Long.parseLong(). Anything else, like
+         * decimals, exponents or hex numbers, is left for the caller to parse
+         * from toString(). Nothing is decoded until a numeric column asks.
+         */
+        public boolean isLong() {
+            int len = value.length();
+            int i = len > 0 && value.charAt(0) == '-' ? 1 : 0;
+            if (len == i || len - i > MAX_LONG_DIGITS) {
+                return false;
+            }
+            boolean zero = true;
+            for (; i < len; i++) {
+                char c = value.charAt(i);
+                if (c < '0' || c > '9') {
+                    return false;
+                }
+                zero &= c == '0';
+            }
+            return !(zero && value.charAt(0) == '-');
+        }
+
+        /**
+         * The value as a long, only meaningful if isLong().
+         */
+        public long longValue() {
+            boolean negative = value.charAt(0) == '-';
+            long n = 0;
+            for (int i = negative ? 1 : 0; i < value.length(); i++) {
+                n = n * 10 + (value.charAt(i) - '0');
+            }
+            return negative ? -n : n;
+        }
+
+        /**
+         * The value parsed as a double.
+         * @throws NumberFormatException if it's not a number
+         */
+        public double doubleValue() {
+            return isLong() ? (double) longValue() : Double.parseDouble(value);
+        }
+
         @Override
         public String toJSONString() {
             return value;
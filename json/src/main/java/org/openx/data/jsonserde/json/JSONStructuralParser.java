@@ -0,0 +1,377 @@
+package org.openx.data.jsonserde.json;
+
+import java.util.*;
+
+/**
+ * A two stage parser for rows held as UTF-8 bytes.
+ *
+ * The first stage (StructuralIndex) finds all the quotes and structural
+ * characters in one pass over 64 byte blocks. The second stage walks those
+ * positions only: it jumps from key to colon to value to separator, and
+ * skips unwanted values (see KeyProjection) by matching brackets in the
+ * index instead of scanning their bytes. Strings, keys and unquoted values
+ * are still decoded by a JSONByteTokener, so values come out exactly as the
+ * other tokenizers build them.
+ *
+ * The second stage only follows strict JSON structure. Whenever a row uses
+ * anything else the lenient tokener accepts (single quotes, '=' or ';' as
+ * separators, comments...) or is malformed, the row is parsed again from
+ * scratch with JSONByteTokener, which builds it, or reports the error, the
+ * usual way.
+ *
+ * Not thread safe; meant to be reused for every row.
+ */
+public class JSONStructuralParser {
+
+    /**
+     * Thrown by the second stage when it needs to hand the row over to the
+     * tokener. Shared and without a stack trace, since it's used for control
+     * flow only.
+     */
+    private static final class Fallback extends Exception {
+        private static final long serialVersionUID = 0;
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    private static final Fallback FALLBACK = new Fallback();
+
+    private final StructuralIndex index = new StructuralIndex();
+
+    // state of the row being parsed
+    private byte[] buf;
+    private int[] pos;
+    private int count;
+    private int i;          // next entry of pos to look at
+    private int valueEnd;   // one past the end of the last value parsed
+    private JSONByteTokener x;
+
+    private long fallbacks;
+
+    /**
+     * Parses the object or array in buf[start..end). The first byte must be
+     * '{' or '[', as for the other tokenizers the caller trims whitespace.
+     *
+     * @param projection top level keys to keep, or null for all of them
+     * @return a JSONObject or a JSONArray, or null if the row is neither
+     * @throws JSONException if the row is malformed
+     */
+    public Object parse(byte[] buf, int start, int end, boolean allowDuplicates,
+                        ReplaceNode keySwapMap, KeyDictionary keyDictionary,
+                        KeyProjection projection) throws JSONException {
+        if (start >= end || (buf[start] != '{' && buf[start] != '[')) {
+            return null;
+        }
+
+        JSONByteTokener tokener = new JSONByteTokener(buf, start, end, allowDuplicates, keySwapMap);
+        tokener.setKeyDictionary(keyDictionary);
+
+        if (index.build(buf, start, end)) {
+            this.buf = buf;
+            this.pos = index.positions();
+            this.count = index.count();
+            this.i = 0;
+            this.x = tokener;
+            try {
+                if (count > 0 && pos[0] == start) {
+                    return buf[start] == '{'
+                            ? parseObject("deserialize-base", projection)
+                            : parseArray();
+                }
+            } catch (Fallback f) {
+                // below
+            } catch (JSONException e) {
+                // let the tokener report it
+            } finally {
+                this.buf = null;
+                this.x = null;
+            }
+            fallbacks++;
+            tokener = new JSONByteTokener(buf, start, end, allowDuplicates, keySwapMap);
+            tokener.setKeyDictionary(keyDictionary);
+        } else {
+            fallbacks++;
+        }
+
+        if (buf[start] == '{') {
+            return new JSONObject(tokener, "deserialize-base", projection);
+        }
+        return new JSONArray(tokener);
+    }
+
+    /**
+     * @return how many rows had to be parsed again with the tokener.
+     */
+    public long getFallbacks() {
+        return fallbacks;
+    }
+
+    /**
+     * pos[i] is a '{'. Returns with i past the matching '}'.
+     */
+    private JSONObject parseObject(String parent, KeyProjection projection) throws JSONException, Fallback {
+        JSONObject o = new JSONObject(parent);
+        Set<String> skipped = null;
+        boolean knownOnly = projection != null && x.getKeyDictionary() != null
+                && x.isAllowDuplicates() && x.getKeySwapMap() == null && !projection.isDotsInKeys();
+
+        int after = pos[i++] + 1;
+        if (at('}', after)) {
+            i++;
+            return o;
+        }
+        for (;;) {
+            // "key"
+            if (!at('"', after) || i + 1 >= count) {
+                throw FALLBACK;
+            }
+            x.seek(pos[i]);
+            String key = x.nextKey(knownOnly);
+            if (x.position() != pos[i + 1] + 1) {
+                throw FALLBACK;
+            }
+            i += 2;
+
+            // :
+            if (!at(':', pos[i - 1] + 1)) {
+                throw FALLBACK;
+            }
+            after = pos[i++] + 1;
+
+            if (key == null) {
+                // not in the dictionary, so not in the projection either
+                after = skipValue(after);
+            } else {
+                String safeKey = x.pushKey(key);
+                if (projection == null || projection.wants(safeKey)) {
+                    o.putOnce(safeKey, parseValue(after, safeKey), x.isAllowDuplicates());
+                    after = valueEnd;
+                } else {
+                    after = skipValue(after);
+                    if (!x.isAllowDuplicates()) {
+                        if (skipped == null) {
+                            skipped = new HashSet<String>();
+                        }
+                        if (!skipped.add(safeKey)) {
+                            throw new JSONException("Duplicate key \"" + safeKey + "\"");
+                        }
+                    }
+                }
+                x.popKey();
+            }
+
+            // , or }
+            if (at(',', after)) {
+                after = pos[i++] + 1;
+                if (at('}', after)) {
+                    i++;
+                    return o;
+                }
+            } else if (at('}', after)) {
+                i++;
+                return o;
+            } else {
+                throw FALLBACK;
+            }
+        }
+    }
+
+    /**
+     * pos[i] is a '['. Returns with i past the matching ']'.
+     */
+    private JSONArray parseArray() throws JSONException, Fallback {
+        JSONArray a = new JSONArray();
+
+        int after = pos[i++] + 1;
+        if (at(']', after)) {
+            i++;
+            return a;
+        }
+        for (;;) {
+            if (at(',', after)) {
+                a.put(JSONObject.NULL);
+            } else {
+                a.put(parseValue(after, "array"));
+                after = valueEnd;
+            }
+
+            // , or ]
+            if (at(',', after)) {
+                after = pos[i++] + 1;
+                if (at(']', after)) {
+                    i++;
+                    return a;
+                }
+            } else if (at(']', after)) {
+                i++;
+                return a;
+            } else {
+                throw FALLBACK;
+            }
+        }
+    }
+
+    /**
+     * Parses the value starting at or after the byte offset after, and sets
+     * valueEnd to one past its last byte.
+     */
+    private Object parseValue(int after, String key) throws JSONException, Fallback {
+        if (i >= count) {
+            throw FALLBACK;
+        }
+        int p = pos[i];
+        byte c = buf[p];
+        if (blank(after, p)) {
+            Object value;
+            switch (c) {
+                case '{':
+                    value = parseObject(key, null);
+                    break;
+                case '[':
+                    value = parseArray();
+                    break;
+                case '"':
+                    if (i + 1 >= count) {
+                        throw FALLBACK;
+                    }
+                    x.seek(p);
+                    value = x.nextValue(key);
+                    if (x.position() != pos[i + 1] + 1) {
+                        throw FALLBACK;
+                    }
+                    i += 2;
+                    break;
+                default:
+                    // nothing before a separator, let the tokener complain
+                    throw FALLBACK;
+            }
+            valueEnd = pos[i - 1] + 1;
+            return value;
+        }
+
+        // an unquoted value, which ends before the next separator
+        if (c != ',' && c != '}' && c != ']') {
+            throw FALLBACK;
+        }
+        x.seek(after);
+        Object value = x.nextValue(key);
+        valueEnd = x.position();
+        if (!blank(valueEnd, p)) {
+            throw FALLBACK;
+        }
+        return value;
+    }
+
+    /**
+     * Skips the value starting at or after the byte offset after.
+     * @return one past its last byte
+     */
+    private int skipValue(int after) throws Fallback {
+        if (i >= count) {
+            throw FALLBACK;
+        }
+        int p = pos[i];
+        byte c = buf[p];
+        if (blank(after, p)) {
+            switch (c) {
+                case '{':
+                case '[':
+                    int depth = 0;
+                    do {
+                        c = buf[pos[i++]];
+                        if (c == '{' || c == '[') {
+                            depth++;
+                        } else if (c == '}' || c == ']') {
+                            depth--;
+                        } else if (c == '"') {
+                            if (i >= count) {
+                                throw FALLBACK;
+                            }
+                            checkString(pos[i - 1], pos[i]);
+                            i++;
+                        }
+                    } while (depth > 0 && i < count);
+                    if (depth > 0) {
+                        throw FALLBACK;
+                    }
+                    return pos[i - 1] + 1;
+                case '"':
+                    if (i + 1 >= count) {
+                        throw FALLBACK;
+                    }
+                    checkString(pos[i], pos[i + 1]);
+                    i += 2;
+                    return pos[i - 1] + 1;
+                default:
+                    throw FALLBACK;
+            }
+        }
+
+        if ((c != ',' && c != '}') || !plain(after, p)) {
+            throw FALLBACK;
+        }
+        return p;
+    }
+
+    /**
+     * Falls back to the tokener, to get the same error, if the string
+     * between the quotes at open and close has a character the tokener
+     * doesn't accept unescaped.
+     */
+    private void checkString(int open, int close) throws Fallback {
+        for (int k = open + 1; k < close; k++) {
+            byte b = buf[k];
+            if (b == '\\') {
+                k++;
+            } else if (b == 0 || b == '\n' || b == '\r') {
+                throw FALLBACK;
+            }
+        }
+    }
+
+    /**
+     * True if pos[i] is the character c and only whitespace lies between
+     * the byte offset from and it.
+     */
+    private boolean at(char c, int from) {
+        return i < count && buf[pos[i]] == c && blank(from, pos[i]);
+    }
+
+    private boolean blank(int from, int to) {
+        for (int k = from; k < to; k++) {
+            byte b = buf[k];
+            if (b <= 0 || b > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * True if buf[from..to) is an unquoted value the tokener would read in
+     * full: surrounding whitespace, then at least one character, with no
+     * control characters and none of the characters that end an unquoted
+     * value.
+     */
+    private boolean plain(int from, int to) {
+        while (from < to && buf[from] > 0 && buf[from] <= ' ') {
+            from++;
+        }
+        while (to > from && buf[to - 1] > 0 && buf[to - 1] <= ' ') {
+            to--;
+        }
+        if (from == to) {
+            return false;
+        }
+        for (int k = from; k < to; k++) {
+            byte b = buf[k];
+            if (b >= 0 && (b < ' ' || b == '/' || b == '\\' || b == ';' || b == '=' || b == '#')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
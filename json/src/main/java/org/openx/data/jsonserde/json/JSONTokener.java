@@ -8,7 +8,6 @@ import java.io.Reader;
 import java.io.StringReader;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Stack;
 
 /*
 Copyright (c) 2002 JSON.org
@@ -53,7 +52,13 @@ public class JSONTokener {
     private boolean allowDuplicates;
 
     private ReplaceNode keySwapMap;
-    private Stack<String> parseStack = new Stack<String>();
+    // match state of keySwapMap for each enclosing key, null once a path can't match anymore
+    private ReplaceNode[] keyStates = new ReplaceNode[8];
+    private int keyDepth = 0;
+    private KeyDictionary keyDictionary;
+
+    // scratch buffer for string literals, reused across the whole row
+    protected char[] chars = new char[64];
 
     /**
      * Construct a JSONTokener from a Reader.
@@ -61,8 +66,17 @@ public class JSONTokener {
      * @param reader     A reader.
      */
     public JSONTokener(Reader reader, boolean allowDuplicates, ReplaceNode keySwapMap) {
-        this.reader = reader.markSupported() ? 
+        this(allowDuplicates, keySwapMap);
+        this.reader = reader.markSupported() ?
         		reader : new BufferedReader(reader);
+    }
+
+
+    /**
+     * Construct a JSONTokener with no underlying Reader. Used by subclasses
+     * that bring their own input and override next(), back() and friends.
+     */
+    protected JSONTokener(boolean allowDuplicates, ReplaceNode keySwapMap) {
         this.eof = false;
         this.usePrevious = false;
         this.previous = 0;
@@ -98,6 +112,24 @@ public class JSONTokener {
         return allowDuplicates;
     }
 
+    public ReplaceNode getKeySwapMap() {
+        return keySwapMap;
+    }
+
+    public KeyDictionary getKeyDictionary() {
+        return keyDictionary;
+    }
+
+    /**
+     * Sets the dictionary nextKey() looks keys up in.
+     * @param keyDictionary the dictionary, or null
+     * @return this
+     */
+    public JSONTokener setKeyDictionary(KeyDictionary keyDictionary) {
+        this.keyDictionary = keyDictionary;
+        return this;
+    }
+
     /**
      * Back up one character. This provides a sort of lookahead capability,
      * so that you can test for a digit or letter before attempting to parse
@@ -265,10 +297,29 @@ public class JSONTokener {
      * @throws JSONException Unterminated string.
      */
     public String nextString(char quote) throws JSONException {
+        int n = nextChars(quote);
+        return new String(chars, 0, n);
+    }
+
+
+    /**
+     * Same as nextString(), but leaves the characters in the chars buffer
+     * instead of building a String, so callers that only need to look at
+     * them (like nextKey()) don't allocate.
+     * @param quote The quoting character.
+     * @return      The number of characters put in chars.
+     * @throws JSONException Unterminated string.
+     */
+    protected int nextChars(char quote) throws JSONException {
         char c;
-        StringBuilder sb = new StringBuilder();
+        int n = 0;
         for (;;) {
             c = next();
+            if (n + 2 >= chars.length) {
+                char[] grown = new char[chars.length * 2];
+                System.arraycopy(chars, 0, grown, 0, n);
+                chars = grown;
+            }
             switch (c) {
             case 0:
             case '\n':
@@ -278,33 +329,33 @@ public class JSONTokener {
                 c = next();
                 switch (c) {
                 case 'b':
-                    sb.append('\b');
+                    chars[n++] = '\b';
                     break;
                 case 't':
-                    sb.append('\t');
+                    chars[n++] = '\t';
                     break;
                 case 'n':
-                    sb.append('\n');
+                    chars[n++] = '\n';
                     break;
                 case 'f':
-                    sb.append('\f');
+                    chars[n++] = '\f';
                     break;
                 case 'r':
-                    sb.append('\r');
+                    chars[n++] = '\r';
                     break;
                 case 'u':
-                    sb.append((char)Integer.parseInt(next(4), 16));
+                    chars[n++] = (char)Integer.parseInt(next(4), 16);
                     break;
                 case 'a':
-                    sb.append("\007");
+                    chars[n++] = '\007';
                 case 'v':
-                    sb.append("\011");
+                    chars[n++] = '\011';
                     break;
                 case '"':
                 case '\'':
                 case '\\':
                 case '/':
-                	sb.append(c);
+                	chars[n++] = c;
                 	break;
                 default:
                     throw syntaxError("Illegal escape.");
@@ -312,11 +363,37 @@ public class JSONTokener {
                 break;
             default:
                 if (c == quote) {
-                    return sb.toString();
+                    return n;
+                }
+                chars[n++] = c;
+            }
+        }
+    }
+
+
+    /**
+     * Get the next object key, lower cased. If a key dictionary is set and
+     * the key is in it, the dictionary's own instance is returned and nothing
+     * gets allocated.
+     * @param knownOnly if true, keys that are not in the dictionary are not
+     *  built at all and null is returned instead.
+     * @return the key, or null for an unknown key when knownOnly is set.
+     * @throws JSONException If the key is malformed.
+     */
+    public String nextKey(boolean knownOnly) throws JSONException {
+        if (keyDictionary != null) {
+            char c = nextClean();
+            if (c == '"' || c == '\'') {
+                int n = nextChars(c);
+                String key = keyDictionary.lookup(chars, 0, n);
+                if (key != null || knownOnly) {
+                    return key;
                 }
-                sb.append(c);
+                return new String(chars, 0, n).toLowerCase();
             }
+            back();
         }
+        return nextValue("key").toString().toLowerCase();
     }
 
 
@@ -407,6 +484,87 @@ public class JSONTokener {
     }
 
 
+    /**
+     * Skip over the next value without building it. Strings, objects and
+     * arrays are skipped by matching quotes, braces and brackets; their
+     * contents are not validated. Unquoted values end where nextValue
+     * would end them.
+     * @throws JSONException If the value is unterminated or missing.
+     */
+    public void skipValue() throws JSONException {
+        char c = nextClean();
+
+        switch (c) {
+            case '"':
+            case '\'':
+                skipString(c);
+                return;
+            case '{':
+            case '[':
+                int depth = 1;
+                for (;;) {
+                    c = next();
+                    switch (c) {
+                        case 0:
+                            throw syntaxError("Unterminated value");
+                        case '"':
+                        case '\'':
+                            skipString(c);
+                            break;
+                        case '{':
+                        case '[':
+                            depth++;
+                            break;
+                        case '}':
+                        case ']':
+                            if (--depth == 0) {
+                                return;
+                            }
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            default:
+                break;
+        }
+
+        boolean blank = true;
+        while (c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0) {
+            if (c != ' ') {
+                blank = false;
+            }
+            c = next();
+        }
+        back();
+        if (blank) {
+            throw syntaxError("Missing value");
+        }
+    }
+
+    /**
+     * Skip the rest of a string whose opening quote has been read.
+     */
+    private void skipString(char quote) throws JSONException {
+        for (;;) {
+            char c = next();
+            switch (c) {
+                case 0:
+                case '\n':
+                case '\r':
+                    throw syntaxError("Unterminated string");
+                case '\\':
+                    next();
+                    break;
+                default:
+                    if (c == quote) {
+                        return;
+                    }
+            }
+        }
+    }
+
+
     /**
      * Skip characters until the next character is the requested character.
      * If the requested character is not found, no characters are skipped.
@@ -448,7 +606,46 @@ public class JSONTokener {
      * @return  A JSONException object, suitable for throwing
      */
     public JSONException syntaxError(String message) {
-        return new JSONException(message + toString());
+        return new SyntaxError(message, index, character, line);
+    }
+
+
+    /**
+     * A syntax error. Dirty data makes these common, so they're cheap: no
+     * stack trace, and the message with the position in it is only put
+     * together when somebody asks for it.
+     */
+    static class SyntaxError extends JSONException {
+        private static final long serialVersionUID = 0;
+        private final int character;
+        private final int line;
+        private String message;
+
+        SyntaxError(String reason, int position, int character, int line) {
+            super(reason, position);
+            this.character = character;
+            this.line = line;
+        }
+
+        /**
+         * Where the error is, appended to the reason.
+         */
+        String where() {
+            return " at " + getPosition() + " [character " + character + " line " + line + "]";
+        }
+
+        @Override
+        public String getMessage() {
+            if (message == null) {
+                message = super.getMessage() + where();
+            }
+            return message;
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
     }
 
 
@@ -468,14 +665,15 @@ public class JSONTokener {
      */
     public String pushKey(String thisKey) {
         if(keySwapMap != null) {
-            parseStack.push(thisKey);
-            ReplaceNode node = keySwapMap;
-            for (String key : parseStack) {
-                node = node.nextNode(key);
-                if(node == null) {
-                    return thisKey;
-                }
+            // one transition from the state of the enclosing key
+            ReplaceNode parent = keyDepth == 0 ? keySwapMap : keyStates[keyDepth - 1];
+            ReplaceNode node = parent == null ? null : parent.nextNode(thisKey);
+            if(keyDepth == keyStates.length) {
+                ReplaceNode[] grown = new ReplaceNode[keyStates.length * 2];
+                System.arraycopy(keyStates, 0, grown, 0, keyDepth);
+                keyStates = grown;
             }
+            keyStates[keyDepth++] = node;
 
             // If found pattern match and there's a replacement for it, then swap!
             if(node != null && node.replaceWith != null) {
@@ -487,7 +685,7 @@ public class JSONTokener {
 
     public void popKey() {
         if(keySwapMap != null) {
-            parseStack.pop();
+            keyDepth--;
         }
     }
 }
\ No newline at end of file
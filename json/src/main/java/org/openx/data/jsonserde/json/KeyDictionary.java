@@ -0,0 +1,110 @@
+package org.openx.data.jsonserde.json;
+
+import java.util.*;
+
+/**
+ * The keys a table can ask for, known when the SerDe is initialized.
+ * Looks a key up straight from a character buffer, ignoring case, and
+ * returns the lower case, interned instance, so that known keys cost no
+ * allocation at all while parsing.
+ *
+ * Keys with characters that are not ASCII are lower cased with
+ * String.toLowerCase() first, like before, so they are found too, they just
+ * cost a String.
+ */
+public class KeyDictionary {
+
+    private final String[] table;
+    private final int mask;
+    private final int size;
+
+    public KeyDictionary(Collection<String> keys) {
+        Set<String> unique = new HashSet<String>();
+        for (String key : keys) {
+            if (key != null) {
+                unique.add(key.toLowerCase().intern());
+            }
+        }
+        int capacity = 16;
+        while (capacity < unique.size() * 2) {
+            capacity <<= 1;
+        }
+        table = new String[capacity];
+        mask = capacity - 1;
+        size = unique.size();
+        for (String key : unique) {
+            int i = spread(key.hashCode()) & mask;
+            while (table[i] != null) {
+                i = (i + 1) & mask;
+            }
+            table[i] = key;
+        }
+    }
+
+    /**
+     * Finds a key, ignoring case.
+     * @return the lower case key, or null if it is not in the dictionary.
+     */
+    public String lookup(char[] buf, int off, int len) {
+        // same as hashCode() of the lower cased key
+        int h = 0;
+        for (int i = off; i < off + len; i++) {
+            char c = buf[i];
+            if (c >= 0x80) {
+                return find(new String(buf, off, len).toLowerCase());
+            }
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            h = 31 * h + c;
+        }
+
+        int i = spread(h) & mask;
+        String key;
+        while ((key = table[i]) != null) {
+            if (key.length() == len && matches(key, buf, off)) {
+                return key;
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    // a key lower cased by toLowerCase(), which isn't always ASCII lower casing
+    private String find(String lower) {
+        int i = spread(lower.hashCode()) & mask;
+        String key;
+        while ((key = table[i]) != null) {
+            if (key.equals(lower)) {
+                return key;
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    public String lookup(String s) {
+        return lookup(s.toCharArray(), 0, s.length());
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static boolean matches(String key, char[] buf, int off) {
+        for (int i = 0; i < key.length(); i++) {
+            char c = buf[off + i];
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            if (key.charAt(i) != c) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+}
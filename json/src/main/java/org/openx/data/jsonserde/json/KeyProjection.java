@@ -0,0 +1,47 @@
+package org.openx.data.jsonserde.json;
+
+import java.util.*;
+
+/**
+ * The set of top level keys a reader actually needs. When a JSONObject is
+ * parsed with a projection, values of any other key are skipped by the
+ * tokener without being materialized.
+ *
+ * Keys are matched after lower casing and key replacement (changekeyto.*),
+ * that is, exactly as they would be stored in the JSONObject.
+ */
+public class KeyProjection {
+
+    private final Set<String> keys;
+    private final boolean dotsInKeys;
+
+    /**
+     * @param keys       keys to keep, lower case
+     * @param dotsInKeys also keep keys that match once their dots are
+     *                   replaced with underscores (dots.in.keys)
+     */
+    public KeyProjection(Collection<String> keys, boolean dotsInKeys) {
+        this.keys = new HashSet<String>(keys);
+        this.dotsInKeys = dotsInKeys;
+    }
+
+    public boolean wants(String key) {
+        if (keys.contains(key)) {
+            return true;
+        }
+        return dotsInKeys && key.indexOf('.') >= 0 && keys.contains(key.replace('.', '_'));
+    }
+
+    public Set<String> getKeys() {
+        return Collections.unmodifiableSet(keys);
+    }
+
+    public boolean isDotsInKeys() {
+        return dotsInKeys;
+    }
+
+    @Override
+    public String toString() {
+        return "KeyProjection" + keys + (dotsInKeys ? " (dots in keys)" : "");
+    }
+}
@@ -0,0 +1,284 @@
+package org.openx.data.jsonserde.json;
+
+import java.util.*;
+
+/**
+ * A JSON object that is parsed on demand, in the spirit of Hive's LazyStruct.
+ *
+ * It keeps a copy of the UTF-8 bytes of the object. The first time a key is
+ * looked up, one structural scan records where the value of each top level
+ * key starts, skipping the values themselves. A value is then parsed, with
+ * the same rules as JSONObject, only when it is asked for, and kept for
+ * subsequent lookups.
+ *
+ * scan() does the structural scan right away, so that a row that is not a
+ * JSON object can be reported as a whole, like any other malformed row.
+ * A value that turns out to be malformed only when it's parsed reads as
+ * null when ignoreMalformed is set, and throws a MalformedJSONException
+ * otherwise; either way the MalformedListener hears about the first one
+ * of the row.
+ */
+public class LazyJSONObject {
+
+    private final byte[] buf;
+    private final boolean allowDuplicates;
+    private final ReplaceNode keySwapMap;
+    private final boolean ignoreMalformed;
+    private final KeyDictionary keyDictionary;
+
+    // top level key (as stored in a JSONObject) -> index into the arrays below
+    private Map<String, Integer> index;
+    private String[] rawKeys;   // key before replacement, to seed the key stack
+    private int[] offsets;      // where the value starts
+    private Object[] values;    // parsed values, null until asked for
+
+    private JSONObject materialized;
+    private Map<String, String> dottedKeys;
+
+    private MalformedListener listener;
+    private boolean reported;
+
+    /**
+     * @param bytes  UTF-8 text of a JSON object
+     * @param start  first byte of the object
+     * @param end    one past the last byte of the object
+     * @param keyDictionary known keys, may be null
+     */
+    public LazyJSONObject(byte[] bytes, int start, int end, boolean allowDuplicates,
+                          ReplaceNode keySwapMap, KeyDictionary keyDictionary, boolean ignoreMalformed) {
+        this.buf = new byte[end - start];
+        System.arraycopy(bytes, start, this.buf, 0, end - start);
+        this.allowDuplicates = allowDuplicates;
+        this.keySwapMap = keySwapMap;
+        this.ignoreMalformed = ignoreMalformed;
+        this.keyDictionary = keyDictionary;
+    }
+
+    public LazyJSONObject setMalformedListener(MalformedListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * The UTF-8 text of the object. Not a copy, don't change it.
+     */
+    public byte[] bytes() {
+        return buf;
+    }
+
+    /**
+     * Does the structural scan now, instead of when a key is first looked up.
+     * @return this
+     * @throws JSONException if the object is malformed, apart from values
+     *  that are skipped over and only parsed when asked for
+     */
+    public LazyJSONObject scan() throws JSONException {
+        if (index == null) {
+            index();
+        }
+        return this;
+    }
+
+    public boolean has(String key) {
+        ensureIndex();
+        return index.containsKey(key);
+    }
+
+    /**
+     * Get the value of a key, parsing it if needed.
+     * @return the value, JSONObject.NULL for a JSON null, or null if the key is missing.
+     */
+    public Object opt(String key) {
+        ensureIndex();
+        Integer i = index.get(key);
+        if (i == null) {
+            return null;
+        }
+        int idx = i;
+        if (values[idx] == null) {
+            values[idx] = parseValue(idx, key);
+        }
+        return values[idx];
+    }
+
+    public int length() {
+        ensureIndex();
+        return index.size();
+    }
+
+    public Iterator keys() {
+        ensureIndex();
+        return index.keySet().iterator();
+    }
+
+    /**
+     * Same as JSONObject.getDottedKey().
+     */
+    public String getDottedKey(String name) {
+        if (dottedKeys == null) {
+            dottedKeys = JSONObject.indexDottedKeys(keys());
+        }
+        return dottedKeys.get(name);
+    }
+
+    /**
+     * Parses the whole object, for the few cases that need every key.
+     * @return a JSONObject with the same contents.
+     */
+    public JSONObject toJSONObject() {
+        if (materialized == null) {
+            try {
+                materialized = new JSONObject(tokener(0), "deserialize-base");
+            } catch (JSONException e) {
+                materialized = JSONObject.EMPTY;
+                malformed(e);
+            }
+        }
+        return materialized;
+    }
+
+    // the scan, if scan() wasn't called; a malformed row reads as empty
+    private void ensureIndex() {
+        if (index != null) {
+            return;
+        }
+        try {
+            index();
+        } catch (JSONException e) {
+            malformed(e);
+            rawKeys = new String[0];
+            offsets = new int[0];
+            values = new Object[0];
+            index = new HashMap<String, Integer>();
+        }
+    }
+
+    /**
+     * The structural scan: records where each value starts and skips it.
+     * Mirrors the key handling of the JSONObject(JSONTokener) constructor.
+     */
+    private void index() throws JSONException {
+        Map<String, Integer> idx = new HashMap<String, Integer>();
+        List<String> raw = new ArrayList<String>();
+        List<Integer> starts = new ArrayList<Integer>();
+
+        JSONByteTokener x = tokener(0);
+        if (x.nextClean() != '{') {
+            throw x.syntaxError("A JSONObject text must begin with '{'");
+        }
+        scan:
+        for (;;) {
+            char c = x.nextClean();
+            switch (c) {
+            case 0:
+                throw x.syntaxError("A JSONObject text must end with '}'");
+            case '}':
+                break scan;
+            default:
+                x.back();
+            }
+            String key = x.nextKey(false);
+
+            c = x.nextClean();
+            if (c == '=') {
+                if (x.next() != '>') {
+                    x.back();
+                }
+            } else if (c != ':') {
+                throw x.syntaxError("Expected a ':' after a key");
+            }
+            String safeKey = x.pushKey(key);
+            int valueStart = x.position();
+            x.skipValue();
+            x.popKey();
+
+            Integer previous = idx.put(safeKey, raw.size());
+            if (previous != null && !allowDuplicates) {
+                throw new JSONException("Duplicate key \"" + safeKey + "\"");
+            }
+            raw.add(key);
+            starts.add(valueStart);
+
+            switch (x.nextClean()) {
+            case ';':
+            case ',':
+                if (x.nextClean() == '}') {
+                    break scan;
+                }
+                x.back();
+                break;
+            case '}':
+                break scan;
+            default:
+                throw x.syntaxError("Expected a ',' or '}'");
+            }
+        }
+
+        rawKeys = raw.toArray(new String[raw.size()]);
+        offsets = new int[starts.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = starts.get(i);
+        }
+        values = new Object[offsets.length];
+        index = idx;
+    }
+
+    private Object parseValue(int idx, String safeKey) {
+        JSONByteTokener x = tokener(offsets[idx]);
+        try {
+            // so that nested key replacements see the same path as in a full parse
+            x.pushKey(rawKeys[idx]);
+            return x.nextValue(safeKey);
+        } catch (JSONException e) {
+            malformed(e);
+            return JSONObject.NULL;
+        }
+    }
+
+    private JSONByteTokener tokener(int from) {
+        JSONByteTokener x = new JSONByteTokener(buf, from, buf.length, allowDuplicates, keySwapMap);
+        x.setKeyDictionary(keyDictionary);
+        return x;
+    }
+
+    private void malformed(JSONException e) {
+        if (!reported) {
+            reported = true;
+            if (listener != null) {
+                listener.malformed(e, this);
+            }
+        }
+        if (!ignoreMalformed) {
+            throw new MalformedJSONException(
+                    "Row is not a valid JSON Object - JSONException: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Make a JSON text of this object, see JSONObject.toString().
+     */
+    @Override
+    public String toString() {
+        return toJSONObject().toString();
+    }
+
+    /**
+     * Told about the first malformed value found in a row.
+     */
+    public interface MalformedListener {
+        void malformed(JSONException e, LazyJSONObject row);
+    }
+
+    /**
+     * Thrown when a lazily parsed row turns out to be malformed. It is
+     * unchecked since it surfaces from object inspectors, long after
+     * deserialize() returned.
+     */
+    public static class MalformedJSONException extends RuntimeException {
+        private static final long serialVersionUID = 0;
+
+        public MalformedJSONException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
@@ -7,20 +7,70 @@ public class ReplaceNode {
     public String replaceWith = null;
     public final Map<String, ReplaceNode> children = new HashMap<String, ReplaceNode>();
 
+    // lookup tables built from children by compile()
+    private volatile Compiled compiled = null;
+
     public ReplaceNode nextNode(String keyToMatch) {
         if(keyToMatch == null) {
             return null;
         }
-        String normKeyToMatch = keyToMatch.toLowerCase();
+        Compiled c = compiled;
+        if(c == null) {
+            c = compile(this);
+        }
+
+        ReplaceNode exactNode = c.exact.get(keyToMatch);
+        if(exactNode == null && c.exact.size() > 0 && hasUpperCase(keyToMatch)) {
+            exactNode = c.exact.get(keyToMatch.toLowerCase());
+        }
 
         /* NOTE!
             Assure that the longest key always gets a chance to match first.
             This will assure that the pattern "abc_*" matches before "a*" which will
-            almost always be what's desired.
+            almost always be what's desired. Wildcards are sorted longest first,
+            and an exact key wins over a wildcard of the same length.
           */
-        List<Map.Entry<String, ReplaceNode>> orderedEntries = new ArrayList<Map.Entry<String, ReplaceNode>>(children.entrySet());
+        int keyLen = keyToMatch.length();
+        for(int i = 0; i < c.wildcardPrefixes.length; i++) {
+            String prefix = c.wildcardPrefixes[i];
+            if(exactNode != null && prefix.length() + 1 <= keyLen) {
+                return exactNode;
+            }
+            if(keyToMatch.regionMatches(true, 0, prefix, 0, prefix.length())) {
+                return c.wildcardNodes[i];
+            }
+        }
+        return exactNode;
+    }
+
+    /**
+     * Freezes this tree: builds the lookup tables of every node, so that
+     * nextNode() costs one hash lookup plus a scan of the wildcards, with
+     * no sorting and no allocation. Children added afterwards are ignored.
+     *
+     * @return this
+     */
+    public ReplaceNode compile() {
+        compile(this);
+        for(ReplaceNode child : children.values()) {
+            child.compile();
+        }
+        return this;
+    }
+
+    private static Compiled compile(ReplaceNode node) {
+        Map<String, ReplaceNode> exact = new HashMap<String, ReplaceNode>();
+        List<Map.Entry<String, ReplaceNode>> wildcards = new ArrayList<Map.Entry<String, ReplaceNode>>();
+
+        for(Map.Entry<String, ReplaceNode> entry : node.children.entrySet()) {
+            if(entry.getKey().endsWith("*")) {
+                wildcards.add(entry);
+            } else {
+                exact.put(entry.getKey().toLowerCase(), entry.getValue());
+            }
+        }
         Collections.sort(
-                orderedEntries,
+                wildcards,
                 new Comparator<Map.Entry<String, ReplaceNode>>() {
                     @Override
                     public int compare(Map.Entry<String, ReplaceNode> o1, Map.Entry<String, ReplaceNode> o2) {
@@ -31,25 +81,57 @@ public class ReplaceNode {
                 }
         );
 
-        for(Map.Entry<String, ReplaceNode> entry : orderedEntries) {
-            String key = entry.getKey();
-            ReplaceNode node = entry.getValue();
-            if(key.endsWith("*")) {
-                if(normKeyToMatch.length() < (key.length()-1)) {
-                    continue;
-                }
-                String keyPart = key.substring(0, key.length()-1);
-                String normKeyToMatchPart = normKeyToMatch.substring(0, key.length()-1);
-                if(keyPart.equalsIgnoreCase(normKeyToMatchPart)) {
-                    return node;
-                }
-            }
-            else if(key.equalsIgnoreCase(normKeyToMatch)) {
-                return node;
+        String[] prefixes = new String[wildcards.size()];
+        ReplaceNode[] nodes = new ReplaceNode[wildcards.size()];
+        for(int i = 0; i < prefixes.length; i++) {
+            String key = wildcards.get(i).getKey();
+            prefixes[i] = key.substring(0, key.length() - 1);
+            nodes[i] = wildcards.get(i).getValue();
+        }
+
+        Compiled c = new Compiled(exact, prefixes, nodes);
+        node.compiled = c;
+        return c;
+    }
+
+    /**
+     * Same rules: the same replacement and the same children.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        ReplaceNode that = (ReplaceNode) o;
+        if (replaceWith != null ? !replaceWith.equals(that.replaceWith) : that.replaceWith != null) return false;
+        return children.equals(that.children);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = replaceWith != null ? replaceWith.hashCode() : 0;
+        return 31 * result + children.hashCode();
+    }
+
+    private static boolean hasUpperCase(String s) {
+        for(int i = 0; i < s.length(); i++) {
+            if(Character.isUpperCase(s.charAt(i))) {
+                return true;
             }
         }
+        return false;
+    }
+
+    private static final class Compiled {
+        final Map<String, ReplaceNode> exact;
+        final String[] wildcardPrefixes;
+        final ReplaceNode[] wildcardNodes;
 
-        return null;
+        Compiled(Map<String, ReplaceNode> exact, String[] wildcardPrefixes, ReplaceNode[] wildcardNodes) {
+            this.exact = exact;
+            this.wildcardPrefixes = wildcardPrefixes;
+            this.wildcardNodes = wildcardNodes;
+        }
     }
 
-}
\ No newline at end of file
+}
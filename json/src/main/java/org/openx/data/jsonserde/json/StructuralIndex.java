@@ -0,0 +1,161 @@
+package org.openx.data.jsonserde.json;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * First stage of JSONStructuralParser: finds the positions of all the
+ * unescaped double quotes and of the structural characters { } [ ] : ,
+ * that are outside of strings, in the UTF-8 bytes of a row.
+ *
+ * The row is processed 64 bytes at a time. For each block, bitmasks of the
+ * interesting characters are built 8 bytes at a time (SWAR), then escaped
+ * characters and string interiors are worked out with carry-less arithmetic
+ * on the masks, like simdjson does with vector instructions:
+ * <ul>
+ * <li>escaped characters are the ones preceded by an odd run of backslashes,</li>
+ * <li>the inside of strings is the prefix XOR of the unescaped quotes.</li>
+ * </ul>
+ * Only one bit per byte ever gets looked at individually: when positions are
+ * extracted from the final mask.
+ *
+ * Not thread safe; meant to be reused for every row.
+ */
+public class StructuralIndex {
+
+    private static final long ODD_BITS = 0xAAAAAAAAAAAAAAAAL;
+    private static final long ONES = 0x0101010101010101L;
+    private static final long LOW7 = 0x7F7F7F7F7F7F7F7FL;
+    // gathers the top bit of each byte into the top byte
+    private static final long GATHER = 0x0102040810204080L;
+
+    private static final long QUOTE = '"' * ONES;
+    private static final long BACKSLASH = '\\' * ONES;
+    private static final long SINGLE_QUOTE = '\'' * ONES;
+    private static final long COLON = ':' * ONES;
+    private static final long COMMA = ',' * ONES;
+    private static final long LOWER_CASE = 0x20 * ONES;
+    private static final long OPEN = '{' * ONES;     // '[' | 0x20 == '{'
+    private static final long CLOSE = '}' * ONES;    // ']' | 0x20 == '}'
+
+    private int[] positions = new int[256];
+    private int count;
+
+    private final byte[] tail = new byte[64];
+    private final ByteBuffer tailBuffer = ByteBuffer.wrap(tail).order(ByteOrder.LITTLE_ENDIAN);
+    private ByteBuffer buffer;
+
+    /**
+     * Indexes buf[start..end).
+     *
+     * @return false if the row uses syntax the second stage doesn't handle
+     *  (single quotes or NUL bytes outside of strings), in which case the
+     *  index is incomplete.
+     */
+    public boolean build(byte[] buf, int start, int end) {
+        if (buffer == null || buffer.array() != buf) {
+            buffer = ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        count = 0;
+
+        long prevInString = 0;  // all ones if the previous block ended inside a string
+        long prevEscaped = 0;   // 1 if the first byte of this block is escaped
+
+        for (int base = start; base < end; base += 64) {
+            ByteBuffer block = buffer;
+            int off = base;
+            if (end - base < 64) {
+                // pad the last block with spaces
+                int n = end - base;
+                System.arraycopy(buf, base, tail, 0, n);
+                for (int k = n; k < 64; k++) {
+                    tail[k] = ' ';
+                }
+                block = tailBuffer;
+                off = 0;
+            }
+
+            long quote = 0;
+            long backslash = 0;
+            long structural = 0;
+            long unsupported = 0;
+            for (int w = 0; w < 8; w++) {
+                long word = block.getLong(off + (w << 3));
+                int shift = w << 3;
+                quote |= match(word, QUOTE) << shift;
+                backslash |= match(word, BACKSLASH) << shift;
+                long folded = word | LOWER_CASE;
+                structural |= (match(folded, OPEN) | match(folded, CLOSE)
+                        | match(word, COLON) | match(word, COMMA)) << shift;
+                unsupported |= (match(word, SINGLE_QUOTE) | match(word, 0)) << shift;
+            }
+
+            // characters preceded by an odd number of backslashes
+            long escaped;
+            if (backslash == 0) {
+                escaped = prevEscaped;
+                prevEscaped = 0;
+            } else {
+                long potentialEscape = backslash & ~prevEscaped;
+                long maybeEscaped = potentialEscape << 1;
+                long evenSeriesCodesAndOddBits = (maybeEscaped | ODD_BITS) - potentialEscape;
+                long escapeAndTerminalCode = evenSeriesCodesAndOddBits ^ ODD_BITS;
+                escaped = escapeAndTerminalCode ^ (backslash | prevEscaped);
+                prevEscaped = (escapeAndTerminalCode & backslash) >>> 63;
+            }
+
+            long quotes = quote & ~escaped;
+            // opening quote and string contents, closing quote excluded
+            long inString = prefixXor(quotes) ^ prevInString;
+            prevInString = inString >> 63;
+
+            if ((unsupported & ~inString) != 0) {
+                return false;
+            }
+
+            long bits = (structural & ~inString) | quotes;
+            if (count + 64 > positions.length) {
+                int[] grown = new int[positions.length * 2];
+                System.arraycopy(positions, 0, grown, 0, count);
+                positions = grown;
+            }
+            while (bits != 0) {
+                positions[count++] = base + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the positions found by the last build(), in order. Only the
+     *  first count() entries are valid.
+     */
+    public int[] positions() {
+        return positions;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    /**
+     * One bit per byte of word that is equal to the byte repeated in pattern.
+     */
+    static long match(long word, long pattern) {
+        long x = word ^ pattern;
+        // top bit of each byte set iff the byte is zero
+        long zero = ~(((x & LOW7) + LOW7) | x | LOW7);
+        return ((zero >>> 7) * GATHER) >>> 56;
+    }
+
+    static long prefixXor(long x) {
+        x ^= x << 1;
+        x ^= x << 2;
+        x ^= x << 4;
+        x ^= x << 8;
+        x ^= x << 16;
+        x ^= x << 32;
+        return x;
+    }
+}